@@ -0,0 +1,97 @@
+package com.frpc.launcher;
+
+import android.util.Base64;
+import android.util.Log;
+
+import org.json.JSONException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * frpc 管理接口（webServer）的客户端
+ * 只访问本机回环地址；HttpURLConnection 默认启用 keep-alive，
+ * 每次请求都完整读取并关闭响应流，底层连接会被放回连接池复用
+ */
+public class AdminApiClient {
+    private static final String TAG = "AdminApiClient";
+    private static final int CONNECT_TIMEOUT_MS = 2000;
+    private static final int READ_TIMEOUT_MS = 3000;
+
+    private final String baseUrl;
+    private final String authorization;
+    // 复用的读取缓冲区，只在轮询线程中使用
+    private final byte[] buffer = new byte[8192];
+    private final ByteArrayOutputStream body = new ByteArrayOutputStream(4096);
+
+    public AdminApiClient(String host, int port, String user, String password) {
+        this.baseUrl = "http://" + host + ":" + port;
+        String credentials = user + ":" + password;
+        this.authorization = "Basic " + Base64.encodeToString(
+                credentials.getBytes(StandardCharsets.UTF_8), Base64.NO_WRAP);
+    }
+
+    /**
+     * 获取所有代理的状态
+     *
+     * @throws IOException 请求失败、返回非 200 或响应无法解析
+     */
+    public List<ProxyStatus> fetchStatus() throws IOException {
+        String json = get("/api/status");
+        try {
+            return ProxyStatus.parseStatusResponse(json);
+        } catch (JSONException e) {
+            throw new IOException("无法解析代理状态: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 让frpc重新读取配置文件，新增或删除的代理立即生效，已有连接不受影响
+     *
+     * @throws IOException 请求失败或frpc拒绝了新配置
+     */
+    public void reload() throws IOException {
+        get("/api/reload");
+    }
+
+    private String get(String path) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + path).openConnection();
+        connection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+        connection.setReadTimeout(READ_TIMEOUT_MS);
+        connection.setUseCaches(false);
+        connection.setRequestProperty("Authorization", authorization);
+        int code = connection.getResponseCode();
+        if (code != HttpURLConnection.HTTP_OK) {
+            // 读完错误响应，连接仍可复用
+            drain(connection.getErrorStream());
+            throw new IOException("管理接口返回 " + code + ": " + path);
+        }
+        body.reset();
+        try (InputStream in = connection.getInputStream()) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                body.write(buffer, 0, read);
+            }
+        }
+        return new String(body.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private void drain(InputStream in) {
+        if (in == null) {
+            return;
+        }
+        try {
+            while (in.read(buffer) != -1) {
+                // 丢弃
+            }
+            in.close();
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to drain error stream", e);
+        }
+    }
+}
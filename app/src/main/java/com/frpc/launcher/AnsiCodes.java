@@ -0,0 +1,98 @@
+package com.frpc.launcher;
+
+/**
+ * ANSI 转义序列清理工具
+ * 在解码前的 UTF-8 字节上单次扫描、原地移除，不分配任何对象
+ */
+public final class AnsiCodes {
+    private static final int ESC = 0x1B;
+    private static final int CSI = 0x9B;
+    private static final int BEL = 0x07;
+
+    private AnsiCodes() {
+        // 工具类，不允许实例化
+    }
+
+    /**
+     * 在 UTF-8 字节中原地移除 ANSI 转义序列，解码前使用，避免为清理再生成一个字符串。
+     * C1 的 CSI（U+009B）在 UTF-8 中编码为 0xC2 0x9B
+     *
+     * @return 移除后的有效长度
+     */
+    public static int strip(byte[] bytes, int length) {
+        int write = 0;
+        int i = 0;
+        while (i < length) {
+            int c = bytes[i] & 0xFF;
+            if (c == ESC) {
+                if (i + 1 >= length) {
+                    // 行尾孤立的 ESC
+                    i++;
+                    continue;
+                }
+                int next = bytes[i + 1] & 0xFF;
+                if (next == '[') {
+                    i = skipCsi(bytes, i + 2, length);
+                } else if (next == ']') {
+                    i = skipOsc(bytes, i + 2, length);
+                } else {
+                    i = skipEscape(bytes, i + 1, length);
+                }
+            } else if (c == 0xC2 && i + 1 < length && (bytes[i + 1] & 0xFF) == CSI) {
+                i = skipCsi(bytes, i + 2, length);
+            } else {
+                bytes[write++] = bytes[i++];
+            }
+        }
+        return write;
+    }
+
+    /**
+     * 跳过 CSI 的参数字节（0x30-0x3F）、中间字节（0x20-0x2F）和结束字节（0x40-0x7E）
+     */
+    private static int skipCsi(byte[] bytes, int i, int length) {
+        while (i < length) {
+            int c = bytes[i++] & 0xFF;
+            if (c >= 0x40 && c <= 0x7E) {
+                break;
+            }
+            if (c < 0x20 || c > 0x3F) {
+                // 非法序列，在此处终止
+                return i - 1;
+            }
+        }
+        return i;
+    }
+
+    /**
+     * 跳过其他 ESC 序列：若干中间字节（0x20-0x2F）和一个结束字节（0x30-0x7E），如 ESC 7、ESC M、ESC ( B。
+     * 后面不是 ASCII 时只去掉 ESC 本身，不能吞掉 UTF-8 多字节字符的首字节
+     */
+    private static int skipEscape(byte[] bytes, int i, int length) {
+        int end = i;
+        while (end < length && bytes[end] >= 0x20 && bytes[end] <= 0x2F) {
+            end++;
+        }
+        if (end < length && bytes[end] >= 0x30 && bytes[end] <= 0x7E) {
+            return end + 1;
+        }
+        return i;
+    }
+
+    /**
+     * 跳过 OSC 序列，以 BEL 或 ESC \ 结束
+     */
+    private static int skipOsc(byte[] bytes, int i, int length) {
+        while (i < length) {
+            int c = bytes[i++] & 0xFF;
+            if (c == BEL) {
+                break;
+            }
+            if (c == ESC && i < length && bytes[i] == '\\') {
+                i++;
+                break;
+            }
+        }
+        return i;
+    }
+}
@@ -0,0 +1,295 @@
+package com.frpc.launcher;
+
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.content.res.AssetFileDescriptor;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
+import java.util.Properties;
+
+/**
+ * frpc 可执行文件的暂存管理
+ * 可执行目录中的文件名由内容哈希决定，内容不变时多次启动共用同一个文件；
+ * 清单文件记录上一次暂存的来源和哈希，来源未变化且目标文件的哈希仍然一致时跳过复制
+ */
+public class BinaryStager {
+    private static final String TAG = "BinaryStager";
+    private static final String ASSET_NAME = "frpc";
+    private static final String EXEC_DIR = "/data/local/tmp";
+    private static final String STAGED_PREFIX = "frpc_";
+    private static final String MANIFEST_NAME = "frpc_staging.properties";
+    private static final String KEY_SOURCE = "source";
+    private static final String KEY_SHA256 = "sha256";
+    private static final String KEY_SIZE = "size";
+    // 文件名中使用的哈希长度
+    private static final int NAME_HASH_CHARS = 16;
+
+    private final Context context;
+    private final RootShell rootShell;
+    private final File localCopy;
+    private final File manifestFile;
+
+    public BinaryStager(Context context, RootShell rootShell, File workDir) {
+        this.context = context;
+        this.rootShell = rootShell;
+        this.localCopy = new File(workDir, ASSET_NAME);
+        this.manifestFile = new File(context.getFilesDir(), MANIFEST_NAME);
+    }
+
+    public String stage() throws IOException {
+        return stage(null);
+    }
+
+    /**
+     * 确保 frpc 已暂存到可执行目录
+     *
+     * @param metrics 启动耗时记录，可以为 null
+     * @return 可执行文件路径
+     */
+    public synchronized String stage(StartupMetrics metrics) throws IOException {
+        String sourceKey = getSourceKey();
+        Properties manifest = loadManifest();
+        String hash = manifest.getProperty(KEY_SHA256);
+        long size = parseLong(manifest.getProperty(KEY_SIZE));
+
+        if (sourceKey.equals(manifest.getProperty(KEY_SOURCE)) && hash != null) {
+            String stagedPath = stagedPathFor(hash);
+            // 可执行目录对 shell 用户可写，长度相同的替换文件也会以 root 身份执行，复用前重新校验哈希
+            if (isIntact(stagedPath, hash, size)) {
+                Log.d(TAG, "Staged binary up to date: " + stagedPath);
+                return stagedPath;
+            }
+        } else {
+            hash = null;
+        }
+
+        // 来源已变化，或者暂存文件缺失，需要重新复制
+        if (hash == null || localCopy.length() != size) {
+            begin(metrics, StartupMetrics.Phase.ASSET_COPY);
+            copyFromAssets();
+            size = localCopy.length();
+            hash = sha256(localCopy);
+            end(metrics, StartupMetrics.Phase.ASSET_COPY);
+        }
+        String stagedPath = stagedPathFor(hash);
+        if (!isIntact(stagedPath, hash, size)) {
+            // 先写临时文件再重命名，避免留下不完整的可执行文件
+            String tmpPath = stagedPath + ".tmp";
+            begin(metrics, StartupMetrics.Phase.ROOT_COPY);
+            try {
+                RootShell.Result result = rootShell.exec("mkdir -p " + RootShell.quote(EXEC_DIR)
+                        + " && cat " + RootShell.quote(localCopy.getAbsolutePath()) + " > " + RootShell.quote(tmpPath)
+                        + " && chmod 755 " + RootShell.quote(tmpPath)
+                        + " && mv -f " + RootShell.quote(tmpPath) + " " + RootShell.quote(stagedPath));
+                if (!result.isSuccess()) {
+                    throw new IOException("复制文件失败，退出码: " + result.exitCode + " " + result.getOutputText());
+                }
+                if (!isIntact(stagedPath, hash, size)) {
+                    throw new IOException("文件复制失败或内容校验不一致");
+                }
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to copy to " + EXEC_DIR, e);
+                throw new IOException("无法复制文件到可执行目录，请确保应用有root权限: " + e.getMessage(), e);
+            } finally {
+                end(metrics, StartupMetrics.Phase.ROOT_COPY);
+            }
+            Log.d(TAG, "Staged binary to " + stagedPath);
+        }
+
+        Properties updated = new Properties();
+        updated.setProperty(KEY_SOURCE, sourceKey);
+        updated.setProperty(KEY_SHA256, hash);
+        updated.setProperty(KEY_SIZE, String.valueOf(size));
+        saveManifest(updated);
+        return stagedPath;
+    }
+
+    /**
+     * 删除可执行目录中除当前暂存文件以外的所有 frpc_* 文件，
+     * 包括旧版本按进程号命名遗留下来的副本。
+     * 与 stage() 使用同一把锁，不会删除正在写入的临时文件或刚暂存、清单尚未更新的副本
+     */
+    public synchronized void collectGarbage() {
+        String hash = loadManifest().getProperty(KEY_SHA256);
+        String keep = hash != null ? stagedPathFor(hash) : "";
+        try {
+            RootShell.Result result = rootShell.exec("for f in " + EXEC_DIR + "/" + STAGED_PREFIX + "*; do"
+                    + " [ -e \"$f\" ] && [ \"$f\" != " + RootShell.quote(keep) + " ] && rm -f \"$f\" && echo \"$f\";"
+                    + " done; true");
+            for (String removed : result.output) {
+                Log.d(TAG, "Removed stale binary: " + removed);
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to clean up stale binaries", e);
+        }
+    }
+
+    private static void begin(StartupMetrics metrics, StartupMetrics.Phase phase) {
+        if (metrics != null) {
+            metrics.begin(phase);
+        }
+    }
+
+    private static void end(StartupMetrics metrics, StartupMetrics.Phase phase) {
+        if (metrics != null) {
+            metrics.end(phase);
+        }
+    }
+
+    /**
+     * @return 所有暂存副本共同的路径前缀，用于识别本应用启动的 frpc 进程
+     */
+    public static String getStagedPathPrefix() {
+        return EXEC_DIR + "/" + STAGED_PREFIX;
+    }
+
+    private static String stagedPathFor(String hash) {
+        return EXEC_DIR + "/" + STAGED_PREFIX + hash.substring(0, Math.min(NAME_HASH_CHARS, hash.length()));
+    }
+
+    /**
+     * 来源标识：安装包更新时间加上 asset 长度，安装包不变时 asset 内容也不会变
+     */
+    private String getSourceKey() {
+        long updateTime = 0;
+        try {
+            updateTime = context.getPackageManager()
+                    .getPackageInfo(context.getPackageName(), 0).lastUpdateTime;
+        } catch (PackageManager.NameNotFoundException e) {
+            Log.w(TAG, "Failed to read package info", e);
+        }
+        long assetLength = -1;
+        try (AssetFileDescriptor afd = context.getAssets().openFd(ASSET_NAME)) {
+            assetLength = afd.getLength();
+        } catch (IOException e) {
+            // asset 被压缩时无法获取文件描述符，只使用更新时间
+        }
+        return updateTime + ":" + assetLength;
+    }
+
+    /**
+     * 从 assets 复制到应用目录，asset 未压缩时使用 FileChannel.transferTo 零拷贝复制
+     */
+    private void copyFromAssets() throws IOException {
+        try {
+            try (AssetFileDescriptor afd = context.getAssets().openFd(ASSET_NAME);
+                 FileInputStream in = afd.createInputStream();
+                 FileOutputStream out = new FileOutputStream(localCopy)) {
+                FileChannel source = in.getChannel();
+                FileChannel target = out.getChannel();
+                long offset = afd.getStartOffset();
+                long remaining = afd.getLength();
+                while (remaining > 0) {
+                    long transferred = source.transferTo(offset, remaining, target);
+                    if (transferred <= 0) {
+                        throw new IOException("transferTo made no progress");
+                    }
+                    offset += transferred;
+                    remaining -= transferred;
+                }
+                Log.d(TAG, "Frpc binary copied from assets with transferTo");
+                return;
+            } catch (IOException e) {
+                // asset 被压缩时 openFd 会失败，回退到流式复制
+                Log.d(TAG, "openFd unavailable, falling back to stream copy: " + e.getMessage());
+            }
+            try (InputStream is = context.getAssets().open(ASSET_NAME);
+                 FileOutputStream fos = new FileOutputStream(localCopy)) {
+                byte[] buffer = new byte[64 * 1024];
+                int bytesRead;
+                while ((bytesRead = is.read(buffer)) != -1) {
+                    fos.write(buffer, 0, bytesRead);
+                }
+                Log.d(TAG, "Frpc binary copied from assets");
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to copy frpc from assets", e);
+            throw new IOException("frpc二进制文件未找到。请确保已将frpc文件放到app/src/main/assets/目录中。", e);
+        }
+    }
+
+    /**
+     * @return 暂存文件的长度和 SHA-256 是否都与清单一致
+     */
+    private static boolean isIntact(String stagedPath, String hash, long size) {
+        File file = new File(stagedPath);
+        if (file.length() != size) {
+            return false;
+        }
+        try {
+            return hash.equals(sha256(file));
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to verify " + stagedPath, e);
+            return false;
+        }
+    }
+
+    private static String sha256(File file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("SHA-256 unavailable", e);
+        }
+        try (FileInputStream in = new FileInputStream(file)) {
+            FileChannel channel = in.getChannel();
+            ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        }
+        StringBuilder sb = new StringBuilder();
+        for (byte b : digest.digest()) {
+            sb.append(String.format(Locale.US, "%02x", b));
+        }
+        return sb.toString();
+    }
+
+    private Properties loadManifest() {
+        Properties properties = new Properties();
+        if (manifestFile.exists()) {
+            try (FileInputStream in = new FileInputStream(manifestFile)) {
+                properties.load(in);
+            } catch (IOException e) {
+                Log.w(TAG, "Failed to read staging manifest", e);
+            }
+        }
+        return properties;
+    }
+
+    private void saveManifest(Properties properties) {
+        File tmp = new File(manifestFile.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tmp)) {
+            properties.store(out, null);
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to write staging manifest", e);
+            return;
+        }
+        if (!tmp.renameTo(manifestFile)) {
+            Log.w(TAG, "Failed to replace staging manifest");
+        }
+    }
+
+    private static long parseLong(String value) {
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
@@ -14,6 +14,9 @@ public class ConfigConstants {
     // 随机端口范围默认值
     public static final int DEFAULT_RANDOM_PORT_MIN = 60000;
     public static final int DEFAULT_RANDOM_PORT_MAX = 65535;
+
+    // 等待frpc登录并启动全部代理的超时时间（秒）
+    public static final int DEFAULT_READY_TIMEOUT_SECONDS = 15;
     
     private ConfigConstants() {
         // 工具类，不允许实例化
@@ -0,0 +1,225 @@
+package com.frpc.launcher;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 流式错误分类器
+ * 每行输出到达时用多模式自动机（Aho-Corasick）扫描一遍消息部分，命中的关键字与该行一起
+ * 保存在最近行的环形缓冲区中，进程退出时只根据最近这些行命中的关键字组合判断错误类型，
+ * 长时间运行中早先的输出不会影响判断，内存占用固定。
+ * 就绪时清除启动阶段的命中，启动输出中的 "config file [...frpc.toml]" 等不会让之后的错误被误判。
+ * 时间戳和源码位置已由 LogRecord 分离，不参与匹配，避免文件名中的 "config" 等误判；
+ * 错误级别的行视同包含 "error"
+ */
+public class ErrorClassifier {
+
+    public enum Category {
+        TIMEOUT,
+        REFUSED,
+        DNS,
+        LOGIN,
+        CONFIG,
+        UNKNOWN
+    }
+
+    // 关键字，下标即为对应的标志位
+    private static final String[] KEYWORDS = {
+            "i/o timeout",
+            "dial tcp",
+            "timeout",
+            "refused",
+            "no such host",
+            "dns",
+            "error",
+            "login",
+            "fail",
+            "config",
+            "invalid",
+            "toml",
+            "parse"
+    };
+    private static final int K_IO_TIMEOUT = 1;
+    private static final int K_DIAL_TCP = 1 << 1;
+    private static final int K_TIMEOUT = 1 << 2;
+    private static final int K_REFUSED = 1 << 3;
+    private static final int K_NO_SUCH_HOST = 1 << 4;
+    private static final int K_DNS = 1 << 5;
+    private static final int K_ERROR = 1 << 6;
+    private static final int K_LOGIN = 1 << 7;
+    private static final int K_FAIL = 1 << 8;
+    private static final int K_CONFIG = 1 << 9;
+    private static final int K_INVALID = 1 << 10;
+    private static final int K_TOML = 1 << 11;
+    private static final int K_PARSE = 1 << 12;
+
+    private static final int ALPHABET = 128;
+    // 自动机的完整转移表和每个状态命中的关键字集合，所有实例共享
+    private static final int[][] TRANSITIONS;
+    private static final int[] OUTPUTS;
+
+    static {
+        List<int[]> gotoTable = new ArrayList<>();
+        List<Integer> outputs = new ArrayList<>();
+        gotoTable.add(newRow());
+        outputs.add(0);
+        for (int k = 0; k < KEYWORDS.length; k++) {
+            int state = 0;
+            for (char c : KEYWORDS[k].toCharArray()) {
+                int next = gotoTable.get(state)[c];
+                if (next <= 0) {
+                    gotoTable.add(newRow());
+                    outputs.add(0);
+                    next = gotoTable.size() - 1;
+                    gotoTable.get(state)[c] = next;
+                }
+                state = next;
+            }
+            outputs.set(state, outputs.get(state) | (1 << k));
+        }
+
+        // 按层次构建失败链接，并把缺失的转移补全为完整的 DFA
+        int count = gotoTable.size();
+        int[] fail = new int[count];
+        int[] queue = new int[count];
+        int head = 0;
+        int tail = 0;
+        int[] root = gotoTable.get(0);
+        for (int c = 0; c < ALPHABET; c++) {
+            if (root[c] > 0) {
+                fail[root[c]] = 0;
+                queue[tail++] = root[c];
+            } else {
+                root[c] = 0;
+            }
+        }
+        while (head < tail) {
+            int state = queue[head++];
+            int[] row = gotoTable.get(state);
+            outputs.set(state, outputs.get(state) | outputs.get(fail[state]));
+            for (int c = 0; c < ALPHABET; c++) {
+                int next = row[c];
+                if (next > 0) {
+                    fail[next] = gotoTable.get(fail[state])[c];
+                    queue[tail++] = next;
+                } else {
+                    row[c] = gotoTable.get(fail[state])[c];
+                }
+            }
+        }
+
+        TRANSITIONS = gotoTable.toArray(new int[count][]);
+        OUTPUTS = new int[count];
+        for (int i = 0; i < count; i++) {
+            OUTPUTS[i] = outputs.get(i);
+        }
+    }
+
+    private static int[] newRow() {
+        int[] row = new int[ALPHABET];
+        Arrays.fill(row, -1);
+        return row;
+    }
+
+    private final LogRecord[] recentLines;
+    // 与 recentLines 同槽位，每行命中的关键字
+    private final int[] recentMatches;
+    private int recentCount = 0;
+    private int recentNext = 0;
+    private boolean anyOutput = false;
+
+    /**
+     * @param recentCapacity 参与分类并为错误报告保留的最近输出行数
+     */
+    public ErrorClassifier(int recentCapacity) {
+        recentLines = new LogRecord[recentCapacity];
+        recentMatches = new int[recentCapacity];
+    }
+
+    public synchronized void accept(LogRecord record) {
+        anyOutput = true;
+        if (recentLines.length == 0) {
+            return;
+        }
+        int state = 0;
+        int matched = record.level == LogRecord.Level.ERROR ? K_ERROR : 0;
+        String line = record.line;
+        for (int i = record.messageStart, len = line.length(); i < len; i++) {
+            char c = Character.toLowerCase(line.charAt(i));
+            state = c < ALPHABET ? TRANSITIONS[state][c] : 0;
+            matched |= OUTPUTS[state];
+        }
+        recentLines[recentNext] = record;
+        recentMatches[recentNext] = matched;
+        recentNext = (recentNext + 1) % recentLines.length;
+        recentCount = Math.min(recentCount + 1, recentLines.length);
+    }
+
+    /**
+     * frpc 就绪时调用，启动阶段的输出不再参与分类，行本身保留用于错误报告
+     */
+    public synchronized void onReady() {
+        Arrays.fill(recentMatches, 0);
+    }
+
+    public synchronized boolean hasOutput() {
+        return anyOutput;
+    }
+
+    /**
+     * 按优先级判断最近输出行的错误类型。认证失败和配置错误会让重启策略放弃重启，
+     * 要求关键字出现在同一行，其他类型按整个窗口内的命中判断
+     */
+    public synchronized Category classify() {
+        int seen = 0;
+        boolean login = false;
+        boolean config = false;
+        for (int matches : recentMatches) {
+            seen |= matches;
+            login |= has(matches, K_LOGIN) && has(matches, K_FAIL);
+            config |= (has(matches, K_CONFIG) && (has(matches, K_ERROR) || has(matches, K_INVALID)))
+                    || (has(matches, K_TOML) && (has(matches, K_ERROR) || has(matches, K_PARSE)));
+        }
+        if (has(seen, K_IO_TIMEOUT) || (has(seen, K_DIAL_TCP) && has(seen, K_TIMEOUT))) {
+            return Category.TIMEOUT;
+        }
+        if (has(seen, K_REFUSED)) {
+            return Category.REFUSED;
+        }
+        if (has(seen, K_NO_SUCH_HOST) || (has(seen, K_DNS) && has(seen, K_ERROR))) {
+            return Category.DNS;
+        }
+        if (login && !has(seen, K_TIMEOUT)) {
+            return Category.LOGIN;
+        }
+        if (config) {
+            return Category.CONFIG;
+        }
+        return Category.UNKNOWN;
+    }
+
+    /**
+     * 最近的输出行，按时间顺序
+     */
+    public synchronized List<LogRecord> getRecentLines() {
+        List<LogRecord> result = new ArrayList<>(recentCount);
+        int start = (recentNext - recentCount + recentLines.length) % Math.max(1, recentLines.length);
+        for (int i = 0; i < recentCount; i++) {
+            result.add(recentLines[(start + i) % recentLines.length]);
+        }
+        return result;
+    }
+
+    public synchronized void reset() {
+        Arrays.fill(recentMatches, 0);
+        anyOutput = false;
+        recentCount = 0;
+        recentNext = 0;
+        Arrays.fill(recentLines, null);
+    }
+
+    private static boolean has(int seen, int flag) {
+        return (seen & flag) != 0;
+    }
+}
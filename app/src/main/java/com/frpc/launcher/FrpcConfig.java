@@ -0,0 +1,634 @@
+package com.frpc.launcher;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * frpc 的 toml 配置模型
+ * 只支持 frpc 配置用到的 toml 子集：键值对、[table]、[[proxies]] 等表数组。
+ * 通用部分、传输设置和代理使用类型化字段，其余键原样保留；
+ * 渲染时按固定顺序输出，相同的配置总是得到相同的内容
+ */
+public class FrpcConfig {
+    private static final String REDACTED = "\"******\"";
+
+    /**
+     * transport.* 设置，未设置的字段为 null，渲染时跳过
+     */
+    public static class Transport {
+        public String protocol;
+        public Boolean tcpMux;
+        public Integer poolCount;
+        public Integer heartbeatInterval;
+        public Integer heartbeatTimeout;
+        public Boolean tlsEnable;
+
+        void copyFrom(Transport other) {
+            protocol = other.protocol;
+            tcpMux = other.tcpMux;
+            poolCount = other.poolCount;
+            heartbeatInterval = other.heartbeatInterval;
+            heartbeatTimeout = other.heartbeatTimeout;
+            tlsEnable = other.tlsEnable;
+        }
+    }
+
+    /**
+     * webServer.* 管理接口设置
+     */
+    public static class WebServer {
+        public String addr;
+        public Integer port;
+        public String user;
+        public String password;
+
+        void copyFrom(WebServer other) {
+            addr = other.addr;
+            port = other.port;
+            user = other.user;
+            password = other.password;
+        }
+    }
+
+    /**
+     * 一个 [[proxies]] 条目
+     */
+    public static class Proxy {
+        public String name;
+        public String type;
+        public String localIP;
+        public Integer localPort;
+        public Integer remotePort;
+        // 其他键，值为原始 toml 文本
+        public final Map<String, String> extra = new TreeMap<>();
+
+        Proxy copy() {
+            Proxy p = new Proxy();
+            p.name = name;
+            p.type = type;
+            p.localIP = localIP;
+            p.localPort = localPort;
+            p.remotePort = remotePort;
+            p.extra.putAll(extra);
+            return p;
+        }
+    }
+
+    /**
+     * 除 [[proxies]] 以外的表数组条目（如 [[visitors]]），只原样保留
+     */
+    private static class RawTable {
+        final String name;
+        final Map<String, String> values = new TreeMap<>();
+
+        RawTable(String name) {
+            this.name = name;
+        }
+    }
+
+    public String serverAddr;
+    public Integer serverPort;
+    public String user;
+    public String authToken;
+    public Boolean loginFailExit;
+    public final Transport transport = new Transport();
+    public final WebServer webServer = new WebServer();
+    public final List<Proxy> proxies = new ArrayList<>();
+    // 通用部分的其他键，值为原始 toml 文本
+    private final Map<String, String> extra = new TreeMap<>();
+    private final List<RawTable> rawTables = new ArrayList<>();
+
+    public FrpcConfig copy() {
+        FrpcConfig c = new FrpcConfig();
+        c.serverAddr = serverAddr;
+        c.serverPort = serverPort;
+        c.user = user;
+        c.authToken = authToken;
+        c.loginFailExit = loginFailExit;
+        c.transport.copyFrom(transport);
+        c.webServer.copyFrom(webServer);
+        for (Proxy proxy : proxies) {
+            c.proxies.add(proxy.copy());
+        }
+        c.extra.putAll(extra);
+        for (RawTable table : rawTables) {
+            RawTable copy = new RawTable(table.name);
+            copy.values.putAll(table.values);
+            c.rawTables.add(copy);
+        }
+        return c;
+    }
+
+    /**
+     * frpc 实际使用的代理名称，配置了 user 时为 "user.name"
+     */
+    public String getProxyName(Proxy proxy) {
+        return user != null && !user.isEmpty() ? user + "." + proxy.name : proxy.name;
+    }
+
+    /**
+     * @see #getProxyName(Proxy)
+     */
+    public List<String> getProxyNames() {
+        List<String> names = new ArrayList<>();
+        for (Proxy proxy : proxies) {
+            if (proxy.name == null) {
+                continue;
+            }
+            names.add(getProxyName(proxy));
+        }
+        return names;
+    }
+
+    /**
+     * @param names 要移除的代理名称，规则与 {@link #getProxyName(Proxy)} 相同
+     * @return 移除这些代理后的副本
+     */
+    public FrpcConfig withoutProxies(Set<String> names) {
+        FrpcConfig c = copy();
+        Iterator<Proxy> it = c.proxies.iterator();
+        while (it.hasNext()) {
+            Proxy proxy = it.next();
+            if (proxy.name != null && names.contains(c.getProxyName(proxy))) {
+                it.remove();
+            }
+        }
+        return c;
+    }
+
+    /**
+     * @return 代理名称到本地端口，名称规则与 {@link #getProxyNames()} 相同，没有本地端口的代理不包含在内
+     */
+    public Map<String, Integer> getProxyTargets() {
+        Map<String, Integer> targets = new LinkedHashMap<>();
+        for (Proxy proxy : proxies) {
+            if (proxy.name == null || proxy.localPort == null) {
+                continue;
+            }
+            targets.put(getProxyName(proxy), proxy.localPort);
+        }
+        return targets;
+    }
+
+    // ---------------- 解析 ----------------
+
+    public static FrpcConfig parse(File file) throws IOException {
+        try (InputStream in = new FileInputStream(file)) {
+            return parse(readFully(in));
+        }
+    }
+
+    public static FrpcConfig parse(InputStream in) throws IOException {
+        return parse(readFully(in));
+    }
+
+    public static FrpcConfig parse(String text) throws IOException {
+        FrpcConfig config = new FrpcConfig();
+        // 当前所在的表：prefix 为普通表的键前缀，proxy/rawTable 为当前表数组条目
+        String prefix = "";
+        Proxy proxy = null;
+        RawTable rawTable = null;
+
+        String[] lines = text.split("\n", -1);
+        for (int i = 0; i < lines.length; i++) {
+            String line = stripComment(lines[i]).trim();
+            if (line.isEmpty()) {
+                continue;
+            }
+            if (line.startsWith("[[")) {
+                if (!line.endsWith("]]")) {
+                    throw new IOException("配置文件第 " + (i + 1) + " 行格式错误: " + lines[i]);
+                }
+                String name = line.substring(2, line.length() - 2).trim();
+                prefix = "";
+                proxy = null;
+                rawTable = null;
+                if ("proxies".equals(name)) {
+                    proxy = new Proxy();
+                    config.proxies.add(proxy);
+                } else {
+                    rawTable = new RawTable(name);
+                    config.rawTables.add(rawTable);
+                }
+                continue;
+            }
+            if (line.startsWith("[")) {
+                if (!line.endsWith("]")) {
+                    throw new IOException("配置文件第 " + (i + 1) + " 行格式错误: " + lines[i]);
+                }
+                String name = line.substring(1, line.length() - 1).trim();
+                // [proxies.plugin] 这类子表属于当前代理
+                if (proxy != null && name.startsWith("proxies.")) {
+                    prefix = name.substring("proxies.".length()) + ".";
+                } else if (rawTable != null && name.startsWith(rawTable.name + ".")) {
+                    prefix = name.substring(rawTable.name.length() + 1) + ".";
+                } else {
+                    proxy = null;
+                    rawTable = null;
+                    prefix = name + ".";
+                }
+                continue;
+            }
+            int eq = line.indexOf('=');
+            if (eq <= 0) {
+                throw new IOException("配置文件第 " + (i + 1) + " 行格式错误: " + lines[i]);
+            }
+            String key = prefix + line.substring(0, eq).trim();
+            StringBuilder value = new StringBuilder(line.substring(eq + 1).trim());
+            // 跨行数组，一直读到括号闭合
+            while (bracketDepth(value) > 0 && i + 1 < lines.length) {
+                value.append(' ').append(stripComment(lines[++i]).trim());
+            }
+            if (proxy != null) {
+                setProxyValue(proxy, key, value.toString());
+            } else if (rawTable != null) {
+                rawTable.values.put(key, value.toString());
+            } else {
+                config.setCommonValue(key, value.toString());
+            }
+        }
+        return config;
+    }
+
+    private void setCommonValue(String key, String raw) {
+        switch (key) {
+            case "serverAddr":
+                serverAddr = parseString(raw);
+                break;
+            case "serverPort":
+                serverPort = parseInt(raw);
+                break;
+            case "user":
+                user = parseString(raw);
+                break;
+            case "auth.token":
+                authToken = parseString(raw);
+                break;
+            case "loginFailExit":
+                loginFailExit = parseBoolean(raw);
+                break;
+            case "transport.protocol":
+                transport.protocol = parseString(raw);
+                break;
+            case "transport.tcpMux":
+                transport.tcpMux = parseBoolean(raw);
+                break;
+            case "transport.poolCount":
+                transport.poolCount = parseInt(raw);
+                break;
+            case "transport.heartbeatInterval":
+                transport.heartbeatInterval = parseInt(raw);
+                break;
+            case "transport.heartbeatTimeout":
+                transport.heartbeatTimeout = parseInt(raw);
+                break;
+            case "transport.tls.enable":
+                transport.tlsEnable = parseBoolean(raw);
+                break;
+            case "webServer.addr":
+                webServer.addr = parseString(raw);
+                break;
+            case "webServer.port":
+                webServer.port = parseInt(raw);
+                break;
+            case "webServer.user":
+                webServer.user = parseString(raw);
+                break;
+            case "webServer.password":
+                webServer.password = parseString(raw);
+                break;
+            default:
+                extra.put(key, raw);
+                return;
+        }
+        // 类型不符时按原样保留，避免丢失配置
+        if (!isTyped(key)) {
+            extra.put(key, raw);
+        }
+    }
+
+    private boolean isTyped(String key) {
+        switch (key) {
+            case "serverAddr":
+                return serverAddr != null;
+            case "serverPort":
+                return serverPort != null;
+            case "user":
+                return user != null;
+            case "auth.token":
+                return authToken != null;
+            case "loginFailExit":
+                return loginFailExit != null;
+            case "transport.protocol":
+                return transport.protocol != null;
+            case "transport.tcpMux":
+                return transport.tcpMux != null;
+            case "transport.poolCount":
+                return transport.poolCount != null;
+            case "transport.heartbeatInterval":
+                return transport.heartbeatInterval != null;
+            case "transport.heartbeatTimeout":
+                return transport.heartbeatTimeout != null;
+            case "transport.tls.enable":
+                return transport.tlsEnable != null;
+            case "webServer.addr":
+                return webServer.addr != null;
+            case "webServer.port":
+                return webServer.port != null;
+            case "webServer.user":
+                return webServer.user != null;
+            case "webServer.password":
+                return webServer.password != null;
+            default:
+                return false;
+        }
+    }
+
+    private static void setProxyValue(Proxy proxy, String key, String raw) {
+        Object typed = null;
+        switch (key) {
+            case "name":
+                typed = proxy.name = parseString(raw);
+                break;
+            case "type":
+                typed = proxy.type = parseString(raw);
+                break;
+            case "localIP":
+                typed = proxy.localIP = parseString(raw);
+                break;
+            case "localPort":
+                typed = proxy.localPort = parseInt(raw);
+                break;
+            case "remotePort":
+                typed = proxy.remotePort = parseInt(raw);
+                break;
+            default:
+                break;
+        }
+        if (typed == null) {
+            proxy.extra.put(key, raw);
+        }
+    }
+
+    // ---------------- 渲染 ----------------
+
+    /**
+     * 按固定顺序渲染：通用部分、传输设置、管理接口、其余通用键（按键排序）、各代理、其他表数组
+     */
+    public String render() {
+        return render(false);
+    }
+
+    /**
+     * 渲染用于显示的文本：令牌、管理接口的用户名和密码，以及键名含 token、password、secret 的值都被遮盖。
+     * 显示的内容会进入持久化日志并可以导出，不能含有凭据
+     */
+    public String renderRedacted() {
+        return render(true);
+    }
+
+    private String render(boolean redact) {
+        StringBuilder sb = new StringBuilder();
+        appendString(sb, "serverAddr", serverAddr);
+        appendValue(sb, "serverPort", serverPort);
+        appendString(sb, "user", user);
+        appendSecret(sb, "auth.token", authToken, redact);
+        appendValue(sb, "loginFailExit", loginFailExit);
+        appendString(sb, "transport.protocol", transport.protocol);
+        appendValue(sb, "transport.tcpMux", transport.tcpMux);
+        appendValue(sb, "transport.poolCount", transport.poolCount);
+        appendValue(sb, "transport.heartbeatInterval", transport.heartbeatInterval);
+        appendValue(sb, "transport.heartbeatTimeout", transport.heartbeatTimeout);
+        appendValue(sb, "transport.tls.enable", transport.tlsEnable);
+        appendString(sb, "webServer.addr", webServer.addr);
+        appendValue(sb, "webServer.port", webServer.port);
+        appendSecret(sb, "webServer.user", webServer.user, redact);
+        appendSecret(sb, "webServer.password", webServer.password, redact);
+        for (Map.Entry<String, String> entry : extra.entrySet()) {
+            appendRaw(sb, entry.getKey(), entry.getValue(), redact);
+        }
+        for (Proxy proxy : proxies) {
+            sb.append("\n[[proxies]]\n");
+            appendString(sb, "name", proxy.name);
+            appendString(sb, "type", proxy.type);
+            appendString(sb, "localIP", proxy.localIP);
+            appendValue(sb, "localPort", proxy.localPort);
+            appendValue(sb, "remotePort", proxy.remotePort);
+            for (Map.Entry<String, String> entry : proxy.extra.entrySet()) {
+                appendRaw(sb, entry.getKey(), entry.getValue(), redact);
+            }
+        }
+        for (RawTable table : rawTables) {
+            sb.append("\n[[").append(table.name).append("]]\n");
+            for (Map.Entry<String, String> entry : table.values.entrySet()) {
+                appendRaw(sb, entry.getKey(), entry.getValue(), redact);
+            }
+        }
+        return sb.toString();
+    }
+
+    private static void appendString(StringBuilder sb, String key, String value) {
+        if (value != null) {
+            appendRaw(sb, key, quote(value));
+        }
+    }
+
+    private static void appendValue(StringBuilder sb, String key, Object value) {
+        if (value != null) {
+            appendRaw(sb, key, String.valueOf(value));
+        }
+    }
+
+    private static void appendSecret(StringBuilder sb, String key, String value, boolean redact) {
+        if (value != null) {
+            appendRaw(sb, key, redact ? REDACTED : quote(value));
+        }
+    }
+
+    private static void appendRaw(StringBuilder sb, String key, String raw, boolean redact) {
+        appendRaw(sb, key, redact && isSecretKey(key) ? REDACTED : raw);
+    }
+
+    private static boolean isSecretKey(String key) {
+        String lower = key.toLowerCase(Locale.US);
+        return lower.contains("token") || lower.contains("password") || lower.contains("secret");
+    }
+
+    private static void appendRaw(StringBuilder sb, String key, String raw) {
+        sb.append(key).append(" = ").append(raw).append('\n');
+    }
+
+    // ---------------- 写入 ----------------
+
+    /**
+     * 先写临时文件再重命名，读取方不会看到写了一半的配置
+     */
+    public static void writeAtomically(File target, byte[] content) throws IOException {
+        File tmp = new File(target.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tmp)) {
+            out.write(content);
+            out.getFD().sync();
+        }
+        if (!tmp.renameTo(target)) {
+            //noinspection ResultOfMethodCallIgnored
+            tmp.delete();
+            throw new IOException("无法写入配置文件: " + target);
+        }
+    }
+
+    public static String sha256(byte[] content) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 unavailable", e);
+        }
+        StringBuilder sb = new StringBuilder();
+        for (byte b : digest.digest(content)) {
+            sb.append(String.format(Locale.US, "%02x", b));
+        }
+        return sb.toString();
+    }
+
+    // ---------------- 工具方法 ----------------
+
+    static String readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 去掉引号以外的 # 注释
+     */
+    private static String stripComment(String line) {
+        char quote = 0;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quote != 0) {
+                if (c == '\\' && quote == '"') {
+                    i++;
+                } else if (c == quote) {
+                    quote = 0;
+                }
+            } else if (c == '"' || c == '\'') {
+                quote = c;
+            } else if (c == '#') {
+                return line.substring(0, i);
+            }
+        }
+        return line;
+    }
+
+    private static int bracketDepth(CharSequence value) {
+        int depth = 0;
+        char quote = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (quote != 0) {
+                if (c == '\\' && quote == '"') {
+                    i++;
+                } else if (c == quote) {
+                    quote = 0;
+                }
+            } else if (c == '"' || c == '\'') {
+                quote = c;
+            } else if (c == '[' || c == '{') {
+                depth++;
+            } else if (c == ']' || c == '}') {
+                depth--;
+            }
+        }
+        return depth;
+    }
+
+    private static String parseString(String raw) {
+        if (raw.length() >= 2 && raw.startsWith("'") && raw.endsWith("'")) {
+            return raw.substring(1, raw.length() - 1);
+        }
+        if (raw.length() < 2 || !raw.startsWith("\"") || !raw.endsWith("\"")) {
+            return null;
+        }
+        StringBuilder sb = new StringBuilder(raw.length());
+        for (int i = 1; i < raw.length() - 1; i++) {
+            char c = raw.charAt(i);
+            if (c == '\\' && i + 1 < raw.length() - 1) {
+                char next = raw.charAt(++i);
+                switch (next) {
+                    case 'n':
+                        sb.append('\n');
+                        break;
+                    case 't':
+                        sb.append('\t');
+                        break;
+                    default:
+                        sb.append(next);
+                        break;
+                }
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    private static Integer parseInt(String raw) {
+        try {
+            return Integer.parseInt(raw.replace("_", ""));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static Boolean parseBoolean(String raw) {
+        if ("true".equals(raw)) {
+            return Boolean.TRUE;
+        }
+        if ("false".equals(raw)) {
+            return Boolean.FALSE;
+        }
+        return null;
+    }
+
+    private static String quote(String value) {
+        StringBuilder sb = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                case '\\':
+                    sb.append('\\').append(c);
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                default:
+                    sb.append(c);
+                    break;
+            }
+        }
+        return sb.append('"').toString();
+    }
+}
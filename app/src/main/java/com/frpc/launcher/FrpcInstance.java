@@ -0,0 +1,258 @@
+package com.frpc.launcher;
+
+import android.os.Handler;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 单个 frpc 实例的运行状态
+ * 每个实例有独立的配置文件、可执行文件引用、进程和状态；日志统一写入服务的 LogStore，非默认实例带实例前缀
+ */
+public class FrpcInstance {
+    public static final String DEFAULT_ID = "default";
+
+    private final String id;
+    private final String configPath;
+    private volatile Process process;
+    // 运行阶段、启动信息、错误和远程端口都在状态快照中
+    private final ServiceStateMachine stateMachine;
+    // 启动线程正在执行，防止重复启动
+    private final AtomicBoolean starting = new AtomicBoolean(false);
+    // 用户主动停止，进程退出时不自动重启
+    private volatile boolean stopRequested = false;
+    private final RestartPolicy restartPolicy = new RestartPolicy();
+    // 已安排但尚未执行的自动重启
+    private volatile Runnable pendingRestart;
+    // 没有可用网络时暂停的自动重启，网络恢复后立即执行
+    private volatile boolean waitingForNetwork = false;
+    // 因网络变化重新连接的时间（elapsedRealtime），用于统计恢复耗时，0 表示没有待恢复的网络变化
+    private volatile long networkChangedAt = 0;
+    private volatile String binaryPath;
+    private volatile StartupMetrics lastStartupMetrics;
+    // 管理接口报告的代理状态，未运行或尚未获取时为空
+    private volatile List<ProxyStatus> proxyStatuses = Collections.emptyList();
+    private volatile StatusPoller statusPoller;
+    // 各代理本地服务的最近探测结果
+    private volatile List<TargetProber.Result> targetStatuses = Collections.emptyList();
+    // 本次启动的完整配置，暂停代理后恢复时以它为准
+    private volatile FrpcConfig fullConfig;
+    // 因本地服务不可用而暂不启用的代理名称
+    private volatile Set<String> heldProxies = Collections.emptySet();
+    // 实际 frpc 进程（su 的子进程）的 PID，未运行或未找到时为 -1
+    private volatile int frpcPid = -1;
+    // 代理名称到该代理最近一条警告或错误日志，代理启动成功后移除
+    private final Map<String, LogRecord> proxyProblems = new ConcurrentHashMap<>();
+    // 代理名称到本地目标端口，用于统计连接数
+    private volatile Map<String, Integer> proxyTargets = Collections.emptyMap();
+    // 上次写入的配置内容哈希和写入后的文件状态，用于跳过内容未变化的写入
+    private String configHash;
+    private long configLength = -1;
+    private long configModified = -1;
+
+    public FrpcInstance(String id, String configPath, Handler handler, ServiceStateMachine.Listener listener) {
+        this.id = id;
+        this.configPath = configPath;
+        this.stateMachine = new ServiceStateMachine(id, handler, listener);
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * 默认实例使用设置界面中的参数生成配置，其他实例直接使用各自的配置文件
+     */
+    public boolean isDefault() {
+        return DEFAULT_ID.equals(id);
+    }
+
+    public String getConfigPath() {
+        return configPath;
+    }
+
+    public Process getProcess() {
+        return process;
+    }
+
+    public void setProcess(Process process) {
+        this.process = process;
+    }
+
+    public ServiceStateMachine getStateMachine() {
+        return stateMachine;
+    }
+
+    public ServiceState getState() {
+        return stateMachine.get();
+    }
+
+    /**
+     * @return 是否已就绪，即状态为 READY
+     */
+    public boolean isRunning() {
+        return stateMachine.get().isReady();
+    }
+
+    /**
+     * @return 已有启动线程在执行时返回 false
+     */
+    public boolean beginStarting() {
+        return starting.compareAndSet(false, true);
+    }
+
+    public boolean isStarting() {
+        return starting.get();
+    }
+
+    public void endStarting() {
+        starting.set(false);
+    }
+
+    public boolean isStopRequested() {
+        return stopRequested;
+    }
+
+    public void setStopRequested(boolean stopRequested) {
+        this.stopRequested = stopRequested;
+    }
+
+    public RestartPolicy getRestartPolicy() {
+        return restartPolicy;
+    }
+
+    public Runnable getPendingRestart() {
+        return pendingRestart;
+    }
+
+    public void setPendingRestart(Runnable pendingRestart) {
+        this.pendingRestart = pendingRestart;
+    }
+
+    public boolean isWaitingForNetwork() {
+        return waitingForNetwork;
+    }
+
+    public void setWaitingForNetwork(boolean waitingForNetwork) {
+        this.waitingForNetwork = waitingForNetwork;
+    }
+
+    public long getNetworkChangedAt() {
+        return networkChangedAt;
+    }
+
+    public void setNetworkChangedAt(long networkChangedAt) {
+        this.networkChangedAt = networkChangedAt;
+    }
+
+    public String getBinaryPath() {
+        return binaryPath;
+    }
+
+    public void setBinaryPath(String binaryPath) {
+        this.binaryPath = binaryPath;
+    }
+
+    public List<ProxyStatus> getProxyStatuses() {
+        return proxyStatuses;
+    }
+
+    public void setProxyStatuses(List<ProxyStatus> proxyStatuses) {
+        this.proxyStatuses = proxyStatuses;
+    }
+
+    public List<TargetProber.Result> getTargetStatuses() {
+        return targetStatuses;
+    }
+
+    public void setTargetStatuses(List<TargetProber.Result> targetStatuses) {
+        this.targetStatuses = targetStatuses;
+    }
+
+    /**
+     * 按代理记录 frpc 日志，只保留警告及以上级别的最近一条，代理启动成功时清除
+     */
+    public void recordProxyLog(LogRecord record) {
+        if (record.proxy.isEmpty()) {
+            return;
+        }
+        if (record.level.atLeast(LogRecord.Level.WARN)) {
+            proxyProblems.put(record.proxy, record);
+        } else if (record.messageStartsWith("start proxy success")) {
+            proxyProblems.remove(record.proxy);
+        }
+    }
+
+    public Map<String, LogRecord> getProxyProblems() {
+        return Collections.unmodifiableMap(proxyProblems);
+    }
+
+    public void clearProxyProblems() {
+        proxyProblems.clear();
+    }
+
+    public FrpcConfig getFullConfig() {
+        return fullConfig;
+    }
+
+    public void setFullConfig(FrpcConfig fullConfig) {
+        this.fullConfig = fullConfig;
+    }
+
+    public Set<String> getHeldProxies() {
+        return heldProxies;
+    }
+
+    public void setHeldProxies(Set<String> heldProxies) {
+        this.heldProxies = heldProxies;
+    }
+
+    public StatusPoller getStatusPoller() {
+        return statusPoller;
+    }
+
+    public void setStatusPoller(StatusPoller statusPoller) {
+        this.statusPoller = statusPoller;
+    }
+
+    public int getFrpcPid() {
+        return frpcPid;
+    }
+
+    public void setFrpcPid(int frpcPid) {
+        this.frpcPid = frpcPid;
+    }
+
+    public Map<String, Integer> getProxyTargets() {
+        return proxyTargets;
+    }
+
+    public void setProxyTargets(Map<String, Integer> proxyTargets) {
+        this.proxyTargets = proxyTargets;
+    }
+
+    public StartupMetrics getLastStartupMetrics() {
+        return lastStartupMetrics;
+    }
+
+    public void setLastStartupMetrics(StartupMetrics lastStartupMetrics) {
+        this.lastStartupMetrics = lastStartupMetrics;
+    }
+
+    /**
+     * @return 配置文件仍是上次写入的内容时返回 true
+     */
+    public synchronized boolean isConfigCurrent(String hash, long length, long modified) {
+        return hash.equals(configHash) && length == configLength && modified == configModified;
+    }
+
+    public synchronized void setConfigWritten(String hash, long length, long modified) {
+        this.configHash = hash;
+        this.configLength = length;
+        this.configModified = modified;
+    }
+}
@@ -7,60 +7,329 @@ import android.app.PendingIntent;
 import android.app.Service;
 import android.content.Context;
 import android.content.Intent;
+import android.content.SharedPreferences;
 import android.content.pm.ServiceInfo;
 import android.os.Binder;
 import android.os.Build;
+import android.os.Handler;
 import android.os.IBinder;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.util.Log;
 
 import androidx.annotation.RequiresApi;
 import androidx.core.app.NotificationCompat;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
 
 public class FrpcService extends Service {
     private static final String TAG = "FrpcService";
+    // frpc 自身输出写入 logcat 时使用的标签
+    private static final String FRPC_LOG_TAG = "frpc";
     private static final String CHANNEL_ID = "frpc_channel";
     private static final int NOTIFICATION_ID = 1;
+    // 日志缓冲区保留的最大行数
+    static final int LOG_CAPACITY = 5000;
+    // 日志分发队列容量、单批次最大行数和攒批时间窗口
+    private static final int LOG_QUEUE_CAPACITY = 4096;
+    private static final int LOG_BATCH_SIZE = 256;
+    private static final long LOG_BATCH_WINDOW_MS = 100;
+    // 进程重启后从持久化日志中恢复的时间范围
+    private static final long JOURNAL_RESTORE_WINDOW_MS = 60 * 60 * 1000L;
+    // 错误分析报告中保留的最近输出行数
+    private static final int ERROR_REPORT_LINES = 20;
+    // 保留的启动耗时记录数量
+    private static final int STARTUP_HISTORY_SIZE = 20;
+    // 端口或名称被服务器拒绝时，一次启动内最多重试的次数：先原样重试同一租约，之后最多重新分配 3 次
+    private static final int MAX_REALLOCATIONS = ProxyAllocator.SAME_LEASE_RETRIES + 3;
+    // 停止时 SIGTERM 之后等待 frpc 退出的时间，超时后改发 SIGKILL
+    private static final long STOP_GRACE_MS = 3000;
+    // 等待本应用的 su 包装进程退出的时间
+    private static final long WRAPPER_EXIT_MS = 1000;
+    private static final Set<LogRecord.Level> ALL_LEVELS = EnumSet.allOf(LogRecord.Level.class);
+    // frpc管理接口只监听本机回环地址
+    private static final String ADMIN_HOST = "127.0.0.1";
+    private static final String ADMIN_USER = "admin";
+
+    /**
+     * 进程内日志监听器，每个批次写入 LogStore 后在主线程回调一次
+     */
+    public interface LogListener {
+        void onLogAppended();
+    }
+
+    /**
+     * 代理状态监听器，管理接口报告的状态变化时在主线程回调
+     */
+    public interface StatusListener {
+        void onStatusChanged();
+    }
+
+    /**
+     * 实例状态监听器，状态快照变化时在主线程回调；注册时立即收到各实例的当前快照
+     */
+    public interface StateListener {
+        void onStateChanged(ServiceState state);
+    }
+
+    /**
+     * 流量监听器，每次采样后在主线程回调；注册期间采样器才会运行
+     */
+    public interface TrafficListener {
+        void onTrafficSampled();
+    }
 
     public static final String ACTION_START = "com.frpc.launcher.START";
     public static final String ACTION_STOP = "com.frpc.launcher.STOP";
-    public static final String ACTION_ERROR = "com.frpc.launcher.ERROR";
-    public static final String ACTION_OUTPUT = "com.frpc.launcher.OUTPUT";
-    public static final String ACTION_STARTED = "com.frpc.launcher.STARTED";
-    public static final String EXTRA_ERROR_MESSAGE = "error_message";
-    public static final String EXTRA_OUTPUT_LINE = "output_line";
-
-    private static boolean isRunning = false;
-    private static String lastInfo = null;
-    private static String lastError = null;
-    private static int remotePort = 0;
-    private Process frpcProcess;
-    private final IBinder binder = new Binder();
+    // 指定要启动或停止的实例，不指定时作用于全部实例
+    public static final String EXTRA_INSTANCE_ID = "instance_id";
+    // 额外实例的配置目录，其中每个 <id>.toml 对应一个实例
+    private static final String INSTANCES_DIR = "instances";
+    // 默认实例生成的配置文件名
+    private static final String DEFAULT_CONFIG_NAME = "frpc.toml";
+    // 记录用户启动且尚未停止的实例，服务被系统杀死并重建后据此恢复
+    private static final String PREFS_NAME = "frpc_service";
+    private static final String KEY_WANTED_INSTANCES = "wanted_instances";
+
+    private static final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private static final List<StateListener> stateListeners = new CopyOnWriteArrayList<>();
+    // 实例注册表，默认实例使用设置界面中的参数；各实例的状态快照变化时通知 stateListeners
+    private static final FrpcSupervisor supervisor = new FrpcSupervisor(mainHandler, FrpcService::dispatchState);
+    // 日志由服务持有，日志界面关闭期间的输出也会保留
+    private static final LogStore logStore = new LogStore(LOG_CAPACITY);
+    private static final List<LogListener> logListeners = new CopyOnWriteArrayList<>();
+    private static final Runnable notifyLogListeners = () -> {
+        for (LogListener listener : logListeners) {
+            listener.onLogAppended();
+        }
+    };
+    private static final List<StatusListener> statusListeners = new CopyOnWriteArrayList<>();
+    private static final Runnable notifyStatusListeners = () -> {
+        for (StatusListener listener : statusListeners) {
+            listener.onStatusChanged();
+        }
+    };
+    private static final List<TrafficListener> trafficListeners = new CopyOnWriteArrayList<>();
+    private static final Runnable notifyTrafficListeners = () -> {
+        for (TrafficListener listener : trafficListeners) {
+            listener.onTrafficSampled();
+        }
+    };
+    // 所有实例的frpc进程共用的输出读取线程池
+    private static final ProcessOutputReader outputReader = new ProcessOutputReader("frpc-output");
+    private static final ProcessReaper reaper = new ProcessReaper(RootShell.getInstance());
+    private static final TrafficSampler trafficSampler = new TrafficSampler(
+            supervisor, RootShell.getInstance(), () -> mainHandler.post(notifyTrafficListeners));
+    // 最近几次启动的耗时记录，按时间顺序排列
+    private static final List<StartupMetrics> startupHistory = new ArrayList<>();
+    // 持久化日志，服务创建时在后台线程打开，打开前和打开失败时为 null
+    private static volatile LogJournal logJournal;
+    // 保护持久化日志的打开过程：打开期间分发的日志暂存在 unjournaled 中，打开后按顺序补写
+    private static final Object journalLock = new Object();
+    private static boolean journalOpening;
+    private static List<LogRecord> unjournaled;
+    private static final LogDispatcher logDispatcher = new LogDispatcher(
+            LOG_QUEUE_CAPACITY, LOG_BATCH_SIZE, LOG_BATCH_WINDOW_MS, FrpcService::deliverLogBatch);
+    // 按内容哈希管理可执行目录中的frpc副本，所有实例共用
+    private BinaryStager binaryStager;
+    // 默认实例的配置模板，首次启动时解析
+    private FrpcConfig configTemplate;
+    // 默认实例的远程端口和代理名称租约
+    private ProxyAllocator proxyAllocator;
+    // 默认网络变化时立即重新连接，断网期间暂停自动重启
+    private NetworkMonitor networkMonitor;
+    // 所有实例共用的本地服务探测器
+    private TargetProber targetProber;
+    // 默认实例管理接口的端口和密码，服务生命周期内保持不变，配置内容也就保持稳定；
+    // 端口被其他程序占用时重新分配
+    private volatile int adminPort;
+    private String adminPassword;
+    // 最近一次 onStartCommand 的 startId，实例失败后据此停止服务
+    private volatile int lastStartId;
+    // 遗留进程清理完成后才能恢复实例，否则新进程会与尚未结束的旧进程争用端口
+    private final CountDownLatch orphansReaped = new CountDownLatch(1);
+    private final IBinder binder = new LocalBinder();
 
     @Override
     public void onCreate() {
         super.onCreate();
-        appContext = getApplicationContext();
         createNotificationChannel();
+        openLogJournal();
+        registerInstances();
+        proxyAllocator = new ProxyAllocator(this);
+        networkMonitor = new NetworkMonitor(this, mainHandler, new NetworkMonitor.Listener() {
+            @Override
+            public void onNetworkChanged() {
+                reconnectAll();
+            }
+
+            @Override
+            public void onNetworkLost() {
+                suspendRestarts();
+            }
+        });
+        networkMonitor.start();
+        targetProber = new TargetProber(this::onTargetsChanged);
+        File externalDirFile = getExternalFilesDir(null);
+        if (externalDirFile != null) {
+            binaryStager = new BinaryStager(this, RootShell.getInstance(), externalDirFile);
+            // 先结束之前运行遗留的 frpc 进程，再清理之前按进程号命名或旧版本遗留的副本，root 操作放到后台线程
+            // 服务被系统杀死后重建时，旧进程在这里结束，随后由 restoreInstances 重新启动
+            new Thread(() -> {
+                try {
+                    int reaped = reaper.reapOrphans(BinaryStager.getStagedPathPrefix(), STOP_GRACE_MS);
+                    if (reaped > 0) {
+                        Log.w(TAG, "Reaped " + reaped + " orphaned frpc process(es)");
+                    }
+                } finally {
+                    orphansReaped.countDown();
+                }
+                binaryStager.collectGarbage();
+            }, "frpc-staging-gc").start();
+        } else {
+            orphansReaped.countDown();
+        }
+    }
+
+    private void registerInstances() {
+        // 默认实例的配置含有管理接口的用户名和密码，写在应用私有目录，其他应用无法读取
+        supervisor.getOrCreate(FrpcInstance.DEFAULT_ID,
+                new File(getFilesDir(), DEFAULT_CONFIG_NAME).getAbsolutePath());
+        File externalDirFile = getExternalFilesDir(null);
+        if (externalDirFile == null) {
+            return;
+        }
+        // 旧版本生成在外部存储中的配置带有管理接口密码，删除
+        File legacyConfig = new File(externalDirFile, DEFAULT_CONFIG_NAME);
+        if (legacyConfig.exists() && !legacyConfig.delete()) {
+            Log.w(TAG, "Failed to delete legacy config: " + legacyConfig);
+        }
+        File instancesDir = new File(externalDirFile, INSTANCES_DIR);
+        if (instancesDir.isDirectory()) {
+            int added = supervisor.discover(instancesDir);
+            Log.d(TAG, "Discovered " + added + " additional instance(s)");
+        }
+    }
+
+    /**
+     * 在后台线程打开持久化日志并恢复最近的记录，映射文件和读取一小时的日志不能放在主线程
+     */
+    private void openLogJournal() {
+        synchronized (journalLock) {
+            if (logJournal != null || journalOpening) {
+                return;
+            }
+            journalOpening = true;
+            unjournaled = new ArrayList<>();
+        }
+        new Thread(() -> {
+            LogJournal journal = null;
+            // 进程重启后内存中的日志为空，先在锁外读出持久化日志中最近的记录
+            ArrayDeque<LogRecord> restored = new ArrayDeque<>();
+            try {
+                File externalDirFile = getExternalFilesDir(null);
+                if (externalDirFile == null) {
+                    Log.w(TAG, "External files dir unavailable, journal disabled");
+                } else {
+                    journal = new LogJournal(new File(externalDirFile, "logs"));
+                    if (logStore.getNextSeq() == 0) {
+                        long now = System.currentTimeMillis();
+                        journal.read(now - JOURNAL_RESTORE_WINDOW_MS, now, (timestamp, line) -> {
+                            if (restored.size() == logStore.getCapacity()) {
+                                restored.removeFirst();
+                            }
+                            restored.addLast(LogRecord.parse(line, timestamp));
+                            return true;
+                        });
+                    }
+                }
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to open log journal", e);
+            }
+            synchronized (journalLock) {
+                // 只在还没有新输出时恢复，序号只增不减，已经拉取过的日志界面按原有序号继续增量读取
+                if (!restored.isEmpty() && logStore.getNextSeq() == 0) {
+                    for (LogRecord record : restored) {
+                        logStore.append(record);
+                    }
+                    mainHandler.removeCallbacks(notifyLogListeners);
+                    mainHandler.post(notifyLogListeners);
+                } else if (!restored.isEmpty()) {
+                    Log.d(TAG, "Output arrived before the journal was read, skipped restoring " + restored.size() + " line(s)");
+                }
+                if (journal != null) {
+                    for (LogRecord record : unjournaled) {
+                        journal.append(record.epochMillis, record.line);
+                    }
+                }
+                logJournal = journal;
+                unjournaled = null;
+                journalOpening = false;
+                journalLock.notifyAll();
+            }
+        }, "frpc-journal").start();
     }
 
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
-        if (intent != null) {
+        lastStartId = startId;
+        if (intent == null) {
+            // START_STICKY 重建：服务曾被系统杀死，恢复被杀死前用户启动的实例
+            restoreInstances(startId);
+        } else {
             String action = intent.getAction();
+            String instanceId = intent.getStringExtra(EXTRA_INSTANCE_ID);
             if (ACTION_START.equals(action)) {
-                startFrpc();
+                if (instanceId != null) {
+                    FrpcInstance instance = supervisor.get(instanceId);
+                    if (instance != null) {
+                        setWanted(instance, true);
+                        requestStart(instance);
+                    } else {
+                        Log.w(TAG, "Unknown instance: " + instanceId);
+                    }
+                } else {
+                    for (FrpcInstance instance : supervisor.getInstances()) {
+                        setWanted(instance, true);
+                        requestStart(instance);
+                    }
+                }
             } else if (ACTION_STOP.equals(action)) {
-                stopFrpc();
-                stopSelf();
+                List<FrpcInstance> targets = new ArrayList<>();
+                if (instanceId != null) {
+                    FrpcInstance instance = supervisor.get(instanceId);
+                    if (instance != null) {
+                        targets.add(instance);
+                    }
+                } else {
+                    targets.addAll(supervisor.getInstances());
+                }
+                for (FrpcInstance instance : targets) {
+                    setWanted(instance, false);
+                }
+                // 结束进程可能需要几秒，在后台线程执行，完成后回到主线程退出前台
+                final int stopStartId = startId;
+                stopInBackground(targets, () -> stopSelfIfIdle(stopStartId));
             }
         }
         return START_STICKY;
@@ -85,14 +354,123 @@ public class FrpcService extends Service {
         }
     }
 
-    private void startFrpc() {
-        if (isRunning) {
-            Log.d(TAG, "Frpc already running");
+    /**
+     * 在遗留进程清理完成后重新启动记录中的实例，没有需要恢复的实例时停止服务
+     */
+    private void restoreInstances(int startId) {
+        new Thread(() -> {
+            try {
+                orphansReaped.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            mainHandler.post(() -> {
+                int restored = 0;
+                for (String id : getWantedIds()) {
+                    FrpcInstance instance = supervisor.get(id);
+                    if (instance == null) {
+                        // 实例配置已被删除
+                        setWanted(id, false);
+                    } else if (instance.getState().phase.isInactive()) {
+                        Log.d(TAG, "Restoring instance after restart: " + id);
+                        requestStart(instance);
+                        restored++;
+                    }
+                }
+                if (restored == 0) {
+                    stopSelfIfIdle(startId);
+                }
+            });
+        }, "frpc-restore").start();
+    }
+
+    private Set<String> getWantedIds() {
+        return getSharedPreferences(PREFS_NAME, MODE_PRIVATE)
+                .getStringSet(KEY_WANTED_INSTANCES, Collections.<String>emptySet());
+    }
+
+    private void setWanted(FrpcInstance instance, boolean wanted) {
+        setWanted(instance.getId(), wanted);
+    }
+
+    /**
+     * 记录用户希望运行的实例：用户启动时加入，用户停止或最终失败时移除
+     */
+    private synchronized void setWanted(String instanceId, boolean wanted) {
+        SharedPreferences prefs = getSharedPreferences(PREFS_NAME, MODE_PRIVATE);
+        // getStringSet 返回的集合不能修改，复制后再写回
+        Set<String> ids = new HashSet<>(prefs.getStringSet(KEY_WANTED_INSTANCES,
+                Collections.<String>emptySet()));
+        if (wanted ? ids.add(instanceId) : ids.remove(instanceId)) {
+            prefs.edit().putStringSet(KEY_WANTED_INSTANCES, ids).apply();
+        }
+    }
+
+    /**
+     * 用户发起的启动，清除停止标记和重启退避状态
+     */
+    private void requestStart(FrpcInstance instance) {
+        cancelPendingRestart(instance);
+        instance.setStopRequested(false);
+        instance.setNetworkChangedAt(0);
+        instance.getRestartPolicy().reset();
+        startFrpcAsync(instance, false);
+    }
+
+    /**
+     * 启动过程需要等待frpc就绪，不能在主线程执行；每个实例同时只有一个启动线程
+     *
+     * @param automatic 是否为自动重启
+     */
+    private void startFrpcAsync(FrpcInstance instance, boolean automatic) {
+        startFrpcAsync(instance, 0, automatic);
+    }
+
+    /**
+     * @param reallocations 本次启动中此前因端口或名称被拒绝而重试的次数
+     */
+    private void startFrpcAsync(FrpcInstance instance, int reallocations, boolean automatic) {
+        if (instance.isRunning() || !instance.beginStarting()) {
+            Log.d(TAG, "Frpc already running or starting: " + instance.getId());
             return;
         }
+        new Thread(() -> {
+            try {
+                startFrpc(instance, reallocations, automatic);
+            } finally {
+                instance.endStarting();
+            }
+        }, "frpc-start-" + instance.getId()).start();
+    }
+
+    /**
+     * @param reallocations 因端口或名称被服务器拒绝而重新分配的次数
+     * @param automatic     是否为自动重启，自动重启失败时按重启策略继续重试
+     */
+    private void startFrpc(FrpcInstance instance, int reallocations, boolean automatic) {
+        ServiceStateMachine machine = instance.getStateMachine();
+        // 用户启动时只要未运行就进入准备阶段；自动重启和租约被拒绝后的重试只能从 RECONNECTING 进入，
+        // 等待重启或重新连接期间被停止的实例不会被自动启动。正在停止时放弃
+        boolean resuming = automatic || reallocations > 0;
+        if (!machine.update(current -> (resuming ? current.phase != ServiceState.Phase.RECONNECTING
+                : current.isReady()) ? null
+                : current.withPhase(ServiceState.Phase.STAGING).withError(null))) {
+            Log.d(TAG, "Frpc cannot start from " + instance.getState());
+            return;
+        }
+
+        // 本次启动的分阶段耗时
+        final StartupMetrics metrics = new StartupMetrics(instance.getId());
+        instance.setLastStartupMetrics(metrics);
+        recordStartupMetrics(metrics);
+        // 启动失败时用于判断是否被服务器拒绝了端口或名称
+        ReadinessDetector readinessResult = null;
+        ErrorClassifier classifierResult = null;
 
         try {
             // 先启动前台服务，避免超时崩溃
+            metrics.begin(StartupMetrics.Phase.FOREGROUND);
             Notification notification = createNotification();
             try {
                 if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.UPSIDE_DOWN_CAKE) {
@@ -106,129 +484,100 @@ public class FrpcService extends Service {
                 Log.e(TAG, "Failed to start foreground service", e);
                 throw new RuntimeException("无法启动前台服务: " + e.getMessage(), e);
             }
+            metrics.end(StartupMetrics.Phase.FOREGROUND);
 
             // 获取文件路径
             File externalDirFile = getExternalFilesDir(null);
             if (externalDirFile == null) {
                 throw new IOException("无法获取应用目录");
             }
-            String externalDir = externalDirFile.getAbsolutePath();
-            String frpcPath = externalDir + "/frpc";
-            String tomlPath = externalDir + "/frpc.toml";
-            Log.d(TAG, "Frpc path: " + frpcPath);
+            String tomlPath = instance.getConfigPath();
             Log.d(TAG, "Toml path: " + tomlPath);
 
-            // 复制frpc二进制文件到应用目录（如果不存在）
-            copyFrpcBinary(frpcPath);
-            
-            // 复制并修改toml配置文件
-            copyAndModifyToml(tomlPath);
-
-            // 应用目录通常无法执行文件，直接复制到/data/local/tmp
-            String originalFrpcPath = frpcPath;
-            String tmpDir = "/data/local/tmp";
-            String tmpFrpcPath = tmpDir + "/frpc_" + android.os.Process.myPid();
-            
-            try {
-                Log.d(TAG, "Copying frpc to /data/local/tmp: " + tmpFrpcPath);
-                // 使用root权限复制文件到临时目录
-                Process suProcess = Runtime.getRuntime().exec("su");
-                OutputStream os = suProcess.getOutputStream();
-                
-                // 创建目录（如果不存在）
-                String mkdirCmd = "mkdir -p " + tmpDir + "\n";
-                os.write(mkdirCmd.getBytes());
-                os.flush();
-                
-                // 复制文件
-                String copyCmd = "cat \"" + originalFrpcPath + "\" > \"" + tmpFrpcPath + "\"\n";
-                os.write(copyCmd.getBytes());
-                os.flush();
-                
-                // 设置执行权限
-                String chmodCmd = "chmod 755 \"" + tmpFrpcPath + "\"\n";
-                os.write(chmodCmd.getBytes());
-                os.flush();
-                
-                // 退出su
-                os.write("exit\n".getBytes());
-                os.flush();
-                os.close();
-                
-                int exitValue = suProcess.waitFor();
-                if (exitValue == 0) {
-                    File tmpFile = new File(tmpFrpcPath);
-                    if (tmpFile.exists() && tmpFile.length() > 0) {
-                        frpcPath = tmpFrpcPath;
-                        Log.d(TAG, "Successfully copied frpc to /data/local/tmp: " + frpcPath);
-                    } else {
-                        throw new IOException("文件复制失败或文件为空");
-                    }
-                } else {
-                    throw new IOException("复制文件失败，退出码: " + exitValue);
-                }
-            } catch (Exception e) {
-                Log.e(TAG, "Failed to copy to /data/local/tmp", e);
-                throw new IOException("无法复制文件到可执行目录，请确保应用有root权限: " + e.getMessage(), e);
+            if (!instance.isDefault() && !new File(tomlPath).exists()) {
+                throw new IOException("实例配置文件不存在: " + tomlPath);
             }
 
-            // 读取配置参数
-            String serverAddr = SettingsActivity.getServerAddr(this);
-            int serverPort = SettingsActivity.getServerPort(this);
-            String authToken = SettingsActivity.getAuthToken(this);
-            int localPort = SettingsActivity.getLocalPort(this);
-            int randomPortMin = SettingsActivity.getRandomPortMin(this);
-            int randomPortMax = SettingsActivity.getRandomPortMax(this);
+            // 应用目录通常无法执行文件，需要复制到/data/local/tmp
+            // 文件名由内容哈希决定，内容未变化时直接复用已有副本
+            String frpcPath = binaryStager.stage(metrics);
+            Log.d(TAG, "Staged binary: " + frpcPath);
+
+            instance.setBinaryPath(frpcPath);
+
+            // 本次启动使用的配置和用于输出到日志的配置文本
+            FrpcConfig config;
+            String configText;
+            if (instance.isDefault()) {
+                // 读取配置参数，整个启动过程使用同一份快照
+                FrpcSettings settings = FrpcSettings.get(this);
+                String serverAddr = settings.serverAddr;
+                int serverPort = settings.serverPort;
+                // 如果authToken为空，使用默认值
+                String authToken = settings.getEffectiveAuthToken();
+                int localPort = settings.localPort;
+                int randomPortMin = settings.randomPortMin;
+                int randomPortMax = settings.randomPortMax;
             
-            // 如果authToken为空，使用默认值
-            if (authToken == null || authToken.trim().isEmpty()) {
-                authToken = ConfigConstants.DEFAULT_AUTH_TOKEN;
+                // 生成随机name和port
+                // 名称和端口来自持久化租约，同一设备每次启动相同
+                ProxyAllocator.Lease lease = proxyAllocator.acquire(randomPortMin, randomPortMax);
+                String randomName = lease.name;
+                int randomPort = lease.port;
+                // 保存远程端口
+                machine.update(current -> current.withRemotePort(randomPort)
+                        .withInfo("Name: " + randomName + "\nPort: " + randomPort));
+                Log.d(TAG, "Leased name: " + randomName + ", port: " + randomPort);
+
+                // 输出配置参数到日志
+                java.text.SimpleDateFormat sdf = new java.text.SimpleDateFormat("yyyy-MM-dd HH:mm:ss", java.util.Locale.getDefault());
+                String startTime = sdf.format(new java.util.Date());
+                sendOutput(instance, "========== Frpc 启动配置 ==========");
+                sendOutput(instance, "启动时间: " + startTime);
+                sendOutput(instance, "服务器地址: " + serverAddr);
+                sendOutput(instance, "服务器端口: " + serverPort);
+                sendOutput(instance, "认证令牌: " + (authToken.length() > 0 ? "已设置" : "未设置"));
+                sendOutput(instance, "本地端口: " + localPort);
+                sendOutput(instance, "随机端口范围: " + randomPortMin + " - " + randomPortMax);
+                sendOutput(instance, "代理名称: " + randomName);
+                sendOutput(instance, "远程端口: " + randomPort);
+                sendOutput(instance, "配置文件路径: " + tomlPath);
+                sendOutput(instance, "====================================");
+
+                // 在模板基础上应用用户设置，内容未变化时不写文件
+                metrics.begin(StartupMetrics.Phase.CONFIG_WRITE);
+                FrpcConfig fullConfig = buildDefaultConfig(serverAddr, serverPort, authToken, localPort, randomName, randomPort);
+                instance.setFullConfig(fullConfig);
+                config = probeTargets(instance, fullConfig, settings.holdUntilTarget, metrics);
+                configText = config.render();
+                writeConfigIfChanged(instance, configText);
+                metrics.end(StartupMetrics.Phase.CONFIG_WRITE);
+            } else {
+                sendOutput(instance, "========== Frpc 实例 " + instance.getId() + " ==========");
+                sendOutput(instance, "配置文件路径: " + tomlPath);
+                machine.update(current -> current.withInfo("实例: " + instance.getId()));
+                // 其他实例的配置由用户维护，只读取不修改
+                try (InputStream in = new FileInputStream(tomlPath)) {
+                    configText = FrpcConfig.readFully(in);
+                }
+                config = FrpcConfig.parse(configText);
+                instance.setFullConfig(config);
+                // 用户维护的配置不做修改，只提示本地服务不可用
+                probeTargets(instance, config, false, metrics);
             }
             
-            // 生成随机name和port
-            String randomName = generateRandomName();
-            int randomPort = generateRandomPort();
-            remotePort = randomPort; // 保存远程端口
-            lastInfo = "Name: " + randomName + "\nPort: " + randomPort;
-            Log.d(TAG, "Generated name: " + randomName + ", port: " + randomPort);
-
-            // 输出配置参数到日志
-            java.text.SimpleDateFormat sdf = new java.text.SimpleDateFormat("yyyy-MM-dd HH:mm:ss", java.util.Locale.getDefault());
-            String startTime = sdf.format(new java.util.Date());
-            sendOutput("========== Frpc 启动配置 ==========");
-            sendOutput("启动时间: " + startTime);
-            sendOutput("服务器地址: " + serverAddr);
-            sendOutput("服务器端口: " + serverPort);
-            sendOutput("认证令牌: " + (authToken.length() > 0 ? authToken.substring(0, Math.min(8, authToken.length())) + "..." : "未设置"));
-            sendOutput("本地端口: " + localPort);
-            sendOutput("随机端口范围: " + randomPortMin + " - " + randomPortMax);
-            sendOutput("代理名称: " + randomName);
-            sendOutput("远程端口: " + randomPort);
-            sendOutput("配置文件路径: " + tomlPath);
-            sendOutput("====================================");
-
-            // 修改toml文件，使用用户设置的配置参数
-            modifyTomlFile(tomlPath, serverAddr, serverPort, authToken, localPort, randomName, randomPort);
-            
-            // 读取并显示toml配置文件内容
-            try {
-                sendOutput("配置文件内容:");
-                @SuppressWarnings({"IOResource", "resource"})
-                FileInputStream tomlFis = new FileInputStream(tomlPath);
-                try (BufferedReader tomlReader = new BufferedReader(
-                        new InputStreamReader(tomlFis))) {
-                    String tomlLine;
-                    while ((tomlLine = tomlReader.readLine()) != null) {
-                        sendOutput("  " + tomlLine);
-                    }
-                }
-            } catch (IOException e) {
-                Log.w(TAG, "Failed to read toml file content", e);
-                sendOutput("无法读取配置文件内容: " + e.getMessage());
+            // 显示toml配置内容，使用内存中的模型，不再重新读取文件；
+            // 输出会写入日志文件并可以导出，令牌和管理接口凭据要遮盖
+            metrics.begin(StartupMetrics.Phase.CONFIG_ECHO);
+            sendOutput(instance, "配置文件内容:");
+            for (String tomlLine : config.renderRedacted().split("\n")) {
+                sendOutput(instance, "  " + tomlLine);
             }
-            sendOutput("====================================");
+            sendOutput(instance, "====================================");
+            metrics.end(StartupMetrics.Phase.CONFIG_ECHO);
 
             // 验证文件存在
+            metrics.begin(StartupMetrics.Phase.ELF_CHECK);
             File frpcFileCheck = new File(frpcPath);
             if (!frpcFileCheck.exists()) {
                 throw new IOException("frpc文件不存在: " + frpcPath);
@@ -268,22 +617,24 @@ public class FrpcService extends Service {
                 throw new IOException("toml配置文件不存在: " + tomlPath);
             }
             Log.d(TAG, "Toml file verified: " + tomlPath);
+            metrics.end(StartupMetrics.Phase.ELF_CHECK);
 
             // 启动frpc进程（始终使用su通过root权限执行，确保权限）
             Log.d(TAG, "Starting frpc process with root: " + frpcPath + " -c " + tomlPath);
             
             // 先设置执行权限（以防万一）
+            metrics.begin(StartupMetrics.Phase.CHMOD);
             try {
-                Process chmodProcess = Runtime.getRuntime().exec(new String[]{"su", "-c", "chmod 755 \"" + frpcPath + "\""});
-                int chmodExit = chmodProcess.waitFor();
-                if (chmodExit == 0) {
+                RootShell.Result chmodResult = RootShell.getInstance().exec("chmod 755 " + RootShell.quote(frpcPath));
+                if (chmodResult.isSuccess()) {
                     Log.d(TAG, "Set executable permission");
                 } else {
-                    Log.w(TAG, "Failed to set executable permission, exit code: " + chmodExit);
+                    Log.w(TAG, "Failed to set executable permission, exit code: " + chmodResult.exitCode);
                 }
             } catch (Exception e) {
                 Log.w(TAG, "Failed to set executable permission", e);
             }
+            metrics.end(StartupMetrics.Phase.CHMOD);
             
             // 使用 su -c 执行命令，这样可以正确捕获输出
             // 构建完整的命令，包括工作目录切换
@@ -291,278 +642,677 @@ public class FrpcService extends Service {
             String fullCommand;
             if (parentDir != null) {
                 // 切换到工作目录并执行命令
-                fullCommand = "cd \"" + parentDir + "\" && \"" + frpcPath + "\" -c \"" + tomlPath + "\"";
+                fullCommand = "cd " + RootShell.quote(parentDir) + " && " + RootShell.quote(frpcPath)
+                        + " -c " + RootShell.quote(tomlPath);
             } else {
-                fullCommand = "\"" + frpcPath + "\" -c \"" + tomlPath + "\"";
+                fullCommand = RootShell.quote(frpcPath) + " -c " + RootShell.quote(tomlPath);
             }
             
             // 使用 ProcessBuilder 通过 su -c 执行，确保输出能被正确捕获
             Log.d(TAG, "Executing command: " + fullCommand);
-            sendOutput("正在启动 frpc 进程...");
-            sendOutput("执行命令: " + fullCommand);
+            sendOutput(instance, "正在启动 frpc 进程...");
+            sendOutput(instance, "执行命令: " + fullCommand);
+            metrics.begin(StartupMetrics.Phase.SPAWN);
             ProcessBuilder pb = new ProcessBuilder("su", "-c", fullCommand);
             // 重定向错误流到标准输出，这样所有输出都在一个流中
             pb.redirectErrorStream(false);
-            frpcProcess = pb.start();
-            int processId = (int) getProcessId(frpcProcess);
+            final Process process = pb.start();
+            metrics.end(StartupMetrics.Phase.SPAWN);
+            // 从进程启动到第一个代理启动成功之间的时间
+            metrics.begin(StartupMetrics.Phase.READY_WAIT);
+            instance.setProcess(process);
+            if (!machine.transition(ServiceState.Phase.STAGING, ServiceState.Phase.LAUNCHING)) {
+                // 准备期间已被停止
+                throw new IOException("启动已取消");
+            }
+            int processId = (int) getProcessId(process);
             Log.d(TAG, "Started frpc process with su, PID: " + processId);
-            sendOutput("Frpc 进程已启动，PID: " + processId);
-            sendOutput("------------------------------------");
+            sendOutput(instance, "Frpc 进程已启动，PID: " + processId);
+            sendOutput(instance, "------------------------------------");
             
-            // 用于收集错误信息，以便在进程退出时分析
-            final StringBuilder errorBuffer = new StringBuilder();
-            final StringBuilder outputBuffer = new StringBuilder();
+            // 每行到达时增量分类，进程退出时直接得到错误类型，不再保存全部输出
+            final ErrorClassifier errorClassifier = new ErrorClassifier(ERROR_REPORT_LINES);
+            // 登录成功且所有代理启动成功后才算启动完成
+            final ReadinessDetector readiness = new ReadinessDetector(config.getProxyNames(),
+                    instance.isDefault() ? ADMIN_HOST + ":" + adminPort : null);
+            readinessResult = readiness;
+            classifierResult = errorClassifier;
+            instance.clearProxyProblems();
             
-            // 同时读取错误输出
-            Thread stderrThread = new Thread(() -> {
-                try (BufferedReader reader = new BufferedReader(
-                        new InputStreamReader(frpcProcess.getErrorStream()))) {
-                    String line;
-                    while ((line = reader.readLine()) != null) {
-                        // 清理 ANSI 转义码
-                        String cleanLine = removeAnsiCodes(line);
-                        Log.e(TAG, "frpc stderr: " + cleanLine);
-                        errorBuffer.append(cleanLine).append("\n");
-                        sendOutput("[错误] " + cleanLine);
+            // 输出由共用的读取线程池阻塞读取，不再为每个进程创建读取线程
+            outputReader.register(process, new ProcessOutputReader.Sink() {
+                @Override
+                public void onLine(ProcessOutputReader.Source source, String line) {
+                    // 每行只解析一次，分类、就绪检测、日志存储和状态显示都使用解析结果
+                    LogRecord record = LogRecord.parse(line, System.currentTimeMillis());
+                    if (source == ProcessOutputReader.Source.STDERR) {
+                        Log.e(FRPC_LOG_TAG, line);
+                        if (!record.structured) {
+                            record = LogRecord.plain("[错误] " + line, LogRecord.Level.ERROR,
+                                    record.epochMillis);
+                        }
+                    } else {
+                        Log.d(FRPC_LOG_TAG, line);
                     }
-                } catch (IOException e) {
-                    Log.e(TAG, "Error reading frpc stderr", e);
+                    errorClassifier.accept(record);
+                    readiness.accept(record);
+                    instance.recordProxyLog(record);
+                    sendRecord(instance, record);
                 }
-            });
-            stderrThread.start();
-
-            // 启动读取输出的线程
-            Thread stdoutThread = new Thread(() -> {
-                try (BufferedReader reader = new BufferedReader(
-                        new InputStreamReader(frpcProcess.getInputStream()))) {
-                    String line;
-                    while ((line = reader.readLine()) != null) {
-                        // 清理 ANSI 转义码
-                        String cleanLine = removeAnsiCodes(line);
-                        Log.d(TAG, "frpc: " + cleanLine);
-                        outputBuffer.append(cleanLine).append("\n");
-                        // 发送输出到Activity
-                        sendOutput(cleanLine);
-                    }
-                    // 等待错误输出线程结束
-                    try {
-                        stderrThread.join(1000); // 最多等待1秒
-                    } catch (InterruptedException e) {
-                        Log.w(TAG, "Interrupted while waiting for stderr thread", e);
-                    }
-                    
-                    // 进程退出
-                    int exitCode = frpcProcess.waitFor();
+
+                @Override
+                public void onExit(int exitCode) {
+                    readiness.onProcessExit(exitCode);
                     Log.e(TAG, "Frpc process exited with code: " + exitCode);
-                    sendOutput("------------------------------------");
-                    sendOutput("[进程退出，退出码: " + exitCode + "]");
-                    
+                    sendOutput(instance, "------------------------------------");
+                    sendOutput(instance, "[进程退出，退出码: " + exitCode + "]");
+
                     // 分析错误原因并提供友好提示
                     if (exitCode != 0) {
-                        // 合并标准输出和错误输出进行分析
-                        String allOutput = outputBuffer.toString() + errorBuffer.toString();
-                        String errorSummary = analyzeError(allOutput, exitCode);
+                        String errorSummary = analyzeError(errorClassifier, exitCode);
                         if (errorSummary != null && !errorSummary.isEmpty()) {
-                            sendOutput("");
-                            sendOutput("========== 错误分析 ==========");
-                            sendOutput(errorSummary);
-                            sendOutput("==============================");
+                            sendOutput(instance, "");
+                            sendOutput(instance, "========== 错误分析 ==========");
+                            sendOutput(instance, errorSummary);
+                            sendOutput(instance, "==============================");
+                        }
+                    }
+
+                    // 重新分配后可能已经启动了新进程，只清理属于本进程的状态
+                    if (instance.getProcess() == process) {
+                        // 停止时状态已先转为 STOPPING，这里仍为 READY 说明是意外退出
+                        boolean wasRunning = instance.isRunning();
+                        instance.setProcess(null);
+                        instance.setFrpcPid(-1);
+                        stopStatusPoller(instance);
+                        stopWatchingTargets(instance);
+                        // 启动阶段的退出由启动线程处理，这里只处理运行中的意外退出
+                        if (wasRunning && !instance.isStopRequested()) {
+                            handleRunFailure(instance, errorClassifier.classify(), exitCode,
+                                    "进程退出，退出码: " + exitCode);
                         }
                     }
-                    
-                    isRunning = false;
-                    frpcProcess = null;
-                } catch (IOException e) {
-                    Log.e(TAG, "Error reading frpc output", e);
-                    sendOutput("[错误: " + e.getMessage() + "]");
-                } catch (InterruptedException e) {
-                    Log.e(TAG, "Interrupted while waiting for process", e);
-                    sendOutput("[中断: " + e.getMessage() + "]");
                 }
             });
-            stdoutThread.start();
             
-            // 等待一小段时间检查进程是否还在运行
-            Thread.sleep(500);
-            // 检查进程是否还在运行（兼容所有API级别）
-            boolean processAlive = isProcessAlive(frpcProcess);
-            if (!processAlive) {
-                int exitCode = frpcProcess.exitValue();
-                throw new IOException("frpc进程立即退出，退出码: " + exitCode);
+            // 等待登录和代理启动成功，出现致命错误或进程退出时立即失败
+            long readyTimeoutMs = FrpcSettings.get(this).readyTimeoutSeconds * 1000L;
+            try {
+                readiness.await(readyTimeoutMs);
+            } finally {
+                metrics.end(StartupMetrics.Phase.READY_WAIT);
             }
 
-            isRunning = true;
-            Log.d(TAG, "Frpc started successfully");
-            
-            // 发送启动成功广播，更新UI
-            try {
-                Intent startedIntent = new Intent(ACTION_STARTED);
-                sendBroadcast(startedIntent);
-            } catch (Exception ex) {
-                Log.e(TAG, "Failed to send started broadcast", ex);
+            instance.setProxyTargets(config.getProxyTargets());
+            instance.setFrpcPid(findFrpcPid(frpcPath, tomlPath));
+            String serverAddr = instance.isDefault() ? FrpcSettings.get(this).serverAddr : null;
+            // 只有仍在等待就绪时才转为 READY，等待期间被停止的实例不会重新变成运行中
+            if (!machine.update(current -> current.phase != ServiceState.Phase.LAUNCHING ? null
+                    : current.withPhase(ServiceState.Phase.READY).withConnectionInfo(
+                            serverAddr != null && current.remotePort > 0
+                                    ? serverAddr + ":" + current.remotePort : null))) {
+                throw new IOException("启动已取消");
+            }
+            // 之后的意外退出只按就绪后的输出分类，启动输出中的配置文件名等不会造成误判
+            classifierResult.onReady();
+            instance.getRestartPolicy().onStarted(SystemClock.elapsedRealtime());
+            long networkChangedAt = instance.getNetworkChangedAt();
+            if (networkChangedAt > 0) {
+                metrics.setRecoveryMillis(SystemClock.elapsedRealtime() - networkChangedAt);
+                instance.setNetworkChangedAt(0);
             }
+            if (instance.isDefault()) {
+                // 代理已注册成功，新分配的名称和端口从此作为租约保留
+                proxyAllocator.confirm();
+                startStatusPoller(instance);
+            }
+            watchTargets(instance);
+            Log.d(TAG, "Frpc started successfully: " + instance.getId());
+            metrics.finish();
+            reportStartupMetrics(instance, metrics);
 
         } catch (Exception e) {
             Log.e(TAG, "Failed to start frpc", e);
             Log.e(TAG, "Exception details", e);
-            isRunning = false;
-            lastError = e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
-            // 发送错误广播
-            try {
-                Intent errorIntent = new Intent(ACTION_ERROR);
-                errorIntent.putExtra(EXTRA_ERROR_MESSAGE, lastError);
-                sendBroadcast(errorIntent);
-            } catch (Exception ex) {
-                Log.e(TAG, "Failed to send error broadcast", ex);
+            // 未就绪时进程可能仍在重试连接，直接结束
+            Process failedProcess = instance.getProcess();
+            int failedPid = instance.getFrpcPid();
+            instance.setProcess(null);
+            instance.setFrpcPid(-1);
+            if (failedProcess != null) {
+                // 重新分配后要立即再次启动，旧的frpc必须先退出并释放端口
+                killFrpc(instance, failedProcess, failedPid);
+            }
+            metrics.finish();
+            reportStartupMetrics(instance, metrics);
+            ServiceState.Phase phase = instance.getState().phase;
+            if (phase == ServiceState.Phase.IDLE || phase == ServiceState.Phase.STOPPING) {
+                // 启动过程中被停止，不是失败
+                Log.d(TAG, "Start cancelled: " + instance.getId());
+                return;
+            }
+            ReadinessDetector.Rejection rejection = readinessResult != null
+                    ? readinessResult.getRejection() : ReadinessDetector.Rejection.NONE;
+            if (instance.isDefault() && rejection == ReadinessDetector.Rejection.ADMIN_PORT_IN_USE
+                    && reallocations < MAX_REALLOCATIONS
+                    && instance.getStateMachine().transition(ServiceState.Phase.LAUNCHING,
+                            ServiceState.Phase.RECONNECTING)) {
+                // 选定的管理接口端口在 frpc 监听前被其他程序占用，换一个端口立即重试，代理租约不变
+                sendOutput(instance, "[管理接口端口 " + adminPort + " 已被占用，重新分配后重试]");
+                adminPort = 0;
+                startFrpc(instance, reallocations + 1, automatic);
+                return;
             }
-            stopSelf();
+            if (instance.isDefault()
+                    && (rejection == ReadinessDetector.Rejection.PORT_IN_USE
+                    || rejection == ReadinessDetector.Rejection.NAME_IN_USE)
+                    && reallocations < MAX_REALLOCATIONS
+                && instance.getStateMachine().transition(ServiceState.Phase.LAUNCHING,
+                        ServiceState.Phase.RECONNECTING)) {
+                // 服务器拒绝了端口或名称，先等待后原样重试，之后换一个重新启动；转换失败说明已被停止或另有处理
+                FrpcSettings settings = FrpcSettings.get(this);
+                ProxyAllocator.Retry retry = proxyAllocator.reject(
+                        rejection == ReadinessDetector.Rejection.PORT_IN_USE,
+                        reallocations, settings.randomPortMin, settings.randomPortMax);
+                ProxyAllocator.Lease lease = retry.lease;
+                if (retry.delayMs > 0) {
+                    // 可能是上次会话残留在服务器上的代理，等服务器释放后再用同一租约重试；停止时会取消
+                    sendOutput(instance, String.format(java.util.Locale.US,
+                            "[服务器拒绝了 %s:%d，可能是上次连接残留的代理，%.1f 秒后重试]",
+                            lease.name, lease.port, retry.delayMs / 1000.0));
+                    Runnable restart = () -> {
+                        instance.setPendingRestart(null);
+                        startFrpcAsync(instance, reallocations + 1, automatic);
+                    };
+                    instance.setPendingRestart(restart);
+                    mainHandler.postDelayed(restart, retry.delayMs);
+                    return;
+                }
+                sendOutput(instance, "[服务器拒绝了当前端口或名称，重新分配为 " + lease.name + ":" + lease.port + " 后重试]");
+                startFrpc(instance, reallocations + 1, automatic);
+                return;
+            }
+            String message = e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+            if (automatic && !instance.isStopRequested()) {
+                // 自动重启失败，交给重启策略决定是否继续
+                ErrorClassifier.Category category = classifierResult != null
+                        ? classifierResult.classify() : ErrorClassifier.Category.UNKNOWN;
+                handleRunFailure(instance, category, -1, "自动重启失败: " + message);
+                return;
+            }
+            machine.fail(message);
+            setWanted(instance, false);
+            stopSelfIfIdle(lastStartId);
         }
     }
     
-    private void sendOutput(String line) {
-        try {
-            Intent outputIntent = new Intent(ACTION_OUTPUT);
-            outputIntent.putExtra(EXTRA_OUTPUT_LINE, line);
-            sendBroadcast(outputIntent);
-        } catch (Exception e) {
-            Log.e(TAG, "Failed to send output broadcast", e);
+    /**
+     * 运行中的进程意外退出或自动重启失败时，按重启策略安排重启或放弃
+     */
+    private void handleRunFailure(FrpcInstance instance, ErrorClassifier.Category category,
+                                  int exitCode, String reason) {
+        ServiceStateMachine machine = instance.getStateMachine();
+        if (!networkMonitor.isAvailable()) {
+            // 断网期间重启必然失败，不消耗重启次数，等网络恢复后立即重启
+            if (!machine.transition(ServiceState.Phase.RECONNECTING)) {
+                return;
+            }
+            instance.setWaitingForNetwork(true);
+            sendOutput(instance, "[" + reason + "，网络不可用，网络恢复后自动重启]");
+            updateNotification("网络不可用，等待网络恢复");
+            return;
         }
+        RestartPolicy.Decision decision = instance.getRestartPolicy()
+                .onExit(category, exitCode, reason, SystemClock.elapsedRealtime());
+        if (decision.restart) {
+            if (!machine.transition(ServiceState.Phase.RECONNECTING)) {
+                // 已被停止
+                return;
+            }
+            sendOutput(instance, String.format(java.util.Locale.US, "[%s，%.1f 秒后自动重启]",
+                    reason, decision.delayMs / 1000.0));
+            Runnable restart = () -> {
+                instance.setPendingRestart(null);
+                startFrpcAsync(instance, true);
+            };
+            instance.setPendingRestart(restart);
+            mainHandler.postDelayed(restart, decision.delayMs);
+            updateNotification("frpc已退出，等待自动重启");
+            return;
+        }
+
+        sendOutput(instance, "[" + reason + "，停止自动重启: " + decision.reason + "]");
+        String message = reason + "，已停止自动重启: " + decision.reason;
+        machine.fail(message);
+        setWanted(instance, false);
+        stopSelfIfIdle(lastStartId);
     }
 
-    private void copyFrpcBinary(String targetPath) throws IOException {
-        File targetFile = new File(targetPath);
-        if (targetFile.exists() && targetFile.canExecute()) {
-            return; // 已存在且可执行
+    /**
+     * 所有实例都已停止或失败时退出前台并停止服务，在主线程判断和执行。
+     * 仍有实例在准备、启动、等待重启或停止时保留服务；
+     * 之后又收到命令时 startId 已变化，服务也不会被停止
+     */
+    private void stopSelfIfIdle(int startId) {
+        mainHandler.post(() -> {
+            if (!isAnyActive()) {
+                stopForeground(true);
+                stopSelf(startId);
+            }
+        });
+    }
+
+    private void cancelPendingRestart(FrpcInstance instance) {
+        Runnable pending = instance.getPendingRestart();
+        if (pending != null) {
+            mainHandler.removeCallbacks(pending);
+            instance.setPendingRestart(null);
         }
+    }
 
-        // 从assets复制（必须存在）
-        try (InputStream is = getAssets().open("frpc");
-             FileOutputStream fos = new FileOutputStream(targetPath)) {
-            byte[] buffer = new byte[8192];
-            int bytesRead;
-            while ((bytesRead = is.read(buffer)) != -1) {
-                fos.write(buffer, 0, bytesRead);
+    private boolean hasPendingRestart() {
+        for (FrpcInstance instance : supervisor.getInstances()) {
+            if (instance.getPendingRestart() != null || instance.isWaitingForNetwork()) {
+                return true;
             }
-            Log.d(TAG, "Frpc binary copied from assets");
-        } catch (IOException e) {
-            Log.e(TAG, "Failed to copy frpc from assets", e);
-            throw new IOException("frpc二进制文件未找到。请确保已将frpc文件放到app/src/main/assets/目录中。", e);
         }
+        return false;
     }
 
-    private void copyAndModifyToml(String targetPath) throws IOException {
-        // 优先从assets复制
-        try (InputStream is = getAssets().open("frpc.toml");
-             FileOutputStream fos = new FileOutputStream(targetPath)) {
-            byte[] buffer = new byte[8192];
-            int bytesRead;
-            while ((bytesRead = is.read(buffer)) != -1) {
-                fos.write(buffer, 0, bytesRead);
+    /**
+     * 网络断开：取消已安排的重启，改为等待网络恢复；运行中的进程保留，frpc 会自行重连
+     */
+    private void suspendRestarts() {
+        for (FrpcInstance instance : supervisor.getInstances()) {
+            if (instance.isStopRequested()) {
+                continue;
+            }
+            if (instance.getPendingRestart() != null) {
+                cancelPendingRestart(instance);
+                instance.setWaitingForNetwork(true);
+                sendOutput(instance, "[网络不可用，暂停自动重启]");
             }
-            Log.d(TAG, "Toml config copied from assets");
-        } catch (IOException e) {
-            // 如果assets中没有，使用默认配置
-            Log.w(TAG, "frpc.toml not found in assets, using default config");
-            createDefaultToml(targetPath);
+        }
+        if (supervisor.isAnyRunning() || hasPendingRestart()) {
+            updateNotification("网络不可用，等待网络恢复");
         }
     }
 
-    private void createDefaultToml(String path) throws IOException {
-        // 从设置中读取配置
-        String serverAddr = SettingsActivity.getServerAddr(this);
-        int serverPort = SettingsActivity.getServerPort(this);
-        String authToken = SettingsActivity.getAuthToken(this);
-        int localPort = SettingsActivity.getLocalPort(this);
-        
-        // 如果authToken为空，使用默认值
-        if (authToken == null || authToken.trim().isEmpty()) {
-            authToken = ConfigConstants.DEFAULT_AUTH_TOKEN;
+    /**
+     * 默认网络切换或恢复：立即重启正在运行或等待重启的实例，不等心跳超时
+     */
+    private void reconnectAll() {
+        long now = SystemClock.elapsedRealtime();
+        boolean reconnected = false;
+        for (FrpcInstance instance : supervisor.getInstances()) {
+            if (instance.isStopRequested()) {
+                continue;
+            }
+            boolean waiting = instance.isWaitingForNetwork() || instance.getPendingRestart() != null;
+            if (!waiting && !instance.isRunning()) {
+                continue;
+            }
+            if (instance.isStarting()) {
+                // 正在进行的启动已经使用新网络
+                continue;
+            }
+            // 从检测到网络变化开始计算恢复耗时，启动就绪时记录到本次启动的耗时中
+            if (!instance.getStateMachine().transition(ServiceState.Phase.RECONNECTING)) {
+                continue;
+            }
+            instance.setNetworkChangedAt(now);
+            cancelPendingRestart(instance);
+            instance.setWaitingForNetwork(false);
+            sendOutput(instance, "[网络已变化，立即重新连接]");
+            reconnect(instance);
+            reconnected = true;
         }
-        
-        String defaultConfig = "serverAddr = \"" + serverAddr + "\"\n" +
-                "serverPort = " + serverPort + "\n" +
-                "auth.token = \"" + authToken + "\"\n" +
-                "\n" +
-                "[[proxies]]\n" +
-                "name = \"test-tcp\"\n" +
-                "type = \"tcp\"\n" +
-                "localIP = \"127.0.0.1\"\n" +
-                "localPort = " + localPort + "\n" +
-                "remotePort = 6000\n";
-        
-        try (FileOutputStream fos = new FileOutputStream(path)) {
-            fos.write(defaultConfig.getBytes());
+        if (reconnected) {
+            updateNotification("frpc服务正在后台运行");
         }
     }
 
-    private void setExecutable(String filePath) {
-        File file = new File(filePath);
-        // 设置执行权限（只对所有者，不是世界可读）
-        if (!file.setExecutable(true, false)) {
-            Log.w(TAG, "Failed to set executable permission on " + filePath);
+    private void reconnect(FrpcInstance instance) {
+        new Thread(() -> {
+            // 在 RECONNECTING 阶段内直接结束旧进程，不经过 STOPPING，也不改动用户的停止标记；
+            // 先清空进程引用，旧进程的退出回调不会被当作意外退出
+            stopStatusPoller(instance);
+            stopWatchingTargets(instance);
+            Process process = instance.getProcess();
+            int pid = instance.getFrpcPid();
+            instance.setProcess(null);
+            instance.setFrpcPid(-1);
+            if (process != null || pid > 0) {
+                killFrpc(instance, process, pid);
+            }
+            // 自动启动只能从 RECONNECTING 原子地进入 STAGING，期间被用户停止时不会重新启动
+            startFrpcAsync(instance, true);
+        }, "frpc-reconnect-" + instance.getId()).start();
+    }
+
+    private static void recordStartupMetrics(StartupMetrics metrics) {
+        synchronized (startupHistory) {
+            if (startupHistory.size() >= STARTUP_HISTORY_SIZE) {
+                startupHistory.remove(0);
+            }
+            startupHistory.add(metrics);
         }
-        if (!file.setReadable(true, false)) {  // 只对所有者可读，不是世界可读
-            Log.w(TAG, "Failed to set readable permission on " + filePath);
+    }
+
+    private void reportStartupMetrics(FrpcInstance instance, StartupMetrics metrics) {
+        String summary = metrics.formatSummary();
+        Log.i(TAG, "[" + instance.getId() + "] " + summary);
+        sendOutput(instance, "[" + summary + "]");
+    }
+
+    /**
+     * 输出本应用自己的提示信息
+     */
+    private void sendOutput(FrpcInstance instance, String line) {
+        sendRecord(instance, LogRecord.plain(line, LogRecord.Level.NONE, System.currentTimeMillis()));
+    }
+
+    private void sendRecord(FrpcInstance instance, LogRecord record) {
+        // 非阻塞入队，队列满时丢弃并计数；非默认实例的输出带上实例前缀
+        logDispatcher.submit(instance.isDefault() ? record : record.withPrefix("[" + instance.getId() + "] "));
+    }
+
+    private static void deliverLogBatch(List<LogRecord> records, long dropped) {
+        // 持锁追加，恢复持久化日志时据此判断内存中是否已有新输出
+        synchronized (journalLock) {
+            LogJournal journal = logJournal;
+            long now = System.currentTimeMillis();
+            if (dropped > 0) {
+                LogRecord marker = LogRecord.plain("[日志过多，已丢弃 " + dropped + " 行]", LogRecord.Level.WARN, now);
+                logStore.append(marker);
+                journalRecord(journal, marker);
+            }
+            for (LogRecord record : records) {
+                logStore.append(record);
+                journalRecord(journal, record);
+            }
         }
-        if (!file.setWritable(false, false)) {
-            Log.w(TAG, "Failed to set writable permission on " + filePath);
+        // 每个批次只通知一次，主线程上尚未执行的通知会被合并
+        mainHandler.removeCallbacks(notifyLogListeners);
+        mainHandler.post(notifyLogListeners);
+    }
+
+    private static void journalRecord(LogJournal journal, LogRecord record) {
+        if (journal != null) {
+            journal.append(record.epochMillis, record.line);
+        } else if (unjournaled != null && unjournaled.size() < LOG_CAPACITY) {
+            unjournaled.add(record);
         }
-        
-        // 尝试使用chmod命令（只对所有者可执行和可读，不是世界可读）
-        try {
-            Process chmodProcess = Runtime.getRuntime().exec(new String[]{"chmod", "700", filePath});
-            chmodProcess.waitFor();
-            Log.d(TAG, "chmod 700 executed on " + filePath);
-        } catch (Exception e) {
-            Log.w(TAG, "Failed to execute chmod, using setExecutable only", e);
+    }
+
+    /**
+     * 配置模板，服务生命周期内只从assets解析一次
+     */
+    private FrpcConfig getConfigTemplate() throws IOException {
+        if (configTemplate == null) {
+            try (InputStream is = getAssets().open("frpc.toml")) {
+                configTemplate = FrpcConfig.parse(is);
+                Log.d(TAG, "Toml template parsed from assets");
+            } catch (IOException e) {
+                // 如果assets中没有，使用默认配置
+                Log.w(TAG, "frpc.toml not found in assets, using default config", e);
+                configTemplate = createDefaultConfig();
+            }
         }
+        return configTemplate;
     }
-    
-    private void setExecutableWithRoot(String filePath) {
-        File file = new File(filePath);
-        // 先尝试普通方式设置权限
-        setExecutable(filePath);
-        
-        // 使用root权限通过su命令设置权限
+
+    private FrpcConfig createDefaultConfig() {
+        FrpcConfig config = new FrpcConfig();
+        FrpcConfig.Proxy proxy = new FrpcConfig.Proxy();
+        proxy.name = "test-tcp";
+        proxy.type = "tcp";
+        proxy.localIP = "127.0.0.1";
+        proxy.localPort = ConfigConstants.DEFAULT_LOCAL_PORT;
+        proxy.remotePort = 6000;
+        config.proxies.add(proxy);
+        return config;
+    }
+
+    /**
+     * 在模板上应用用户设置：通用部分使用设置中的服务器参数，
+     * 第一个代理使用生成的名称和端口，其余代理保持模板中的配置
+     */
+    private FrpcConfig buildDefaultConfig(String serverAddr, int serverPort, String authToken,
+                                          int localPort, String name, int remotePort) throws IOException {
+        FrpcConfig config = getConfigTemplate().copy();
+        config.serverAddr = serverAddr;
+        config.serverPort = serverPort;
+        config.authToken = authToken;
+        if (config.proxies.isEmpty()) {
+            config.proxies.addAll(createDefaultConfig().proxies);
+        }
+        FrpcConfig.Proxy primary = config.proxies.get(0);
+        primary.name = name;
+        primary.localPort = localPort;
+        primary.remotePort = remotePort;
+        // 开启管理接口，用于查询代理状态
+        ensureAdminCredentials();
+        config.webServer.addr = ADMIN_HOST;
+        config.webServer.port = adminPort;
+        config.webServer.user = ADMIN_USER;
+        config.webServer.password = adminPassword;
+        return config;
+    }
+
+    /**
+     * 查找实际运行的 frpc 进程 PID（su 启动的 shell 的子进程），用于流量采样
+     *
+     * @return 找不到时返回 -1
+     */
+    private static int findFrpcPid(String frpcPath, String tomlPath) {
+        List<Integer> pids = reaper.find(frpcPath, tomlPath);
+        if (!pids.isEmpty()) {
+            return pids.get(0);
+        }
+        Log.w(TAG, "frpc pid not found, traffic sampling disabled: " + tomlPath);
+        return -1;
+    }
+
+    private void ensureAdminCredentials() throws IOException {
+        if (adminPort == 0) {
+            // 由系统分配一个当前空闲的回环端口；frpc 监听前可能被占用，届时清零重新分配
+            try (ServerSocket socket = new ServerSocket(0, 1, InetAddress.getByName(ADMIN_HOST))) {
+                adminPort = socket.getLocalPort();
+            }
+        }
+        if (adminPassword != null) {
+            return;
+        }
+        byte[] random = new byte[12];
+        new SecureRandom().nextBytes(random);
+        StringBuilder sb = new StringBuilder();
+        for (byte b : random) {
+            sb.append(String.format(java.util.Locale.US, "%02x", b));
+        }
+        adminPassword = sb.toString();
+    }
+
+    /**
+     * 就绪后开始轮询管理接口，只用于默认实例，其他实例的配置由用户维护
+     */
+    private void startStatusPoller(FrpcInstance instance) {
+        stopStatusPoller(instance);
+        AdminApiClient client = new AdminApiClient(ADMIN_HOST, adminPort, ADMIN_USER, adminPassword);
+        StatusPoller poller = new StatusPoller(client, statuses -> {
+            instance.setProxyStatuses(statuses);
+            mainHandler.post(notifyStatusListeners);
+        }, instance.getId());
+        instance.setStatusPoller(poller);
+        poller.start();
+    }
+
+    private static void stopStatusPoller(FrpcInstance instance) {
+        StatusPoller poller = instance.getStatusPoller();
+        if (poller != null) {
+            poller.stop();
+            instance.setStatusPoller(null);
+        }
+        if (!instance.getProxyStatuses().isEmpty()) {
+            instance.setProxyStatuses(Collections.<ProxyStatus>emptyList());
+            mainHandler.post(notifyStatusListeners);
+        }
+    }
+
+    /**
+     * 启动前检查各代理的本地服务，无法连接时输出警告
+     *
+     * @param hold 是否暂不启用本地服务无法连接的代理
+     * @return 实际用于启动的配置，hold 为 true 时去掉了无法连接的代理
+     */
+    private FrpcConfig probeTargets(FrpcInstance instance, FrpcConfig config, boolean hold,
+                                    StartupMetrics metrics) {
+        metrics.begin(StartupMetrics.Phase.TARGET_PROBE);
+        Set<String> held = new TreeSet<>();
         try {
-            Process suProcess = Runtime.getRuntime().exec("su");
-            OutputStream os = suProcess.getOutputStream();
-            
-            // 使用chmod设置执行权限
-            String command = "chmod 700 " + filePath + "\n";
-            os.write(command.getBytes());
-            os.flush();
-            
-            // 退出su
-            os.write("exit\n".getBytes());
-            os.flush();
-            os.close();
-            
-            int exitValue = suProcess.waitFor();
-            if (exitValue == 0) {
-                Log.d(TAG, "Successfully set executable permission with root: " + filePath);
-            } else {
-                Log.w(TAG, "Failed to set executable permission with root, exit code: " + exitValue);
+            Map<String, TargetProber.Result> results = targetProber.check(buildProbeTargets(config));
+            for (TargetProber.Result result : results.values()) {
+                if (result.reachable) {
+                    continue;
+                }
+                if (hold) {
+                    held.add(result.name);
+                    sendOutput(instance, "[本地服务 " + result.address + " 无法连接（" + result.error
+                            + "），暂不启用代理 " + result.name + "]");
+                } else {
+                    sendOutput(instance, "[警告: 代理 " + result.name + " 的本地服务 " + result.address
+                            + " 无法连接（" + result.error + "）]");
+                }
             }
-        } catch (Exception e) {
-            Log.w(TAG, "Failed to set executable permission with root", e);
+            instance.setTargetStatuses(new ArrayList<>(results.values()));
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to probe local targets", e);
+        } finally {
+            metrics.end(StartupMetrics.Phase.TARGET_PROBE);
         }
+        instance.setHeldProxies(held);
+        return held.isEmpty() ? config : config.withoutProxies(held);
     }
-    
-    @SuppressWarnings({"IOResource", "resource"})  // 使用 FileInputStream 以兼容 API 21+，Files.newInputStream() 需要 API 26+
-    private void copyFile(String sourcePath, String targetPath) throws IOException {
-        // 注意：使用 FileInputStream 而不是 Files.newInputStream() 以兼容 API 21+
-        try (FileInputStream fis = new FileInputStream(sourcePath);
-             FileOutputStream fos = new FileOutputStream(targetPath)) {
-            byte[] buffer = new byte[8192];
-            int bytesRead;
-            while ((bytesRead = fis.read(buffer)) != -1) {
-                fos.write(buffer, 0, bytesRead);
+
+    /**
+     * 可以用 TCP 连接探测的代理的本地地址；UDP 代理和使用插件（没有本地端口）的代理不探测
+     */
+    private static Map<String, InetSocketAddress> buildProbeTargets(FrpcConfig config) {
+        Map<String, InetSocketAddress> targets = new LinkedHashMap<>();
+        for (FrpcConfig.Proxy proxy : config.proxies) {
+            if (proxy.name == null || proxy.localPort == null
+                    || "udp".equals(proxy.type) || "sudp".equals(proxy.type)) {
+                continue;
             }
-            Log.d(TAG, "File copied from " + sourcePath + " to " + targetPath);
+            String host = proxy.localIP != null ? proxy.localIP : "127.0.0.1";
+            targets.put(config.getProxyName(proxy), new InetSocketAddress(host, proxy.localPort));
         }
+        return targets;
     }
-    
+
+    /**
+     * 就绪后开始周期探测本地服务，探测的是完整配置中的全部代理，包括暂不启用的
+     */
+    private void watchTargets(FrpcInstance instance) {
+        FrpcConfig config = instance.getFullConfig();
+        if (config == null) {
+            return;
+        }
+        try {
+            targetProber.watch(instance.getId(), buildProbeTargets(config));
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to watch local targets", e);
+        }
+    }
+
+    private void stopWatchingTargets(FrpcInstance instance) {
+        targetProber.unwatch(instance.getId());
+        instance.setTargetStatuses(Collections.<TargetProber.Result>emptyList());
+        instance.setHeldProxies(Collections.<String>emptySet());
+    }
+
+    /**
+     * 本地服务可用性变化，在探测线程中调用
+     */
+    private void onTargetsChanged(String owner) {
+        FrpcInstance instance = supervisor.get(owner);
+        if (instance == null) {
+            return;
+        }
+        instance.setTargetStatuses(targetProber.getResults(owner));
+        mainHandler.post(notifyStatusListeners);
+        // 只有默认实例有管理接口，可以在运行中增删代理
+        if (instance.isDefault() && (FrpcSettings.get(this).holdUntilTarget
+                || !instance.getHeldProxies().isEmpty())) {
+            new Thread(() -> applyHeldProxies(instance), "frpc-hold-" + owner).start();
+        }
+    }
+
+    /**
+     * 按最新探测结果暂停或恢复代理：去掉本地服务不可用的代理后写入配置，再让frpc重新加载
+     */
+    private synchronized void applyHeldProxies(FrpcInstance instance) {
+        FrpcConfig fullConfig = instance.getFullConfig();
+        if (fullConfig == null || !instance.isRunning()) {
+            return;
+        }
+        Set<String> held = new TreeSet<>();
+        // 关闭该设置后恢复全部代理
+        if (FrpcSettings.get(this).holdUntilTarget) {
+            for (TargetProber.Result result : instance.getTargetStatuses()) {
+                if (!result.reachable) {
+                    held.add(result.name);
+                }
+            }
+        }
+        Set<String> previous = instance.getHeldProxies();
+        if (held.equals(previous)) {
+            return;
+        }
+        try {
+            writeConfigIfChanged(instance, fullConfig.withoutProxies(held).render());
+            new AdminApiClient(ADMIN_HOST, adminPort, ADMIN_USER, adminPassword).reload();
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to apply held proxies", e);
+            sendOutput(instance, "[更新代理失败: " + e.getMessage() + "]");
+            return;
+        }
+        for (String name : held) {
+            if (!previous.contains(name)) {
+                sendOutput(instance, "[本地服务不可用，暂停代理 " + name + "]");
+            }
+        }
+        for (String name : previous) {
+            if (!held.contains(name)) {
+                sendOutput(instance, "[本地服务已恢复，启用代理 " + name + "]");
+            }
+        }
+        instance.setHeldProxies(held);
+        StatusPoller poller = instance.getStatusPoller();
+        if (poller != null) {
+            poller.poke();
+        }
+    }
+
+    /**
+     * 内容哈希与上次写入相同且文件未被改动时跳过写入，否则写临时文件后重命名
+     *
+     * @return 是否写入了文件
+     */
+    private boolean writeConfigIfChanged(FrpcInstance instance, String configText) throws IOException {
+        byte[] content = configText.getBytes(StandardCharsets.UTF_8);
+        String hash = FrpcConfig.sha256(content);
+        File file = new File(instance.getConfigPath());
+        if (instance.isConfigCurrent(hash, file.length(), file.lastModified())) {
+            Log.d(TAG, "Toml config unchanged, skip writing");
+            return false;
+        }
+        FrpcConfig.writeAtomically(file, content);
+        instance.setConfigWritten(hash, file.length(), file.lastModified());
+        Log.d(TAG, "Toml config written: " + file);
+        return true;
+    }
+
     private long getProcessId(Process process) {
         try {
             // 使用反射获取进程ID（兼容所有Android版本）
@@ -600,32 +1350,20 @@ public class FrpcService extends Service {
         return sb.toString().trim();
     }
     
-    /**
-     * 清理 ANSI 转义码（颜色代码等）
-     */
-    private String removeAnsiCodes(String text) {
-        if (text == null) {
-            return "";
-        }
-        // 移除 ANSI 转义序列，格式如 [0m, [1;33m, [1;34m 等
-        return text.replaceAll("\u001B\\[[0-9;]*[mK]", "");
-    }
-    
     /**
      * 分析错误信息并提供友好的提示
      */
-    private String analyzeError(String errorText, int exitCode) {
-        if (errorText == null || errorText.isEmpty()) {
+    private String analyzeError(ErrorClassifier classifier, int exitCode) {
+        if (!classifier.hasOutput()) {
             return "进程异常退出，退出码: " + exitCode;
         }
         
         StringBuilder analysis = new StringBuilder();
-        String lowerError = errorText.toLowerCase();
-        
-        // 按优先级检查错误，只显示最相关的错误类型
+        // 错误类型已按优先级在输出过程中增量判断，只显示最相关的错误类型
+        ErrorClassifier.Category category = classifier.classify();
         
-        // 1. 检查连接超时错误（最高优先级）
-        if (lowerError.contains("i/o timeout") || (lowerError.contains("dial tcp") && lowerError.contains("timeout"))) {
+        // 1. 连接超时错误（最高优先级）
+        if (category == ErrorClassifier.Category.TIMEOUT) {
             analysis.append("❌ 连接服务器超时\n");
             analysis.append("\n错误详情：\n");
             analysis.append("无法连接到服务器，连接请求超时。\n");
@@ -645,8 +1383,8 @@ public class FrpcService extends Service {
             return analysis.toString(); // 连接超时是主要原因，直接返回
         }
         
-        // 2. 检查连接拒绝错误
-        if (lowerError.contains("connection refused") || lowerError.contains("refused")) {
+        // 2. 连接拒绝错误
+        if (category == ErrorClassifier.Category.REFUSED) {
             analysis.append("❌ 连接被拒绝\n");
             analysis.append("\n错误详情：\n");
             analysis.append("服务器拒绝了连接请求。\n");
@@ -661,8 +1399,8 @@ public class FrpcService extends Service {
             return analysis.toString();
         }
         
-        // 3. 检查 DNS 解析错误
-        if (lowerError.contains("no such host") || (lowerError.contains("dns") && lowerError.contains("error"))) {
+        // 3. DNS 解析错误
+        if (category == ErrorClassifier.Category.DNS) {
             analysis.append("❌ DNS 解析失败\n");
             analysis.append("\n错误详情：\n");
             analysis.append("无法解析服务器地址（域名）。\n");
@@ -677,9 +1415,8 @@ public class FrpcService extends Service {
             return analysis.toString();
         }
         
-        // 4. 检查登录失败错误（只有在没有连接问题的情况下才显示）
-        if (lowerError.contains("login") && lowerError.contains("fail") && 
-            !lowerError.contains("timeout") && !lowerError.contains("refused")) {
+        // 4. 登录失败错误（只有在没有连接问题的情况下才会被判定）
+        if (category == ErrorClassifier.Category.LOGIN) {
             analysis.append("❌ 登录服务器失败\n");
             analysis.append("\n错误详情：\n");
             analysis.append("已连接到服务器，但认证失败。\n");
@@ -694,9 +1431,8 @@ public class FrpcService extends Service {
             return analysis.toString();
         }
         
-        // 5. 检查配置文件错误（更精确的匹配）
-        if ((lowerError.contains("config") && (lowerError.contains("error") || lowerError.contains("invalid"))) ||
-            (lowerError.contains("toml") && (lowerError.contains("error") || lowerError.contains("parse")))) {
+        // 5. 配置文件错误
+        if (category == ErrorClassifier.Category.CONFIG) {
             analysis.append("❌ 配置文件错误\n");
             analysis.append("\n错误详情：\n");
             analysis.append("配置文件格式错误或无法读取。\n");
@@ -718,136 +1454,122 @@ public class FrpcService extends Service {
         analysis.append("- 查看上方的详细错误信息\n");
         analysis.append("- 检查配置是否正确\n");
         analysis.append("- 确认网络连接正常\n");
+        List<LogRecord> recentLines = classifier.getRecentLines();
+        if (!recentLines.isEmpty()) {
+            analysis.append("\n最近输出：\n");
+            for (LogRecord record : recentLines) {
+                analysis.append(record.line).append("\n");
+            }
+        }
         
         return analysis.toString();
     }
     
     /**
-     * 转义 shell 命令中的特殊字符
-     * 将命令用单引号包裹，并转义其中的单引号
+     * 在 frpc-stop 线程中依次停止实例，不阻塞主线程
+     *
+     * @param onStopped 全部停止后在主线程执行，为 null 时改为关闭 root shell（服务销毁时）
      */
-    private String escapeForShell(String command) {
-        // 将单引号转义为 '\'' (结束引号 + 转义的单引号 + 开始引号)
-        return "'" + command.replace("'", "'\\''") + "'";
-    }
-    
-    private boolean isProcessAlive(Process process) {
-        try {
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-                // API 26+ 使用 isAlive() 方法
-                return process.isAlive();
+    private void stopInBackground(List<FrpcInstance> instances, Runnable onStopped) {
+        List<FrpcInstance> targets = new ArrayList<>(instances);
+        // 先在调用线程中转为 STOPPING，界面立即显示正在停止，迟到的就绪和自动重启都会被拒绝
+        for (FrpcInstance instance : targets) {
+            beginStop(instance);
+        }
+        new Thread(() -> {
+            for (FrpcInstance instance : targets) {
+                stopFrpc(instance);
+            }
+            if (onStopped != null) {
+                mainHandler.post(onStopped);
             } else {
-                // API 26以下，尝试获取退出值来判断
-                try {
-                    process.exitValue();
-                    // 如果能获取退出值，说明进程已结束
-                    return false;
-                } catch (IllegalThreadStateException e) {
-                    // 如果抛出异常，说明进程还在运行
-                    return true;
-                }
+                RootShell.getInstance().close();
+            }
+        }, "frpc-stop").start();
+    }
+
+    /**
+     * @return 是否有实例正在运行、启动或停止
+     */
+    private static boolean isAnyActive() {
+        for (FrpcInstance instance : supervisor.getInstances()) {
+            if (!instance.getState().phase.isInactive()) {
+                return true;
             }
-        } catch (Exception e) {
-            Log.w(TAG, "Failed to check if process is alive", e);
-            // 默认假设进程还在运行
-            return true;
         }
+        return false;
     }
 
-    private String generateRandomName() {
-        long timestamp = System.currentTimeMillis();
-        int pid = android.os.Process.myPid();
-        long combined = timestamp + pid * 1000L;
-        int randomNum = (int) (combined % 100000000);
-        return String.format(java.util.Locale.US, "frpc-%08d", randomNum);
+    /**
+     * 停止的非阻塞部分：转为 STOPPING 并停止自动重启、轮询和探测，可以在任意线程调用
+     */
+    private void beginStop(FrpcInstance instance) {
+        ServiceStateMachine machine = instance.getStateMachine();
+        // 先转为 STOPPING，之后启动线程和输出线程的状态更新都会被拒绝
+        machine.update(current -> current.phase == ServiceState.Phase.IDLE ? current
+                : current.withPhase(ServiceState.Phase.STOPPING));
+        instance.setStopRequested(true);
+        cancelPendingRestart(instance);
+        instance.setWaitingForNetwork(false);
+        stopStatusPoller(instance);
+        stopWatchingTargets(instance);
     }
 
-    private int generateRandomPort() {
-        // 从设置中获取端口范围
-        int minPort = SettingsActivity.getRandomPortMin(this);
-        int maxPort = SettingsActivity.getRandomPortMax(this);
-        
-        // 确保范围有效
-        if (minPort >= maxPort) {
-            Log.w(TAG, "Invalid port range, using defaults");
-            minPort = ConfigConstants.DEFAULT_RANDOM_PORT_MIN;
-            maxPort = ConfigConstants.DEFAULT_RANDOM_PORT_MAX;
-        }
-        
-        int portRange = maxPort - minPort + 1;
-        long timestamp = System.currentTimeMillis();
-        int pid = android.os.Process.myPid();
-        long combined = timestamp + pid * 1000L;
-        int offset = (int) (combined % portRange);
-        if (offset < 0) {
-            offset += portRange;
+    /**
+     * 停止实例并确认frpc已退出，会阻塞到进程结束或超过期限，需在后台线程调用
+     */
+    private void stopFrpc(FrpcInstance instance) {
+        beginStop(instance);
+        Process process = instance.getProcess();
+        int pid = instance.getFrpcPid();
+        // 先清空，进程退出回调不再把这次停止当作意外退出
+        instance.setProcess(null);
+        instance.setFrpcPid(-1);
+        if (process != null || pid > 0) {
+            killFrpc(instance, process, pid);
         }
-        return minPort + offset;
+        instance.getStateMachine().transition(ServiceState.Phase.STOPPING, ServiceState.Phase.IDLE);
+        Log.d(TAG, "Frpc stopped: " + instance.getId());
     }
 
-    private void modifyTomlFile(String tomlPath, String serverAddr, int serverPort, String authToken, 
-                                 int localPort, String name, int remotePort) throws IOException {
-        File file = new File(tomlPath);
-        StringBuilder content = new StringBuilder();
-        
-        // 注意：使用 FileInputStream 而不是 Files.newInputStream() 以兼容 API 21+
-        @SuppressWarnings({"IOResource", "resource"})  // 使用 FileInputStream 以兼容 API 21+，Files.newInputStream() 需要 API 26+
-        FileInputStream fileInputStream = new FileInputStream(file);
-        try (BufferedReader reader = new BufferedReader(
-                new InputStreamReader(fileInputStream))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                String trimmedLine = line.trim();
-                // 更新服务器地址
-                if (trimmedLine.startsWith("serverAddr = ")) {
-                    content.append("serverAddr = \"").append(serverAddr).append("\"\n");
-                }
-                // 更新服务器端口
-                else if (trimmedLine.startsWith("serverPort = ")) {
-                    content.append("serverPort = ").append(serverPort).append("\n");
-                }
-                // 更新认证令牌
-                else if (trimmedLine.startsWith("auth.token = ")) {
-                    content.append("auth.token = \"").append(authToken).append("\"\n");
-                }
-                // 更新代理名称
-                else if (trimmedLine.startsWith("name = ")) {
-                    content.append("name = \"").append(name).append("\"\n");
-                }
-                // 更新本地端口
-                else if (trimmedLine.startsWith("localPort = ")) {
-                    content.append("localPort = ").append(localPort).append("\n");
-                }
-                // 更新远程端口
-                else if (trimmedLine.startsWith("remotePort = ")) {
-                    content.append("remotePort = ").append(remotePort).append("\n");
-                }
-                // 保持其他行不变
-                else {
-                    content.append(line).append("\n");
+    /**
+     * 通过 root 结束frpc所在的进程组并确认退出，最后结束本应用的 su 包装进程
+     *
+     * @param pid 就绪时查到的frpc进程号，就绪前为 -1，此时按可执行文件和配置路径查找
+     */
+    private static void killFrpc(FrpcInstance instance, Process process, int pid) {
+        List<Integer> pids = new ArrayList<>();
+        if (pid > 0) {
+            pids.add(pid);
+        } else if (instance.getBinaryPath() != null) {
+            long deadline = SystemClock.elapsedRealtime() + STOP_GRACE_MS;
+            while (true) {
+                pids.addAll(reaper.find(instance.getBinaryPath(), instance.getConfigPath()));
+                // 刚启动时 su 可能还没有执行frpc，包装进程仍在运行就稍后再找
+                if (!pids.isEmpty() || process == null || SystemClock.elapsedRealtime() >= deadline
+                        || ProcessReaper.waitFor(process, 200)) {
+                    break;
                 }
             }
         }
-        
-        try (FileOutputStream fos = new FileOutputStream(file)) {
-            fos.write(content.toString().getBytes());
+        for (int frpcPid : pids) {
+            if (!reaper.terminate(frpcPid, STOP_GRACE_MS)) {
+                Log.e(TAG, "frpc " + frpcPid + " did not exit: " + instance.getId());
+            }
+        }
+        if (process != null) {
+            process.destroy();
+            if (!ProcessReaper.waitFor(process, WRAPPER_EXIT_MS)) {
+                Log.w(TAG, "su wrapper did not exit: " + instance.getId());
+            }
         }
-        Log.d(TAG, "Toml file modified with user settings");
     }
 
-    private void stopFrpc() {
-        if (frpcProcess != null) {
-            frpcProcess.destroy();
-            try {
-                frpcProcess.waitFor();
-            } catch (InterruptedException e) {
-                Log.e(TAG, "Error waiting for process", e);
-            }
-            frpcProcess = null;
+    private void updateNotification(String text) {
+        NotificationManager manager = (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
+        if (manager != null) {
+            manager.notify(NOTIFICATION_ID, createNotification(text));
         }
-        isRunning = false;
-        stopForeground(true);
-        Log.d(TAG, "Frpc stopped");
     }
 
     @RequiresApi(api = Build.VERSION_CODES.UPSIDE_DOWN_CAKE)
@@ -856,6 +1578,10 @@ public class FrpcService extends Service {
     }
 
     private Notification createNotification() {
+        return createNotification("frpc服务正在后台运行");
+    }
+
+    private Notification createNotification(String text) {
         Intent notificationIntent = new Intent(this, MainActivity.class);
         PendingIntent pendingIntent = PendingIntent.getActivity(
                 this, 0, notificationIntent,
@@ -863,7 +1589,7 @@ public class FrpcService extends Service {
 
         return new NotificationCompat.Builder(this, CHANNEL_ID)
                 .setContentTitle("Frpc运行中")
-                .setContentText("frpc服务正在后台运行")
+                .setContentText(text)
                 .setSmallIcon(android.R.drawable.ic_dialog_info)
                 .setContentIntent(pendingIntent)
                 .setOngoing(true)
@@ -872,65 +1598,292 @@ public class FrpcService extends Service {
 
     @Override
     public void onDestroy() {
-        stopFrpc();
+        networkMonitor.stop();
+        stopForeground(true);
+        // 不在主线程等待进程退出，全部结束后再关闭 root shell
+        stopInBackground(supervisor.getInstances(), null);
         super.onDestroy();
     }
 
+    /**
+     * 设置界面只需要判断是否运行，不必绑定服务
+     */
     public static boolean isRunning() {
-        return isRunning;
+        return supervisor.isAnyRunning();
     }
 
-    public static String getLastInfo() {
-        return lastInfo;
+    private static void dispatchState(ServiceState state) {
+        for (StateListener listener : stateListeners) {
+            listener.onStateChanged(state);
+        }
     }
 
-    public static String getLastError() {
-        return lastError;
+    /**
+     * 通过 Intent 把启动或停止命令交给 onStartCommand，服务因此成为已启动状态，
+     * 界面解除绑定后frpc继续运行
+     */
+    private void sendCommand(String action, String instanceId) {
+        Intent intent = new Intent(this, FrpcService.class);
+        intent.setAction(action);
+        if (instanceId != null) {
+            intent.putExtra(EXTRA_INSTANCE_ID, instanceId);
+        }
+        if (ACTION_START.equals(action) && Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            startForegroundService(intent);
+        } else {
+            startService(intent);
+        }
     }
 
-    public static void clearError() {
-        lastError = null;
-    }
-    
-    public static String getServerAddress() {
-        android.content.Context ctx = getAppContext();
-        if (ctx == null) {
-            // 如果 Context 还未初始化，返回默认值
-            return ConfigConstants.DEFAULT_SERVER_ADDR + ":" + ConfigConstants.DEFAULT_SERVER_PORT;
+    /**
+     * 同一进程内的绑定接口
+     * 界面通过 bindService 拿到该对象，控制、状态快照、日志和指标都从这里读取，
+     * 调用直接在调用方线程执行，没有跨进程开销。监听器需在主线程注册，回调也在主线程
+     */
+    public class LocalBinder extends Binder {
+
+        /**
+         * 启动全部实例
+         */
+        public void start() {
+            sendCommand(ACTION_START, null);
         }
-        String serverAddr = SettingsActivity.getServerAddr(ctx);
-        int serverPort = SettingsActivity.getServerPort(ctx);
-        return serverAddr + ":" + serverPort;
-    }
-    
-    public static int getRemotePort() {
-        return remotePort;
-    }
-    
-    public static String getConnectionInfo() {
-        android.content.Context ctx = getAppContext();
-        if (ctx == null) {
-            // 如果 Context 还未初始化，返回默认值
-            return ConfigConstants.DEFAULT_SERVER_ADDR + ":" + ConfigConstants.DEFAULT_SERVER_PORT;
+
+        public void start(String instanceId) {
+            sendCommand(ACTION_START, instanceId);
         }
-        String serverAddr = SettingsActivity.getServerAddr(ctx);
-        if (remotePort > 0) {
-            return serverAddr + ":" + remotePort;
+
+        /**
+         * 停止全部实例，服务随后退出已启动状态，仍有绑定时保持创建直到解除绑定
+         */
+        public void stop() {
+            sendCommand(ACTION_STOP, null);
         }
-        int serverPort = SettingsActivity.getServerPort(ctx);
-        return serverAddr + ":" + serverPort;
-    }
-    
-    private static android.content.Context getAppContext() {
-        // 需要一个静态方法来获取Context
-        // 这里使用一个静态变量来保存Context
-        if (appContext == null) {
-            // 如果还未初始化，尝试从其他地方获取（这种情况不应该发生）
-            Log.w(TAG, "appContext is null, Service may not be initialized");
+
+        public void stop(String instanceId) {
+            sendCommand(ACTION_STOP, instanceId);
+        }
+
+        public boolean isRunning() {
+            return supervisor.isAnyRunning();
+        }
+
+        /**
+         * @return 默认实例当前的状态快照
+         */
+        public ServiceState getState() {
+            return getState(FrpcInstance.DEFAULT_ID);
+        }
+
+        /**
+         * @return 实例当前的状态快照，实例不存在时为初始的 IDLE 状态
+         */
+        public ServiceState getState(String instanceId) {
+            FrpcInstance instance = supervisor.get(instanceId);
+            return instance != null ? instance.getState() : ServiceState.initial(instanceId);
+        }
+
+        /**
+         * @return 所有实例当前的状态快照
+         */
+        public List<ServiceState> getStates() {
+            List<ServiceState> states = new ArrayList<>();
+            for (FrpcInstance instance : supervisor.getInstances()) {
+                states.add(instance.getState());
+            }
+            return states;
+        }
+
+        /**
+         * 确认已向用户展示的错误，之后的快照不再带有该错误
+         */
+        public void clearError(String instanceId) {
+            FrpcInstance instance = supervisor.get(instanceId);
+            if (instance != null) {
+                instance.getStateMachine().update(current -> current.error == null ? current : current.withError(null));
+            }
+        }
+
+        public int getInstanceCount() {
+            return supervisor.getInstanceCount();
+        }
+
+        public String getInstanceSummary() {
+            return supervisor.getAggregateSummary();
+        }
+
+        /**
+         * @return 默认实例各代理的状态，来自frpc管理接口
+         */
+        public List<ProxyStatus> getProxyStatuses() {
+            FrpcInstance instance = supervisor.getDefault();
+            return instance != null ? instance.getProxyStatuses() : new ArrayList<ProxyStatus>();
+        }
+
+        /**
+         * @return 默认实例各代理最近一条警告或错误日志，代理名称来自日志解析结果
+         */
+        public Map<String, LogRecord> getProxyProblems() {
+            FrpcInstance instance = supervisor.getDefault();
+            return instance != null ? instance.getProxyProblems() : Collections.<String, LogRecord>emptyMap();
+        }
+
+        /**
+         * @return 默认实例各代理本地服务的最近探测结果
+         */
+        public List<TargetProber.Result> getTargetStatuses() {
+            FrpcInstance instance = supervisor.getDefault();
+            return instance != null ? instance.getTargetStatuses() : new ArrayList<TargetProber.Result>();
+        }
+
+        /**
+         * @return 实例最近一次启动的耗时记录，没有启动过时返回 null
+         */
+        public StartupMetrics getLastStartupMetrics(String instanceId) {
+            FrpcInstance instance = supervisor.get(instanceId);
+            return instance != null ? instance.getLastStartupMetrics() : null;
+        }
+
+        /**
+         * @return 所有实例最近几次启动的耗时记录，按时间顺序排列
+         */
+        public List<StartupMetrics> getStartupHistory() {
+            synchronized (startupHistory) {
+                return new ArrayList<>(startupHistory);
+            }
+        }
+
+        /**
+         * @return 实例最近的退出和自动重启记录，实例不存在时返回空列表
+         */
+        public List<RestartPolicy.Record> getRestartHistory(String instanceId) {
+            FrpcInstance instance = supervisor.get(instanceId);
+            return instance != null ? instance.getRestartPolicy().getHistory() : new ArrayList<>();
+        }
+
+        public TrafficSampler getTrafficSampler() {
+            return trafficSampler;
+        }
+
+        /**
+         * @return 日志队列满时丢弃的行数
+         */
+        public long getDroppedLogCount() {
+            return logDispatcher.getDroppedCount();
+        }
+
+        /**
+         * 后台搜索和导出直接按块读取日志缓冲区
+         */
+        public LogStore getLogStore() {
+            return logStore;
+        }
+
+        /**
+         * 分页读取已保存的日志，每页只持锁一小段时间
+         *
+         * @param fromSeq  起始序号，对应的行已被覆盖时从最早保留的行开始
+         * @param maxLines 本页最多读取的行数
+         * @return 下一页的起始序号，不大于 fromSeq 时表示已读到最新
+         */
+        public long readLog(long fromSeq, int maxLines, List<LogRecord> out) {
+            return logStore.copyMatching(fromSeq, Long.MAX_VALUE, maxLines, ALL_LEVELS, out);
+        }
+
+        /**
+         * @return 下一行日志将使用的序号
+         */
+        public long getLogEnd() {
+            return logStore.getNextSeq();
+        }
+
+        public void clearLog() {
+            logStore.clear();
+        }
+
+        /**
+         * 按时间范围读取持久化日志，可以跨越进程重启，在后台线程调用
+         *
+         * @return 持久化日志不可用时返回 false
+         */
+        public boolean readLogHistory(long fromMillis, long toMillis, LogJournal.Visitor visitor) {
+            LogJournal journal;
+            // 持久化日志可能还在后台打开，等待打开完成
+            synchronized (journalLock) {
+                while (journalOpening) {
+                    try {
+                        journalLock.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return false;
+                    }
+                }
+                journal = logJournal;
+            }
+            if (journal == null) {
+                return false;
+            }
+            journal.read(fromMillis, toMillis, visitor);
+            return true;
+        }
+
+        /**
+         * 注册状态监听器并立即在当前线程收到各实例的当前快照
+         */
+        public void addStateListener(StateListener listener) {
+            stateListeners.add(listener);
+            for (FrpcInstance instance : supervisor.getInstances()) {
+                listener.onStateChanged(instance.getState());
+            }
+        }
+
+        public void removeStateListener(StateListener listener) {
+            stateListeners.remove(listener);
+        }
+
+        /**
+         * 注册后立即触发一次轮询，界面打开时能尽快拿到最新状态
+         */
+        public void addStatusListener(StatusListener listener) {
+            statusListeners.add(listener);
+            FrpcInstance instance = supervisor.getDefault();
+            StatusPoller poller = instance != null ? instance.getStatusPoller() : null;
+            if (poller != null) {
+                poller.poke();
+            }
+        }
+
+        public void removeStatusListener(StatusListener listener) {
+            statusListeners.remove(listener);
+        }
+
+        /**
+         * 注册流量监听器，第一个监听器注册时开始采样
+         */
+        public void addTrafficListener(TrafficListener listener) {
+            if (trafficListeners.add(listener)) {
+                trafficSampler.acquire();
+            }
+        }
+
+        /**
+         * 移除流量监听器，最后一个监听器移除后停止采样
+         */
+        public void removeTrafficListener(TrafficListener listener) {
+            if (trafficListeners.remove(listener)) {
+                trafficSampler.release();
+            }
+        }
+
+        /**
+         * 注册进程内日志监听器，每个批次写入 LogStore 后回调一次
+         */
+        public void addLogListener(LogListener listener) {
+            logListeners.add(listener);
+        }
+
+        public void removeLogListener(LogListener listener) {
+            logListeners.remove(listener);
         }
-        return appContext;
     }
-    
-    private static android.content.Context appContext;
 }
-
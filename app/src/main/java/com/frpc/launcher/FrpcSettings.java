@@ -0,0 +1,87 @@
+package com.frpc.launcher;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 设置的不可变快照
+ * 首次使用时从 SharedPreferences 加载一次，之后设置变化时由监听器整体替换；
+ * 读取方拿到的始终是一组一致的值，不再每次调用都查询 SharedPreferences
+ */
+public final class FrpcSettings {
+    private static final String TAG = "FrpcSettings";
+
+    static final String PREFS_NAME = "frpc_settings";
+    static final String KEY_SERVER_ADDR = "server_addr";
+    static final String KEY_SERVER_PORT = "server_port";
+    static final String KEY_AUTH_TOKEN = "auth_token";
+    static final String KEY_LOCAL_PORT = "local_port";
+    static final String KEY_RANDOM_PORT_MIN = "random_port_min";
+    static final String KEY_RANDOM_PORT_MAX = "random_port_max";
+    static final String KEY_READY_TIMEOUT = "ready_timeout";
+    static final String KEY_HOLD_UNTIL_TARGET = "hold_until_target";
+
+    private static final AtomicReference<FrpcSettings> current = new AtomicReference<>();
+    // SharedPreferences 只弱引用监听器，必须由这里持有
+    private static SharedPreferences.OnSharedPreferenceChangeListener listener;
+
+    public final String serverAddr;
+    public final int serverPort;
+    // 用户填写的令牌，可能为空
+    public final String authToken;
+    public final int localPort;
+    public final int randomPortMin;
+    public final int randomPortMax;
+    public final int readyTimeoutSeconds;
+    // 本地服务无法连接时暂不启用对应代理，直到本地服务可用
+    public final boolean holdUntilTarget;
+
+    private FrpcSettings(SharedPreferences prefs) {
+        serverAddr = prefs.getString(KEY_SERVER_ADDR, ConfigConstants.DEFAULT_SERVER_ADDR);
+        serverPort = prefs.getInt(KEY_SERVER_PORT, ConfigConstants.DEFAULT_SERVER_PORT);
+        authToken = prefs.getString(KEY_AUTH_TOKEN, "");
+        localPort = prefs.getInt(KEY_LOCAL_PORT, ConfigConstants.DEFAULT_LOCAL_PORT);
+        randomPortMin = prefs.getInt(KEY_RANDOM_PORT_MIN, ConfigConstants.DEFAULT_RANDOM_PORT_MIN);
+        randomPortMax = prefs.getInt(KEY_RANDOM_PORT_MAX, ConfigConstants.DEFAULT_RANDOM_PORT_MAX);
+        readyTimeoutSeconds = prefs.getInt(KEY_READY_TIMEOUT, ConfigConstants.DEFAULT_READY_TIMEOUT_SECONDS);
+        holdUntilTarget = prefs.getBoolean(KEY_HOLD_UNTIL_TARGET, false);
+    }
+
+    /**
+     * 当前设置快照，可在任意线程调用
+     */
+    public static FrpcSettings get(Context context) {
+        FrpcSettings settings = current.get();
+        if (settings != null) {
+            return settings;
+        }
+        synchronized (FrpcSettings.class) {
+            settings = current.get();
+            if (settings == null) {
+                SharedPreferences prefs = context.getApplicationContext()
+                        .getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+                listener = (changed, key) -> {
+                    current.set(new FrpcSettings(changed));
+                    Log.d(TAG, "Settings reloaded: " + key);
+                };
+                prefs.registerOnSharedPreferenceChangeListener(listener);
+                settings = new FrpcSettings(prefs);
+                current.set(settings);
+            }
+            return settings;
+        }
+    }
+
+    /**
+     * 实际使用的认证令牌，未填写时使用默认值
+     */
+    public String getEffectiveAuthToken() {
+        if (authToken == null || authToken.trim().isEmpty()) {
+            return ConfigConstants.DEFAULT_AUTH_TOKEN;
+        }
+        return authToken;
+    }
+}
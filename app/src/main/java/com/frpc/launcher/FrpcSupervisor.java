@@ -0,0 +1,123 @@
+package com.frpc.launcher;
+
+import android.os.Handler;
+import android.util.Log;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * frpc 实例管理器
+ * 维护所有实例的注册表并汇总运行状态，启动和停止由 FrpcService 按实例执行
+ */
+public class FrpcSupervisor {
+    private static final String TAG = "FrpcSupervisor";
+    private static final String CONFIG_SUFFIX = ".toml";
+    // 实例 ID 会出现在路径、线程名和 root 命令中，只接受字母、数字、下划线和连字符
+    private static final Pattern ID_PATTERN = Pattern.compile("[A-Za-z0-9_-]+");
+
+    private final Map<String, FrpcInstance> instances = new LinkedHashMap<>();
+    private final Handler handler;
+    private final ServiceStateMachine.Listener stateListener;
+
+    /**
+     * @param stateListener 任一实例状态变化时在 handler 线程回调
+     */
+    public FrpcSupervisor(Handler handler, ServiceStateMachine.Listener stateListener) {
+        this.handler = handler;
+        this.stateListener = stateListener;
+    }
+
+    public synchronized FrpcInstance getOrCreate(String id, String configPath) {
+        FrpcInstance instance = instances.get(id);
+        if (instance == null) {
+            instance = new FrpcInstance(id, configPath, handler, stateListener);
+            instances.put(id, instance);
+            Log.d(TAG, "Registered instance " + id + ": " + configPath);
+        }
+        return instance;
+    }
+
+    public synchronized FrpcInstance get(String id) {
+        return instances.get(id);
+    }
+
+    public synchronized FrpcInstance getDefault() {
+        return instances.get(FrpcInstance.DEFAULT_ID);
+    }
+
+    public synchronized List<FrpcInstance> getInstances() {
+        return new ArrayList<>(instances.values());
+    }
+
+    /**
+     * 扫描目录中的 *.toml 文件，每个文件注册为一个实例，文件名即实例 ID
+     *
+     * @return 新注册的实例数量
+     */
+    public synchronized int discover(File dir) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return 0;
+        }
+        int added = 0;
+        for (File file : files) {
+            String name = file.getName();
+            if (!file.isFile() || !name.endsWith(CONFIG_SUFFIX)) {
+                continue;
+            }
+            String id = name.substring(0, name.length() - CONFIG_SUFFIX.length());
+            if (!ID_PATTERN.matcher(id).matches()) {
+                Log.w(TAG, "Ignoring config with invalid instance id: " + name);
+                continue;
+            }
+            if (FrpcInstance.DEFAULT_ID.equals(id) || instances.containsKey(id)) {
+                continue;
+            }
+            getOrCreate(id, file.getAbsolutePath());
+            added++;
+        }
+        return added;
+    }
+
+    public synchronized int getInstanceCount() {
+        return instances.size();
+    }
+
+    public synchronized int getRunningCount() {
+        int count = 0;
+        for (FrpcInstance instance : instances.values()) {
+            if (instance.isRunning()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public boolean isAnyRunning() {
+        return getRunningCount() > 0;
+    }
+
+    /**
+     * 汇总状态，例如 "运行实例: 2/3 (default, office)"
+     */
+    public synchronized String getAggregateSummary() {
+        StringBuilder running = new StringBuilder();
+        int count = 0;
+        for (FrpcInstance instance : instances.values()) {
+            if (instance.isRunning()) {
+                if (count > 0) {
+                    running.append(", ");
+                }
+                running.append(instance.getId());
+                count++;
+            }
+        }
+        String summary = "运行实例: " + count + "/" + instances.size();
+        return count > 0 ? summary + " (" + running + ")" : summary;
+    }
+}
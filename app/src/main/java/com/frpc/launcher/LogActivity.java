@@ -1,31 +1,127 @@
 package com.frpc.launcher;
 
-import android.annotation.SuppressLint;
-import android.content.BroadcastReceiver;
-import android.content.ClipData;
-import android.content.ClipboardManager;
+import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
-import android.content.IntentFilter;
-import android.os.Build;
+import android.content.ServiceConnection;
+import android.net.Uri;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.Looper;
+import android.text.Editable;
+import android.text.TextWatcher;
 import android.view.MenuItem;
 import android.view.View;
+import android.widget.AdapterView;
+import android.widget.ArrayAdapter;
 import android.widget.Button;
-import android.widget.ScrollView;
+import android.widget.EditText;
+import android.widget.ProgressBar;
+import android.widget.Spinner;
 import android.widget.TextView;
 import android.widget.Toast;
 
+import androidx.activity.result.ActivityResultLauncher;
+import androidx.activity.result.contract.ActivityResultContracts;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.appcompat.widget.Toolbar;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
 
 public class LogActivity extends AppCompatActivity {
-    private TextView tvLog;
-    private ScrollView scrollView;
+    // 每次从服务分页读取的行数，首次连接时已保存的日志分多页读取
+    private static final int PAGE_SIZE = 500;
+    // 每次从持久化日志加载的最多行数，以及依次扩大的查找时间范围
+    private static final int HISTORY_PAGE = 1000;
+    private static final long[] HISTORY_WINDOWS_MS = {
+            60 * 60 * 1000L, 24 * 60 * 60 * 1000L, 3 * 24 * 60 * 60 * 1000L};
+    private static final String[] LEVEL_OPTIONS = {"全部级别", "信息及以上", "警告及以上", "仅错误"};
+    // 与 LEVEL_OPTIONS 一一对应；本应用自己输出的提示没有级别，只在"全部级别"中显示
+    @SuppressWarnings("unchecked")
+    private static final Set<LogRecord.Level>[] LEVEL_FILTERS = new Set[]{
+            EnumSet.allOf(LogRecord.Level.class),
+            EnumSet.of(LogRecord.Level.INFO, LogRecord.Level.WARN, LogRecord.Level.ERROR),
+            EnumSet.of(LogRecord.Level.WARN, LogRecord.Level.ERROR),
+            EnumSet.of(LogRecord.Level.ERROR),
+    };
+
+    private RecyclerView rvLog;
+    private TextView tvEmpty;
     private Button btnClear;
-    private Button btnCopy;
-    private BroadcastReceiver outputReceiver;
-    private StringBuilder logBuffer = new StringBuilder();
+    private Button btnExport;
+    private Button btnHistory;
+    private ProgressBar progressExport;
+    private EditText etSearch;
+    private Spinner spLevel;
+    private TextView tvSearchStatus;
+    private final FrpcService.LogListener logListener = this::pullNewLines;
+    // 绑定成功后才有值，搜索、导出和清空都要等绑定后才可用
+    private FrpcService.LocalBinder service;
+    private boolean bound;
+    private LogAdapter logAdapter;
+    private LinearLayoutManager layoutManager;
+    // 已从 LogStore 拉取到的位置
+    private long nextSeq = 0;
+    private final List<LogRecord> pending = new ArrayList<>();
+    private LogSearcher searcher;
+    // 当前的过滤条件，为空表示显示全部日志
+    private LogSearcher.Query query;
+    private int searchGeneration;
+    // 后台搜索尚未完成，期间新日志暂不拉取，完成后从搜索的终点继续
+    private boolean searching;
+    private int matchedCount;
+    private LogExporter exporter;
+    // 系统文件选择器返回导出位置，取消时为 null
+    private final ActivityResultLauncher<String> exportTarget = registerForActivityResult(
+            new ActivityResultContracts.CreateDocument("application/gzip"), uri -> {
+                if (uri != null) {
+                    exportTo(uri);
+                }
+            });
+    // 清空后不再加载清空前的历史日志
+    private long clearedAt = 0;
+    private boolean loadingHistory;
+    private final ServiceConnection connection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder binder) {
+            onBound((FrpcService.LocalBinder) binder);
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+            service = null;
+        }
+    };
+    private final LogSearcher.Callback searchCallback = new LogSearcher.Callback() {
+        @Override
+        public void onResults(int generation, List<LogRecord> records) {
+            if (generation == searchGeneration) {
+                matchedCount += records.size();
+                appendRecords(records);
+            }
+        }
+
+        @Override
+        public void onFinished(int generation, int matched) {
+            if (generation != searchGeneration) {
+                return;
+            }
+            searching = false;
+            pullNewLines();
+        }
+    };
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -39,42 +135,100 @@ public class LogActivity extends AppCompatActivity {
             getSupportActionBar().setTitle("运行日志");
         }
 
-        tvLog = findViewById(R.id.tvLog);
-        scrollView = findViewById(R.id.scrollView);
+        rvLog = findViewById(R.id.rvLog);
+        tvEmpty = findViewById(R.id.tvEmpty);
         btnClear = findViewById(R.id.btnClear);
-        btnCopy = findViewById(R.id.btnCopy);
+        btnExport = findViewById(R.id.btnExport);
+        btnHistory = findViewById(R.id.btnHistory);
+        progressExport = findViewById(R.id.progressExport);
+        etSearch = findViewById(R.id.etSearch);
+        spLevel = findViewById(R.id.spLevel);
+        tvSearchStatus = findViewById(R.id.tvSearchStatus);
 
         btnClear.setOnClickListener(v -> clearLog());
-        btnCopy.setOnClickListener(v -> copyLogToClipboard());
+        btnExport.setOnClickListener(v -> chooseExportTarget());
+        btnHistory.setOnClickListener(v -> loadHistory());
+
+        logAdapter = new LogAdapter(FrpcService.LOG_CAPACITY);
+        layoutManager = new LinearLayoutManager(this);
+        layoutManager.setStackFromEnd(true);
+        rvLog.setLayoutManager(layoutManager);
+        rvLog.setAdapter(logAdapter);
+        // 行内容变化频繁，关闭条目动画避免追加时闪烁
+        rvLog.setItemAnimator(null);
 
-        // 注册输出接收器
-        outputReceiver = new BroadcastReceiver() {
+        ArrayAdapter<String> levelAdapter = new ArrayAdapter<>(this,
+                android.R.layout.simple_spinner_item, LEVEL_OPTIONS);
+        levelAdapter.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
+        spLevel.setAdapter(levelAdapter);
+        spLevel.setOnItemSelectedListener(new AdapterView.OnItemSelectedListener() {
             @Override
-            public void onReceive(Context context, Intent intent) {
-                String line = intent.getStringExtra(FrpcService.EXTRA_OUTPUT_LINE);
-                if (line != null) {
-                    appendLog(line);
-                }
+            public void onItemSelected(AdapterView<?> parent, View view, int position, long id) {
+                applyFilter();
+            }
+
+            @Override
+            public void onNothingSelected(AdapterView<?> parent) {
+            }
+        });
+        // 每次输入都重新搜索，之前未完成的搜索会被取消
+        etSearch.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {
             }
-        };
-        // Android 13+ 需要指定 RECEIVER_NOT_EXPORTED 标志
-        // 三参数版本需要 API 26+，所以需要版本检查
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
-            // Android 13+ (API 33+)
-            registerReceiver(outputReceiver, new IntentFilter(FrpcService.ACTION_OUTPUT), Context.RECEIVER_NOT_EXPORTED);
-        } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-            // Android 8.0+ (API 26-32)，使用三参数版本但不设置标志
-            registerReceiver(outputReceiver, new IntentFilter(FrpcService.ACTION_OUTPUT), 0);
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {
+            }
+
+            @Override
+            public void afterTextChanged(Editable s) {
+                applyFilter();
+            }
+        });
+
+        btnClear.setEnabled(false);
+        btnExport.setEnabled(false);
+        btnHistory.setEnabled(false);
+        bound = bindService(new Intent(this, FrpcService.class), connection, Context.BIND_AUTO_CREATE);
+    }
+
+    private void onBound(FrpcService.LocalBinder binder) {
+        service = binder;
+        if (searcher == null) {
+            LogStore logStore = binder.getLogStore();
+            Handler mainHandler = new Handler(Looper.getMainLooper());
+            searcher = new LogSearcher(logStore, mainHandler);
+            exporter = new LogExporter(logStore, mainHandler, new LogExporter.Listener() {
+                @Override
+                public void onProgress(int percent) {
+                    progressExport.setProgress(percent);
+                }
+
+                @Override
+                public void onFinished(long lines, IOException error) {
+                    progressExport.setVisibility(View.GONE);
+                    btnExport.setEnabled(true);
+                    if (error != null) {
+                        Toast.makeText(LogActivity.this, error.getMessage(), Toast.LENGTH_LONG).show();
+                    } else {
+                        Toast.makeText(LogActivity.this, "已导出 " + lines + " 行日志", Toast.LENGTH_SHORT).show();
+                    }
+                }
+            });
+        }
+        btnClear.setEnabled(true);
+        btnExport.setEnabled(!exporter.isRunning());
+        btnHistory.setEnabled(true);
+        // 注册进程内日志监听器，服务每写入一个批次回调一次，再按序号分页增量拉取
+        binder.addLogListener(logListener);
+        // 绑定前可能已经输入了过滤条件，按当前条件显示服务中已保存的日志
+        if (query != null) {
+            query = null;
+            applyFilter();
         } else {
-            // Android 7.1 及以下 (API 21-25)，使用两参数版本
-            // 这些版本不需要 RECEIVER_NOT_EXPORTED 标志，lint 警告可以忽略
-            @SuppressLint("UnspecifiedRegisterReceiverFlag")
-            IntentFilter outputFilter = new IntentFilter(FrpcService.ACTION_OUTPUT);
-            registerReceiver(outputReceiver, outputFilter);
+            pullNewLines();
         }
-
-        // 显示现有日志
-        updateLogDisplay();
     }
 
     @Override
@@ -86,45 +240,226 @@ public class LogActivity extends AppCompatActivity {
         return super.onOptionsItemSelected(item);
     }
 
-    private void appendLog(String line) {
-        runOnUiThread(() -> {
-            if (logBuffer.length() > 50000) {
-                // 限制日志长度，避免内存问题
-                int keepLength = 25000;
-                logBuffer.delete(0, logBuffer.length() - keepLength);
+    private void pullNewLines() {
+        FrpcService.LocalBinder service = this.service;
+        if (service == null || searching) {
+            return;
+        }
+        while (true) {
+            pending.clear();
+            long next = service.readLog(nextSeq, PAGE_SIZE, pending);
+            if (next <= nextSeq) {
+                break;
             }
-            logBuffer.append(line).append("\n");
-            updateLogDisplay();
-        });
+            nextSeq = next;
+            appendPage();
+        }
+        pending.clear();
+        updateEmptyView();
     }
 
-    private void updateLogDisplay() {
-        if (tvLog != null) {
-            tvLog.setText(logBuffer.length() > 0 ? logBuffer.toString() : "暂无日志");
-            // 自动滚动到底部
-            scrollView.post(() -> scrollView.fullScroll(View.FOCUS_DOWN));
+    private void appendPage() {
+        if (query != null) {
+            // 搜索完成后到达的新行直接在主线程过滤，每个批次只有少量行
+            int kept = 0;
+            for (int i = 0; i < pending.size(); i++) {
+                LogRecord record = pending.get(i);
+                if (query.matches(record)) {
+                    pending.set(kept++, record);
+                }
+            }
+            pending.subList(kept, pending.size()).clear();
+            matchedCount += kept;
+        }
+        appendRecords(pending);
+    }
+
+    private void appendRecords(List<LogRecord> records) {
+        if (!records.isEmpty()) {
+            // 只有当前停留在底部时才自动滚动，避免打断用户查看历史日志
+            boolean atBottom = layoutManager.findLastVisibleItemPosition() >= logAdapter.getItemCount() - 1;
+            logAdapter.appendLines(records);
+            if (atBottom) {
+                rvLog.scrollToPosition(logAdapter.getItemCount() - 1);
+            }
+        }
+        updateEmptyView();
+    }
+
+    /**
+     * 按当前的关键字和级别重新过滤，在后台线程扫描已保存的日志，结果分块显示
+     */
+    private void applyFilter() {
+        LogSearcher.Query next = new LogSearcher.Query(etSearch.getText().toString(),
+                LEVEL_FILTERS[spLevel.getSelectedItemPosition()]);
+        if (service == null) {
+            // 绑定后按当前条件重新过滤
+            query = next.isEmpty() ? null : next;
+            return;
+        }
+        if (next.isEmpty() && query == null) {
+            return;
+        }
+        logAdapter.clear();
+        matchedCount = 0;
+        if (next.isEmpty()) {
+            searcher.cancel();
+            query = null;
+            searching = false;
+            nextSeq = 0;
+            pullNewLines();
+            return;
         }
+        query = next;
+        searching = true;
+        nextSeq = service.getLogEnd();
+        searchGeneration = searcher.search(next, nextSeq, searchCallback);
+        updateEmptyView();
+    }
+
+    private void updateEmptyView() {
+        tvEmpty.setVisibility(logAdapter.getItemCount() > 0 || searching ? View.GONE : View.VISIBLE);
+        tvEmpty.setText(query != null ? "没有匹配的日志" : "暂无日志");
+        if (query == null) {
+            tvSearchStatus.setVisibility(View.GONE);
+            return;
+        }
+        tvSearchStatus.setVisibility(View.VISIBLE);
+        tvSearchStatus.setText(searching ? "搜索中... 已匹配 " + matchedCount + " 行" : "匹配 " + matchedCount + " 行");
     }
 
     private void clearLog() {
-        logBuffer.setLength(0);
-        updateLogDisplay();
+        if (service == null) {
+            return;
+        }
+        searcher.cancel();
+        searching = false;
+        matchedCount = 0;
+        service.clearLog();
+        nextSeq = service.getLogEnd();
+        clearedAt = System.currentTimeMillis();
+        logAdapter.clear();
+        updateEmptyView();
         Toast.makeText(this, "日志已清空", Toast.LENGTH_SHORT).show();
     }
 
-    private void copyLogToClipboard() {
-        String logText = logBuffer.length() > 0 ? logBuffer.toString() : "暂无日志";
-        ClipboardManager clipboard = (ClipboardManager) getSystemService(Context.CLIPBOARD_SERVICE);
-        ClipData clip = ClipData.newPlainText("Frpc日志", logText);
-        clipboard.setPrimaryClip(clip);
-        Toast.makeText(this, "日志已复制到剪贴板", Toast.LENGTH_SHORT).show();
+    /**
+     * 从持久化日志中加载当前最早一行之前的日志，可以跨越进程重启；
+     * 在后台线程按时间范围读取，由近到远逐步扩大范围，找到后插入列表头部
+     */
+    private void loadHistory() {
+        FrpcService.LocalBinder service = this.service;
+        if (service == null || loadingHistory) {
+            return;
+        }
+        if (query != null) {
+            Toast.makeText(this, "请先清除搜索条件", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        LogRecord first = logAdapter.getFirst();
+        final long toMillis = (first != null ? first.epochMillis : System.currentTimeMillis()) - 1;
+        final long fromLimit = clearedAt;
+        if (toMillis < fromLimit) {
+            Toast.makeText(this, "没有更早的日志", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        loadingHistory = true;
+        btnHistory.setEnabled(false);
+        new Thread(() -> {
+            ArrayDeque<LogRecord> found = new ArrayDeque<>();
+            boolean available = true;
+            for (long window : HISTORY_WINDOWS_MS) {
+                found.clear();
+                // 只保留最接近 toMillis 的 HISTORY_PAGE 行
+                available = service.readLogHistory(Math.max(fromLimit, toMillis - window), toMillis,
+                        (timestamp, line) -> {
+                            if (found.size() == HISTORY_PAGE) {
+                                found.removeFirst();
+                            }
+                            found.addLast(LogRecord.parse(line, timestamp));
+                            return true;
+                        });
+                if (!available || !found.isEmpty() || toMillis - window <= fromLimit) {
+                    break;
+                }
+            }
+            final boolean journalAvailable = available;
+            final List<LogRecord> records = new ArrayList<>(found);
+            runOnUiThread(() -> onHistoryLoaded(records, journalAvailable));
+        }, "frpc-log-history").start();
+    }
+
+    private void onHistoryLoaded(List<LogRecord> records, boolean journalAvailable) {
+        loadingHistory = false;
+        btnHistory.setEnabled(true);
+        if (isFinishing() || query != null) {
+            return;
+        }
+        if (!journalAvailable) {
+            Toast.makeText(this, "持久化日志不可用", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        if (records.isEmpty()) {
+            Toast.makeText(this, "没有更早的日志", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        int added = logAdapter.prependLines(records);
+        updateEmptyView();
+        if (added == 0) {
+            Toast.makeText(this, "已达到显示上限，请导出日志查看全部内容", Toast.LENGTH_SHORT).show();
+        } else {
+            layoutManager.scrollToPositionWithOffset(added - 1, 0);
+            Toast.makeText(this, "已加载 " + added + " 行更早的日志", Toast.LENGTH_SHORT).show();
+        }
+    }
+
+    /**
+     * 通过系统文件选择器选择导出位置，可以保存到本地或网盘
+     */
+    private void chooseExportTarget() {
+        String name = "frpc-log-" + new SimpleDateFormat("yyyyMMdd-HHmmss", Locale.US).format(new Date()) + ".log.gz";
+        try {
+            exportTarget.launch(name);
+        } catch (RuntimeException e) {
+            Toast.makeText(this, "无法打开文件选择器", Toast.LENGTH_SHORT).show();
+        }
+    }
+
+    private void exportTo(Uri uri) {
+        if (exporter == null || exporter.isRunning()) {
+            return;
+        }
+        OutputStream out;
+        try {
+            out = getContentResolver().openOutputStream(uri);
+        } catch (IOException e) {
+            out = null;
+        }
+        if (out == null) {
+            Toast.makeText(this, "无法写入所选文件", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        btnExport.setEnabled(false);
+        progressExport.setProgress(0);
+        progressExport.setVisibility(View.VISIBLE);
+        exporter.export(out);
     }
 
     @Override
     protected void onDestroy() {
         super.onDestroy();
-        if (outputReceiver != null) {
-            unregisterReceiver(outputReceiver);
+        if (service != null) {
+            service.removeLogListener(logListener);
+            service = null;
+        }
+        if (bound) {
+            unbindService(connection);
+        }
+        if (searcher != null) {
+            searcher.shutdown();
+        }
+        if (exporter != null) {
+            exporter.cancel();
         }
     }
 }
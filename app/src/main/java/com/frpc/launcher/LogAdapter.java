@@ -0,0 +1,118 @@
+package com.frpc.launcher;
+
+import android.graphics.Color;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.RecyclerView;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 日志列表适配器
+ * 只绑定可见行，新日志按增量追加，超过上限时从头部移除
+ * 按解析出的级别着色，不再检查行内容
+ * 所有方法都必须在主线程调用
+ */
+public class LogAdapter extends RecyclerView.Adapter<LogAdapter.LineHolder> {
+    private static final int DEFAULT_COLOR = Color.parseColor("#333333");
+    private static final int WARN_COLOR = Color.parseColor("#E65100");
+    private static final int ERROR_COLOR = Color.parseColor("#C62828");
+    private static final int DEBUG_COLOR = Color.parseColor("#888888");
+
+    private final List<LogRecord> lines = new ArrayList<>();
+    private final int maxLines;
+
+    public LogAdapter(int maxLines) {
+        this.maxLines = maxLines;
+    }
+
+    public void appendLines(List<LogRecord> newLines) {
+        if (newLines.isEmpty()) {
+            return;
+        }
+        int insertStart = lines.size();
+        lines.addAll(newLines);
+        notifyItemRangeInserted(insertStart, newLines.size());
+
+        int overflow = lines.size() - maxLines;
+        if (overflow > 0) {
+            lines.subList(0, overflow).clear();
+            notifyItemRangeRemoved(0, overflow);
+        }
+    }
+
+    /**
+     * 在头部插入更早的日志，超过上限时只保留最接近现有日志的部分
+     *
+     * @return 实际插入的行数
+     */
+    public int prependLines(List<LogRecord> olderLines) {
+        int count = Math.min(olderLines.size(), maxLines - lines.size());
+        if (count <= 0) {
+            return 0;
+        }
+        lines.addAll(0, olderLines.subList(olderLines.size() - count, olderLines.size()));
+        notifyItemRangeInserted(0, count);
+        return count;
+    }
+
+    /**
+     * @return 最早的一行，没有日志时返回 null
+     */
+    public LogRecord getFirst() {
+        return lines.isEmpty() ? null : lines.get(0);
+    }
+
+    public void clear() {
+        lines.clear();
+        notifyDataSetChanged();
+    }
+
+    @NonNull
+    @Override
+    public LineHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        View view = LayoutInflater.from(parent.getContext())
+                .inflate(R.layout.item_log_line, parent, false);
+        return new LineHolder(view);
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull LineHolder holder, int position) {
+        LogRecord record = lines.get(position);
+        holder.tvLine.setText(record.line);
+        holder.tvLine.setTextColor(colorOf(record.level));
+    }
+
+    private static int colorOf(LogRecord.Level level) {
+        switch (level) {
+            case ERROR:
+                return ERROR_COLOR;
+            case WARN:
+                return WARN_COLOR;
+            case TRACE:
+            case DEBUG:
+                return DEBUG_COLOR;
+            default:
+                return DEFAULT_COLOR;
+        }
+    }
+
+    @Override
+    public int getItemCount() {
+        return lines.size();
+    }
+
+    static class LineHolder extends RecyclerView.ViewHolder {
+        final TextView tvLine;
+
+        LineHolder(@NonNull View itemView) {
+            super(itemView);
+            tvLine = (TextView) itemView;
+        }
+    }
+}
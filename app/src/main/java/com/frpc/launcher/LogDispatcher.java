@@ -0,0 +1,114 @@
+package com.frpc.launcher;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 日志批量分发器
+ * 读取线程只做非阻塞入队，后台线程把日志攒成批次，
+ * 达到批次上限或时间窗口结束时一次性交给 Sink 处理
+ * 队列满时直接丢弃并计数，保证 stdout/stderr 读取线程永远不会被阻塞
+ */
+public class LogDispatcher {
+    private static final String TAG = "LogDispatcher";
+
+    public interface Sink {
+        /**
+         * 在分发线程中调用
+         *
+         * @param records 本批次的日志行，回调返回后会被复用，不要持有
+         * @param dropped 自上一批次以来因队列已满而丢弃的行数
+         */
+        void onBatch(List<LogRecord> records, long dropped);
+    }
+
+    private final BlockingQueue<LogRecord> queue;
+    private final int maxBatch;
+    private final long windowMs;
+    private final Sink sink;
+    private final AtomicLong droppedTotal = new AtomicLong();
+    private final Thread worker;
+    private volatile boolean running = true;
+
+    public LogDispatcher(int queueCapacity, int maxBatch, long windowMs, Sink sink) {
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.maxBatch = maxBatch;
+        this.windowMs = windowMs;
+        this.sink = sink;
+        this.worker = new Thread(this::loop, "frpc-log-dispatcher");
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    /**
+     * 非阻塞提交一行日志
+     *
+     * @return 队列已满被丢弃时返回 false
+     */
+    public boolean submit(LogRecord record) {
+        if (queue.offer(record)) {
+            return true;
+        }
+        droppedTotal.incrementAndGet();
+        return false;
+    }
+
+    public long getDroppedCount() {
+        return droppedTotal.get();
+    }
+
+    public void shutdown() {
+        running = false;
+        worker.interrupt();
+    }
+
+    private void loop() {
+        List<LogRecord> batch = new ArrayList<>(maxBatch);
+        long droppedReported = 0;
+        while (running) {
+            try {
+                // 阻塞等待批次中的第一行
+                LogRecord first = queue.take();
+                batch.add(first);
+                // 在时间窗口内继续收集，直到批次已满
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(windowMs);
+                while (batch.size() < maxBatch) {
+                    queue.drainTo(batch, maxBatch - batch.size());
+                    if (batch.size() >= maxBatch) {
+                        break;
+                    }
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        break;
+                    }
+                    LogRecord next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                if (!running) {
+                    break;
+                }
+            }
+
+            long dropped = droppedTotal.get();
+            if (!batch.isEmpty() || dropped != droppedReported) {
+                try {
+                    sink.onBatch(batch, dropped - droppedReported);
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "Log sink failed", e);
+                }
+                droppedReported = dropped;
+                batch.clear();
+            }
+        }
+    }
+}
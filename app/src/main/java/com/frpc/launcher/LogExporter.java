@@ -0,0 +1,143 @@
+package com.frpc.launcher;
+
+import android.os.Handler;
+import android.util.Log;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 日志导出
+ * 在后台线程中按块读取 LogStore，逐行写入 GZIPOutputStream，
+ * 内存占用只有一块行引用和固定大小的缓冲区，与日志总量无关
+ */
+public class LogExporter {
+    private static final String TAG = "LogExporter";
+    // 每块读取的行数，决定持锁时间
+    private static final int CHUNK_SIZE = 256;
+    private static final int BUFFER_SIZE = 16 * 1024;
+    private static final Set<LogRecord.Level> ALL_LEVELS = EnumSet.allOf(LogRecord.Level.class);
+
+    public interface Listener {
+        /**
+         * 导出进度，0 到 100，在主线程回调
+         */
+        void onProgress(int percent);
+
+        /**
+         * 导出结束，取消时不回调，在主线程回调
+         *
+         * @param lines 已写入的行数
+         * @param error 失败原因，成功时为空
+         */
+        void onFinished(long lines, IOException error);
+    }
+
+    private final LogStore store;
+    private final Handler handler;
+    private final Listener listener;
+    private volatile boolean cancelled = false;
+    private Thread worker;
+
+    public LogExporter(LogStore store, Handler handler, Listener listener) {
+        this.store = store;
+        this.handler = handler;
+        this.listener = listener;
+    }
+
+    public synchronized boolean isRunning() {
+        return worker != null;
+    }
+
+    /**
+     * 开始导出当前已保存的日志，导出期间新写入的日志不包含在内，结束时关闭 out
+     */
+    public synchronized void export(OutputStream out) {
+        if (worker != null) {
+            throw new IllegalStateException("export already running");
+        }
+        cancelled = false;
+        worker = new Thread(() -> run(out), "frpc-log-export");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * 取消正在进行的导出，已写入的内容会被保留
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    private void run(OutputStream out) {
+        long fromSeq = store.getFirstSeq();
+        long toSeq = store.getNextSeq();
+        long total = Math.max(1, toSeq - fromSeq);
+        long written = 0;
+        IOException error = null;
+        List<LogRecord> chunk = new ArrayList<>(CHUNK_SIZE);
+        Writer writer = null;
+        try {
+            writer = new BufferedWriter(new OutputStreamWriter(
+                    new GZIPOutputStream(out, BUFFER_SIZE), StandardCharsets.UTF_8), BUFFER_SIZE);
+            int lastPercent = -1;
+            long seq = fromSeq;
+            while (seq < toSeq && !cancelled) {
+                chunk.clear();
+                long next = store.copyMatching(seq, toSeq, CHUNK_SIZE, ALL_LEVELS, chunk);
+                if (next <= seq) {
+                    break;
+                }
+                seq = next;
+                for (LogRecord record : chunk) {
+                    writer.write(record.line);
+                    writer.write('\n');
+                }
+                written += chunk.size();
+                int percent = (int) (Math.min(seq - fromSeq, total) * 100 / total);
+                if (percent != lastPercent) {
+                    lastPercent = percent;
+                    handler.post(() -> listener.onProgress(percent));
+                }
+            }
+            // close 会写入 gzip 尾部并关闭目标流
+            writer.close();
+            writer = null;
+        } catch (IOException e) {
+            Log.e(TAG, "Log export failed", e);
+            error = new IOException("导出失败: " + e.getMessage(), e);
+            // 出错时仍要关闭目标流
+            closeQuietly(writer != null ? writer : out);
+        } finally {
+            chunk.clear();
+            synchronized (this) {
+                worker = null;
+            }
+        }
+        if (cancelled) {
+            Log.d(TAG, "Log export cancelled after " + written + " lines");
+            return;
+        }
+        final long lines = written;
+        final IOException result = error;
+        handler.post(() -> listener.onFinished(lines, result));
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to close export stream", e);
+        }
+    }
+}
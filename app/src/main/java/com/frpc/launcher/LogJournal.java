@@ -0,0 +1,364 @@
+package com.frpc.launcher;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * 分段、内存映射的日志持久化存储
+ * <p>
+ * 每个分段是固定大小的 .log 文件，通过 MappedByteBuffer 追加写入，
+ * 记录格式为 [int 记录总长度][long 时间戳][UTF-8 内容]，总长度为 0 表示数据结束；
+ * 字段位置由 SIZE_OFFSET 和 TIMESTAMP_OFFSET 统一定义，写入和读取共用。
+ * 时间戳是日志行自身的时间，同一分段内单调不减，稀疏索引和按时间范围读取都依赖这一点。
+ * 每写入约 4KB 数据就在同名 .idx 文件中追加一条稀疏索引 [long 时间戳][int 偏移]，
+ * 读取时按文件名中的起始时间选择分段，再按索引定位，不需要读取整个文件。
+ * 分段写满或超过时长后滚动，超过保留时长或数量的旧分段会被删除。
+ * 写入路径不会为每行分配对象。
+ */
+public class LogJournal {
+    private static final String TAG = "LogJournal";
+
+    private static final int SEGMENT_SIZE = 1024 * 1024;
+    private static final long SEGMENT_MAX_AGE_MS = 60 * 60 * 1000L;
+    private static final long RETENTION_MS = 3 * 24 * 60 * 60 * 1000L;
+    private static final int MAX_SEGMENTS = 32;
+    private static final int SIZE_OFFSET = 0;
+    private static final int TIMESTAMP_OFFSET = 4;
+    private static final int RECORD_HEADER = 12;
+    private static final int MAX_RECORD_BYTES = 8 * 1024;
+    private static final int INDEX_INTERVAL = 4 * 1024;
+    private static final int INDEX_ENTRY = 12;
+    private static final String SEGMENT_PREFIX = "seg-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String INDEX_SUFFIX = ".idx";
+
+    public interface Visitor {
+        /**
+         * @return 返回 false 停止遍历
+         */
+        boolean onRecord(long timestamp, String line);
+    }
+
+    private final File dir;
+    private final ByteBuffer indexEntry = ByteBuffer.allocate(INDEX_ENTRY);
+    private RandomAccessFile segmentFile;
+    private MappedByteBuffer segment;
+    private FileChannel indexChannel;
+    private long segmentStart;
+    private int nextIndexOffset;
+    // 当前分段最后写入的时间戳
+    private long lastTimestamp = Long.MIN_VALUE;
+
+    public LogJournal(File dir) throws IOException {
+        this.dir = dir;
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("无法创建日志目录: " + dir);
+        }
+        long[] starts = listSegmentStarts();
+        if (starts.length > 0) {
+            long last = starts[starts.length - 1];
+            if (System.currentTimeMillis() - last < SEGMENT_MAX_AGE_MS) {
+                openSegment(last);
+                return;
+            }
+        }
+        rollSegment(System.currentTimeMillis());
+    }
+
+    /**
+     * 追加一行日志，只在分发线程中调用
+     *
+     * @param timestamp 日志行自身的时间；早于上一行时按上一行的时间记录，保持分段内有序
+     */
+    public synchronized void append(long timestamp, String line) {
+        if (segment == null) {
+            return;
+        }
+        timestamp = Math.max(timestamp, lastTimestamp);
+        try {
+            int worstCase = RECORD_HEADER + Math.min(line.length() * 3, MAX_RECORD_BYTES);
+            if (segment.remaining() < worstCase || timestamp - segmentStart >= SEGMENT_MAX_AGE_MS) {
+                rollSegment(timestamp);
+                timestamp = Math.max(timestamp, lastTimestamp);
+            }
+            int start = segment.position();
+            if (start >= nextIndexOffset) {
+                writeIndexEntry(timestamp, start);
+                nextIndexOffset = start + INDEX_INTERVAL;
+            }
+            segment.position(start + RECORD_HEADER);
+            int length = encodeUtf8(line, segment, MAX_RECORD_BYTES);
+            int end = segment.position();
+            segment.putInt(start + SIZE_OFFSET, RECORD_HEADER + length);
+            segment.putLong(start + TIMESTAMP_OFFSET, timestamp);
+            segment.position(end);
+            lastTimestamp = timestamp;
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to append to journal", e);
+        }
+    }
+
+    /**
+     * 按时间范围读取日志，包含两端
+     */
+    public void read(long fromMillis, long toMillis, Visitor visitor) {
+        long[] starts;
+        synchronized (this) {
+            starts = listSegmentStarts();
+        }
+        for (int i = 0; i < starts.length; i++) {
+            if (starts[i] > toMillis) {
+                break;
+            }
+            if (i + 1 < starts.length && starts[i + 1] <= fromMillis) {
+                continue;
+            }
+            try {
+                if (!readSegment(starts[i], fromMillis, toMillis, visitor)) {
+                    return;
+                }
+            } catch (IOException e) {
+                Log.w(TAG, "Failed to read journal segment " + starts[i], e);
+            }
+        }
+    }
+
+    public synchronized void close() {
+        if (segment != null) {
+            segment.force();
+            segment = null;
+        }
+        closeQuietly();
+    }
+
+    private boolean readSegment(long start, long fromMillis, long toMillis, Visitor visitor) throws IOException {
+        File file = segmentFile(start, SEGMENT_SUFFIX);
+        int offset = findIndexOffset(segmentFile(start, INDEX_SUFFIX), fromMillis);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            ByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+            byte[] bytes = new byte[MAX_RECORD_BYTES];
+            while (offset + RECORD_HEADER <= buffer.limit()) {
+                int size = buffer.getInt(offset + SIZE_OFFSET);
+                if (!isValidRecord(size, offset, buffer.limit())) {
+                    break;
+                }
+                long timestamp = buffer.getLong(offset + TIMESTAMP_OFFSET);
+                if (timestamp > toMillis) {
+                    return false;
+                }
+                if (timestamp >= fromMillis) {
+                    int length = size - RECORD_HEADER;
+                    buffer.position(offset + RECORD_HEADER);
+                    buffer.get(bytes, 0, length);
+                    if (!visitor.onRecord(timestamp, new String(bytes, 0, length, StandardCharsets.UTF_8))) {
+                        return false;
+                    }
+                }
+                offset += size;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 在稀疏索引中查找时间戳不大于 fromMillis 的最后一个条目对应的偏移
+     */
+    private int findIndexOffset(File indexFile, long fromMillis) throws IOException {
+        if (!indexFile.exists()) {
+            return 0;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(indexFile, "r")) {
+            int count = (int) (raf.length() / INDEX_ENTRY);
+            ByteBuffer index = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, (long) count * INDEX_ENTRY);
+            int lo = 0;
+            int hi = count - 1;
+            int offset = 0;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                if (index.getLong(mid * INDEX_ENTRY) <= fromMillis) {
+                    offset = index.getInt(mid * INDEX_ENTRY + 8);
+                    lo = mid + 1;
+                } else {
+                    hi = mid - 1;
+                }
+            }
+            return offset;
+        }
+    }
+
+    private void rollSegment(long timestamp) throws IOException {
+        if (segment != null) {
+            segment.force();
+            segment = null;
+        }
+        closeQuietly();
+        long[] starts = listSegmentStarts();
+        // 保证分段起始时间严格递增，文件名不会冲突
+        long start = starts.length > 0 ? Math.max(timestamp, starts[starts.length - 1] + 1) : timestamp;
+        openSegment(start);
+        applyRetention(start);
+    }
+
+    private void openSegment(long start) throws IOException {
+        segmentStart = start;
+        segmentFile = new RandomAccessFile(segmentFile(start, SEGMENT_SUFFIX), "rw");
+        segment = segmentFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, SEGMENT_SIZE);
+        indexChannel = new RandomAccessFile(segmentFile(start, INDEX_SUFFIX), "rw").getChannel();
+
+        // 从最后一个索引位置开始扫描，找到已有数据的末尾
+        int offset = 0;
+        long indexSize = indexChannel.size() - indexChannel.size() % INDEX_ENTRY;
+        if (indexSize > 0) {
+            indexEntry.clear();
+            indexChannel.read(indexEntry, indexSize - INDEX_ENTRY);
+            offset = indexEntry.getInt(8);
+        }
+        indexChannel.position(indexSize);
+        long last = start;
+        while (offset + RECORD_HEADER <= SEGMENT_SIZE) {
+            int size = segment.getInt(offset + SIZE_OFFSET);
+            if (!isValidRecord(size, offset, SEGMENT_SIZE)) {
+                break;
+            }
+            last = Math.max(last, segment.getLong(offset + TIMESTAMP_OFFSET));
+            offset += size;
+        }
+        lastTimestamp = last;
+        segment.position(offset);
+        nextIndexOffset = indexSize > 0 ? offset + INDEX_INTERVAL : 0;
+    }
+
+    private static boolean isValidRecord(int size, int offset, int limit) {
+        return size >= RECORD_HEADER && size <= RECORD_HEADER + MAX_RECORD_BYTES && offset + size <= limit;
+    }
+
+    private void writeIndexEntry(long timestamp, int offset) throws IOException {
+        indexEntry.clear();
+        indexEntry.putLong(timestamp).putInt(offset).flip();
+        while (indexEntry.hasRemaining()) {
+            indexChannel.write(indexEntry);
+        }
+    }
+
+    private void applyRetention(long now) {
+        long[] starts = listSegmentStarts();
+        for (int i = 0; i < starts.length - 1; i++) {
+            boolean tooMany = starts.length - i > MAX_SEGMENTS;
+            // 分段的结束时间就是下一个分段的起始时间
+            boolean expired = now - starts[i + 1] > RETENTION_MS;
+            if (!tooMany && !expired) {
+                break;
+            }
+            deleteQuietly(segmentFile(starts[i], SEGMENT_SUFFIX));
+            deleteQuietly(segmentFile(starts[i], INDEX_SUFFIX));
+        }
+    }
+
+    private long[] listSegmentStarts() {
+        String[] names = dir.list();
+        if (names == null) {
+            return new long[0];
+        }
+        List<Long> starts = new ArrayList<>();
+        for (String name : names) {
+            if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)) {
+                try {
+                    starts.add(Long.parseLong(name.substring(SEGMENT_PREFIX.length(),
+                            name.length() - SEGMENT_SUFFIX.length())));
+                } catch (NumberFormatException e) {
+                    Log.w(TAG, "Ignoring unexpected journal file: " + name);
+                }
+            }
+        }
+        long[] result = new long[starts.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = starts.get(i);
+        }
+        Arrays.sort(result);
+        return result;
+    }
+
+    private File segmentFile(long start, String suffix) {
+        return new File(dir, SEGMENT_PREFIX + String.format(Locale.US, "%013d", start) + suffix);
+    }
+
+    private void closeQuietly() {
+        try {
+            if (indexChannel != null) {
+                indexChannel.close();
+            }
+            if (segmentFile != null) {
+                segmentFile.close();
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to close journal segment", e);
+        }
+        indexChannel = null;
+        segmentFile = null;
+    }
+
+    private static void deleteQuietly(File file) {
+        if (file.exists() && !file.delete()) {
+            Log.w(TAG, "Failed to delete " + file);
+        }
+    }
+
+    /**
+     * 不经过中间数组直接把字符串按 UTF-8 编码写入 buffer
+     *
+     * @return 写入的字节数，超过 maxBytes 的部分被截断
+     */
+    private static int encodeUtf8(String s, ByteBuffer buffer, int maxBytes) {
+        int start = buffer.position();
+        int limit = start + maxBytes;
+        int len = s.length();
+        for (int i = 0; i < len; i++) {
+            char c = s.charAt(i);
+            int pos = buffer.position();
+            if (c < 0x80) {
+                if (pos + 1 > limit) {
+                    break;
+                }
+                buffer.put((byte) c);
+            } else if (c < 0x800) {
+                if (pos + 2 > limit) {
+                    break;
+                }
+                buffer.put((byte) (0xC0 | (c >> 6)));
+                buffer.put((byte) (0x80 | (c & 0x3F)));
+            } else if (Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(s.charAt(i + 1))) {
+                if (pos + 4 > limit) {
+                    break;
+                }
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                buffer.put((byte) (0xF0 | (cp >> 18)));
+                buffer.put((byte) (0x80 | ((cp >> 12) & 0x3F)));
+                buffer.put((byte) (0x80 | ((cp >> 6) & 0x3F)));
+                buffer.put((byte) (0x80 | (cp & 0x3F)));
+            } else {
+                if (pos + 3 > limit) {
+                    break;
+                }
+                // 孤立的代理字符按替换字符处理
+                if (Character.isSurrogate(c)) {
+                    c = '\uFFFD';
+                }
+                buffer.put((byte) (0xE0 | (c >> 12)));
+                buffer.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                buffer.put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+        return buffer.position() - start;
+    }
+}
@@ -0,0 +1,343 @@
+package com.frpc.launcher;
+
+import java.util.TimeZone;
+
+/**
+ * 解析后的单行日志
+ * frpc 的日志行格式固定为：
+ * <pre>
+ * 2024-01-02 15:04:05.000 [I] [proxy/proxy_wrapper.go:204] [runid] [ssh] start proxy success
+ * </pre>
+ * 解析时只扫描一遍原始行：时间戳转换为毫秒数，级别转换为枚举，源码位置和代理名称
+ * 通过共享的驻留表复用同一个字符串，消息部分只记录在原始行中的起始位置，不复制。
+ * 运行 ID 每次启动都不同，不放入驻留表，以免占满表后常用的值无法再驻留。
+ * 不符合格式的行（本应用自己输出的提示、frpc 的 panic 信息等）整行作为消息
+ */
+public final class LogRecord {
+
+    public enum Level {
+        TRACE('T'),
+        DEBUG('D'),
+        INFO('I'),
+        WARN('W'),
+        ERROR('E'),
+        // 不带级别的行
+        NONE(' ');
+
+        final char tag;
+
+        Level(char tag) {
+            this.tag = tag;
+        }
+
+        /**
+         * 每行都会调用，直接按字符分支，不调用 values() 复制数组
+         */
+        static Level fromTag(char tag) {
+            switch (tag) {
+                case 'T':
+                    return TRACE;
+                case 'D':
+                    return DEBUG;
+                case 'I':
+                    return INFO;
+                case 'W':
+                    return WARN;
+                case 'E':
+                    return ERROR;
+                default:
+                    return null;
+            }
+        }
+
+        public boolean atLeast(Level other) {
+            return this != NONE && other != NONE && ordinal() >= other.ordinal();
+        }
+    }
+
+    private static final long MINUTE_MS = 60 * 1000L;
+    private static final long ZONE_STEP_MS = 15 * MINUTE_MS;
+    // 时区偏移的最大范围，超出说明不是同一时刻的日志（例如从持久化日志恢复的旧行）
+    private static final long MAX_ZONE_OFFSET_MS = 14 * 60 * MINUTE_MS;
+
+    private static final Interner INTERNER = new Interner(1024);
+
+    // 日志产生的时间
+    public final long epochMillis;
+    public final Level level;
+    // 源码位置，如 "proxy/proxy_wrapper.go:204"，没有时为空字符串
+    public final String location;
+    // frpc 运行 ID，没有时为空字符串
+    public final String runId;
+    // 代理名称，没有时为空字符串
+    public final String proxy;
+    // 原始行，界面显示和持久化都使用原始行
+    public final String line;
+    // 消息在原始行中的起始位置，消息一直延续到行尾
+    public final int messageStart;
+    // 是否按 frpc 日志格式解析成功
+    public final boolean structured;
+
+    private LogRecord(long epochMillis, Level level, String location, String runId, String proxy,
+                      String line, int messageStart, boolean structured) {
+        this.epochMillis = epochMillis;
+        this.level = level;
+        this.location = location;
+        this.runId = runId;
+        this.proxy = proxy;
+        this.line = line;
+        this.messageStart = messageStart;
+        this.structured = structured;
+    }
+
+    /**
+     * 不带结构的行，整行作为消息
+     */
+    public static LogRecord plain(String line, Level level, long epochMillis) {
+        return new LogRecord(epochMillis, level, "", "", "", line, 0, false);
+    }
+
+    /**
+     * 解析一行 frpc 输出
+     *
+     * @param receivedAt 收到该行的时间，用于推算 frpc 使用的时区；格式不符时作为日志时间
+     */
+    public static LogRecord parse(String line, long receivedAt) {
+        int len = line.length();
+        // 日期和时间: yyyy-MM-dd HH:mm:ss 或 yyyy/MM/dd HH:mm:ss，毫秒部分可选
+        if (len < 19 || !isDateSeparator(line.charAt(4)) || line.charAt(7) != line.charAt(4)
+                || line.charAt(10) != ' ' || line.charAt(13) != ':' || line.charAt(16) != ':') {
+            return plain(line, Level.NONE, receivedAt);
+        }
+        int year = digits(line, 0, 4);
+        int month = digits(line, 5, 2);
+        int day = digits(line, 8, 2);
+        int hour = digits(line, 11, 2);
+        int minute = digits(line, 14, 2);
+        int second = digits(line, 17, 2);
+        if (year < 0 || month < 1 || month > 12 || day < 1 || day > 31
+                || hour < 0 || minute < 0 || second < 0) {
+            return plain(line, Level.NONE, receivedAt);
+        }
+        int pos = 19;
+        int millis = 0;
+        if (pos < len && line.charAt(pos) == '.') {
+            pos++;
+            int fractionDigits = 0;
+            while (pos < len && isDigit(line.charAt(pos))) {
+                // 只保留到毫秒
+                if (fractionDigits < 3) {
+                    millis = millis * 10 + (line.charAt(pos) - '0');
+                }
+                fractionDigits++;
+                pos++;
+            }
+            for (int i = fractionDigits; i < 3; i++) {
+                millis *= 10;
+            }
+        }
+
+        // 级别: " [I]"
+        if (pos + 4 > len || line.charAt(pos) != ' ' || line.charAt(pos + 1) != '['
+                || line.charAt(pos + 3) != ']') {
+            return plain(line, Level.NONE, receivedAt);
+        }
+        Level level = Level.fromTag(line.charAt(pos + 2));
+        if (level == null) {
+            return plain(line, Level.NONE, receivedAt);
+        }
+        pos += 4;
+
+        // 源码位置和之后最多两个不含空格的方括号字段：一个时为运行 ID，两个时第二个为代理名称
+        String location = "";
+        String runId = "";
+        String proxy = "";
+        int end = bracketEnd(line, pos);
+        if (end > 0 && line.indexOf(':', pos + 2) < end) {
+            location = INTERNER.intern(line, pos + 2, end);
+            pos = end + 1;
+            int firstEnd = bracketEnd(line, pos);
+            if (firstEnd > 0) {
+                int secondEnd = bracketEnd(line, firstEnd + 1);
+                if (secondEnd > 0) {
+                    runId = line.substring(pos + 2, firstEnd);
+                    proxy = INTERNER.intern(line, firstEnd + 3, secondEnd);
+                    pos = secondEnd + 1;
+                } else {
+                    runId = line.substring(pos + 2, firstEnd);
+                    pos = firstEnd + 1;
+                }
+            }
+        }
+        if (pos < len && line.charAt(pos) == ' ') {
+            pos++;
+        }
+
+        long wall = daysFromCivil(year, month, day) * 24 * 60 * MINUTE_MS
+                + (hour * 60L + minute) * MINUTE_MS + second * 1000L + millis;
+        return new LogRecord(wall - zoneOffset(wall, receivedAt), level, location, runId, proxy,
+                line, pos, true);
+    }
+
+    /**
+     * 在原始行前加上前缀，其余字段不变
+     */
+    public LogRecord withPrefix(String prefix) {
+        return new LogRecord(epochMillis, level, location, runId, proxy, prefix + line,
+                prefix.length() + messageStart, structured);
+    }
+
+    /**
+     * 复制出消息部分，只在需要单独显示消息时调用
+     */
+    public String getMessage() {
+        return line.substring(messageStart);
+    }
+
+    public int getMessageLength() {
+        return line.length() - messageStart;
+    }
+
+    /**
+     * 消息中是否包含 needle，忽略大小写，不复制消息
+     */
+    public boolean messageContains(String needle) {
+        return containsIgnoreCase(line, messageStart, needle);
+    }
+
+    /**
+     * 整行中是否包含 needle，忽略大小写，用于日志搜索
+     */
+    public boolean lineContains(String needle) {
+        return containsIgnoreCase(line, 0, needle);
+    }
+
+    /**
+     * 消息是否以 prefix 开头，忽略大小写
+     */
+    public boolean messageStartsWith(String prefix) {
+        return line.regionMatches(true, messageStart, prefix, 0, prefix.length());
+    }
+
+    @Override
+    public String toString() {
+        return line;
+    }
+
+    /**
+     * frpc 按自身所在的时区输出时间，在 Android 上通常是 UTC 而不是系统时区。
+     * 日志是实时收到的，墙上时间与收到时间之差按 15 分钟取整就是时区偏移
+     */
+    private static long zoneOffset(long wall, long receivedAt) {
+        long diff = wall - receivedAt;
+        long offset = Math.round((double) diff / ZONE_STEP_MS) * ZONE_STEP_MS;
+        if (Math.abs(offset) <= MAX_ZONE_OFFSET_MS) {
+            return offset;
+        }
+        return TimeZone.getDefault().getOffset(wall);
+    }
+
+    private static boolean containsIgnoreCase(String text, int from, String needle) {
+        int last = text.length() - needle.length();
+        for (int i = from; i <= last; i++) {
+            if (text.regionMatches(true, i, needle, 0, needle.length())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 公历日期到 1970-01-01 的天数
+     */
+    private static long daysFromCivil(int year, int month, int day) {
+        year -= month <= 2 ? 1 : 0;
+        long era = (year >= 0 ? year : year - 399) / 400;
+        long yearOfEra = year - era * 400;
+        long dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+
+    /**
+     * @return pos 处 " [xxx]" 的右括号位置，括号内为空或含空格时返回 -1
+     */
+    private static int bracketEnd(String line, int pos) {
+        int len = line.length();
+        if (pos + 3 >= len || line.charAt(pos) != ' ' || line.charAt(pos + 1) != '[') {
+            return -1;
+        }
+        for (int i = pos + 2; i < len; i++) {
+            char c = line.charAt(i);
+            if (c == ']') {
+                return i > pos + 2 ? i : -1;
+            }
+            if (c == ' ' || c == '[') {
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    private static int digits(String s, int start, int count) {
+        int value = 0;
+        for (int i = start; i < start + count; i++) {
+            char c = s.charAt(i);
+            if (!isDigit(c)) {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isDateSeparator(char c) {
+        return c == '-' || c == '/';
+    }
+
+    /**
+     * 源码位置和代理名称的驻留表
+     * 这些字段取值很少，按原始行中的区间直接查找，命中时不分配新字符串。
+     * 开放寻址，写满后不再加入新值，直接返回子串
+     */
+    private static final class Interner {
+        private final String[] table;
+        private final int maxSize;
+        private int size;
+
+        Interner(int capacity) {
+            int tableSize = Integer.highestOneBit(capacity * 2 - 1) << 1;
+            table = new String[tableSize];
+            maxSize = capacity;
+        }
+
+        synchronized String intern(String line, int start, int end) {
+            int length = end - start;
+            int hash = 0;
+            for (int i = start; i < end; i++) {
+                hash = 31 * hash + line.charAt(i);
+            }
+            int mask = table.length - 1;
+            int slot = (hash ^ (hash >>> 16)) & mask;
+            while (true) {
+                String candidate = table[slot];
+                if (candidate == null) {
+                    String value = line.substring(start, end);
+                    if (size < maxSize) {
+                        table[slot] = value;
+                        size++;
+                    }
+                    return value;
+                }
+                if (candidate.length() == length && candidate.regionMatches(0, line, start, length)) {
+                    return candidate;
+                }
+                slot = (slot + 1) & mask;
+            }
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package com.frpc.launcher;
+
+import android.os.Handler;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * 日志后台搜索
+ * 在独立线程中按块读取 LogStore：先用级别位图索引取出匹配级别的行，再在锁外逐行做子串匹配，
+ * 每块的结果立即投递到主线程，界面边搜索边显示。
+ * 每次发起新搜索都会使之前的搜索失效，正在执行的搜索在下一块开始前退出
+ */
+public class LogSearcher {
+    private static final String TAG = "LogSearcher";
+    // 每块扫描的序号数，决定持锁时间和取消的响应速度
+    private static final int CHUNK_SIZE = 256;
+
+    /**
+     * 搜索条件，不可变
+     */
+    public static class Query {
+        // 小写后的关键字，为空表示不按内容过滤
+        public final String text;
+        public final Set<LogRecord.Level> levels;
+
+        public Query(String text, Set<LogRecord.Level> levels) {
+            this.text = text.trim().toLowerCase(Locale.ROOT);
+            this.levels = levels.isEmpty() ? EnumSet.noneOf(LogRecord.Level.class) : EnumSet.copyOf(levels);
+        }
+
+        /**
+         * @return 是否不做任何过滤
+         */
+        public boolean isEmpty() {
+            return text.isEmpty() && levels.size() == LogRecord.Level.values().length;
+        }
+
+        public boolean matches(LogRecord record) {
+            return levels.contains(record.level) && (text.isEmpty() || record.lineContains(text));
+        }
+    }
+
+    public interface Callback {
+        /**
+         * 一块匹配结果，按序号顺序，在主线程回调
+         */
+        void onResults(int generation, List<LogRecord> records);
+
+        /**
+         * 搜索已完成，之后不会再有该次搜索的回调，在主线程回调
+         *
+         * @param matched 匹配的总行数
+         */
+        void onFinished(int generation, int matched);
+    }
+
+    private static class Task {
+        final int generation;
+        final Query query;
+        final long toSeq;
+        final Callback callback;
+
+        Task(int generation, Query query, long toSeq, Callback callback) {
+            this.generation = generation;
+            this.query = query;
+            this.toSeq = toSeq;
+            this.callback = callback;
+        }
+    }
+
+    private final LogStore store;
+    private final Handler handler;
+    // 只保留最新一次搜索，尚未开始的旧搜索直接被替换
+    private Task pending;
+    private volatile int generation = 0;
+    private Thread worker;
+
+    public LogSearcher(LogStore store, Handler handler) {
+        this.store = store;
+        this.handler = handler;
+    }
+
+    /**
+     * 发起搜索，取消之前的搜索
+     *
+     * @param toSeq 只搜索该序号之前的行，之后的新行由调用方按 Query.matches 增量过滤
+     * @return 本次搜索的编号，回调中编号不一致的结果应忽略
+     */
+    public synchronized int search(Query query, long toSeq, Callback callback) {
+        int current = ++generation;
+        pending = new Task(current, query, toSeq, callback);
+        if (worker == null) {
+            worker = new Thread(this::loop, "frpc-log-search");
+            worker.setDaemon(true);
+            worker.start();
+        }
+        notifyAll();
+        return current;
+    }
+
+    /**
+     * 取消正在执行和尚未开始的搜索
+     */
+    public synchronized void cancel() {
+        generation++;
+        pending = null;
+    }
+
+    /**
+     * 停止后台线程，之后不能再使用
+     */
+    public synchronized void shutdown() {
+        cancel();
+        if (worker != null) {
+            worker.interrupt();
+            worker = null;
+        }
+    }
+
+    private void loop() {
+        List<LogRecord> candidates = new ArrayList<>(CHUNK_SIZE);
+        while (true) {
+            Task task;
+            synchronized (this) {
+                try {
+                    while (pending == null) {
+                        wait();
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+                task = pending;
+                pending = null;
+            }
+            run(task, candidates);
+        }
+    }
+
+    private void run(Task task, List<LogRecord> candidates) {
+        int matched = 0;
+        long seq = 0;
+        try {
+            while (seq < task.toSeq) {
+                if (generation != task.generation) {
+                    return;
+                }
+                candidates.clear();
+                long next = store.copyMatching(seq, task.toSeq, CHUNK_SIZE, task.query.levels, candidates);
+                if (next <= seq) {
+                    break;
+                }
+                seq = next;
+                List<LogRecord> results = new ArrayList<>();
+                for (LogRecord record : candidates) {
+                    if (task.query.text.isEmpty() || record.lineContains(task.query.text)) {
+                        results.add(record);
+                    }
+                }
+                if (!results.isEmpty()) {
+                    matched += results.size();
+                    handler.post(() -> task.callback.onResults(task.generation, results));
+                }
+            }
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Log search failed", e);
+        } finally {
+            candidates.clear();
+        }
+        if (generation == task.generation) {
+            final int total = matched;
+            handler.post(() -> task.callback.onFinished(task.generation, total));
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package com.frpc.launcher;
+
+import java.util.BitSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 固定容量的日志环形缓冲区
+ * 由 FrpcService 持有，按行存储解析后的 LogRecord，每行分配一个递增序号，
+ * 日志界面通过序号增量拉取新行，界面关闭期间产生的日志也不会丢失。
+ * 每个级别维护一个按槽位的位图索引，按级别过滤时只访问匹配的槽位
+ */
+public class LogStore {
+    private final LogRecord[] lines;
+    // 下标为 Level 的序数，位为槽位
+    private final BitSet[] levelIndex;
+    // 最早一条仍保留的行的序号
+    private long firstSeq = 0;
+    // 下一行的序号
+    private long nextSeq = 0;
+
+    public LogStore(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        lines = new LogRecord[capacity];
+        LogRecord.Level[] levels = LogRecord.Level.values();
+        levelIndex = new BitSet[levels.length];
+        for (int i = 0; i < levels.length; i++) {
+            levelIndex[i] = new BitSet(capacity);
+        }
+    }
+
+    public int getCapacity() {
+        return lines.length;
+    }
+
+    public synchronized void append(LogRecord record) {
+        int slot = (int) (nextSeq % lines.length);
+        LogRecord old = lines[slot];
+        if (old != null) {
+            levelIndex[old.level.ordinal()].clear(slot);
+        }
+        lines[slot] = record;
+        levelIndex[record.level.ordinal()].set(slot);
+        nextSeq++;
+        if (nextSeq - firstSeq > lines.length) {
+            firstSeq = nextSeq - lines.length;
+        }
+    }
+
+    public synchronized long getFirstSeq() {
+        return firstSeq;
+    }
+
+    public synchronized long getNextSeq() {
+        return nextSeq;
+    }
+
+    public synchronized int size() {
+        return (int) (nextSeq - firstSeq);
+    }
+
+    /**
+     * 将序号 fromSeq 及之后的所有行追加到 out 中
+     * 如果 fromSeq 对应的行已被覆盖，则从最早保留的行开始
+     *
+     * @return 下一次拉取应使用的序号
+     */
+    public synchronized long copySince(long fromSeq, List<LogRecord> out) {
+        for (long seq = Math.max(fromSeq, firstSeq); seq < nextSeq; seq++) {
+            out.add(lines[(int) (seq % lines.length)]);
+        }
+        return nextSeq;
+    }
+
+    /**
+     * 将序号 [fromSeq, toSeq) 中级别属于 levels 的行追加到 out 中，每次最多扫描 maxScan 个序号，
+     * 供后台搜索分块读取，避免长时间持有锁
+     *
+     * @return 下一块应使用的起始序号，返回值不大于 fromSeq 时表示已没有可扫描的行
+     */
+    public synchronized long copyMatching(long fromSeq, long toSeq, int maxScan,
+                                          Set<LogRecord.Level> levels, List<LogRecord> out) {
+        long start = Math.max(fromSeq, firstSeq);
+        long end = Math.max(start, Math.min(Math.min(toSeq, nextSeq), start + maxScan));
+        if (levels.size() == levelIndex.length) {
+            for (long seq = start; seq < end; seq++) {
+                out.add(lines[(int) (seq % lines.length)]);
+            }
+            return end;
+        }
+        BitSet[] selected = new BitSet[levels.size()];
+        int count = 0;
+        for (LogRecord.Level level : levels) {
+            selected[count++] = levelIndex[level.ordinal()];
+        }
+        // 序号区间对应的槽位可能跨过数组末尾，分两段按位图查找
+        int first = (int) (start % lines.length);
+        int length = (int) (end - start);
+        int firstEnd = Math.min(lines.length, first + length);
+        collect(selected, first, firstEnd, out);
+        collect(selected, 0, length - (firstEnd - first), out);
+        return end;
+    }
+
+    /**
+     * 按槽位顺序合并各级别位图中 [from, to) 内的置位
+     */
+    private void collect(BitSet[] selected, int from, int to, List<LogRecord> out) {
+        int slot = from;
+        while (slot < to) {
+            int next = -1;
+            for (BitSet bits : selected) {
+                int candidate = bits.nextSetBit(slot);
+                if (candidate >= 0 && (next < 0 || candidate < next)) {
+                    next = candidate;
+                }
+            }
+            if (next < 0 || next >= to) {
+                return;
+            }
+            out.add(lines[next]);
+            slot = next + 1;
+        }
+    }
+
+    /**
+     * 清空缓冲区，序号继续递增，已持有旧序号的读者不会重复读取
+     */
+    public synchronized void clear() {
+        for (int i = 0; i < lines.length; i++) {
+            lines[i] = null;
+        }
+        for (BitSet bits : levelIndex) {
+            bits.clear();
+        }
+        firstSeq = nextSeq;
+    }
+}
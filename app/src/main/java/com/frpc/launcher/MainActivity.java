@@ -1,16 +1,15 @@
 package com.frpc.launcher;
 
 import android.Manifest;
-import android.annotation.SuppressLint;
-import android.content.BroadcastReceiver;
 import android.content.ClipData;
 import android.content.ClipboardManager;
+import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
-import android.content.IntentFilter;
+import android.content.ServiceConnection;
 import android.content.pm.PackageManager;
-import android.os.Build;
 import android.os.Bundle;
+import android.os.IBinder;
 import android.util.Log;
 import android.view.View;
 import android.widget.Button;
@@ -18,8 +17,6 @@ import android.widget.LinearLayout;
 import android.widget.TextView;
 import android.widget.Toast;
 
-import java.io.OutputStream;
-
 import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.appcompat.widget.Toolbar;
@@ -27,6 +24,9 @@ import androidx.cardview.widget.CardView;
 import androidx.core.app.ActivityCompat;
 import androidx.core.content.ContextCompat;
 
+import java.util.List;
+import java.util.Map;
+
 public class MainActivity extends AppCompatActivity {
     private static final int PERMISSION_REQUEST_CODE = 1001;
     private Button btnStart;
@@ -38,12 +38,36 @@ public class MainActivity extends AppCompatActivity {
     private TextView tvRootStatus;
     private TextView tvStatus;
     private TextView tvInfo;
+    private TextView tvProxies;
+    private TrafficChartView trafficChart;
+    private TextView tvTraffic;
     private TextView tvConnection;
     private LinearLayout llConnection;
-    private BroadcastReceiver errorReceiver;
-    private BroadcastReceiver startedReceiver;
+    // 默认实例最近收到的状态快照
+    private ServiceState defaultState = ServiceState.initial(FrpcInstance.DEFAULT_ID);
+    // 绑定成功后才有值，界面不可见时解除绑定
+    private FrpcService.LocalBinder service;
+    private final FrpcService.StateListener stateListener = this::onStateChanged;
+    private final FrpcService.StatusListener statusListener = this::updateUI;
+    private final FrpcService.TrafficListener trafficListener = this::updateTraffic;
+    private final ServiceConnection connection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder binder) {
+            service = (FrpcService.LocalBinder) binder;
+            // 注册时立即收到当前状态，之后由服务推送，不再轮询
+            service.addStateListener(stateListener);
+            service.addStatusListener(statusListener);
+            // 界面可见期间才采样流量
+            service.addTrafficListener(trafficListener);
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+            service = null;
+            updateUI();
+        }
+    };
 
-    @SuppressLint("UnspecifiedRegisterReceiverFlag")
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -64,6 +88,9 @@ public class MainActivity extends AppCompatActivity {
             tvRootStatus = findViewById(R.id.tvRootStatus);
             tvStatus = findViewById(R.id.tvStatus);
             tvInfo = findViewById(R.id.tvInfo);
+            tvProxies = findViewById(R.id.tvProxies);
+            trafficChart = findViewById(R.id.trafficChart);
+            tvTraffic = findViewById(R.id.tvTraffic);
             tvConnection = findViewById(R.id.tvConnection);
             llConnection = findViewById(R.id.llConnection);
 
@@ -96,33 +123,6 @@ public class MainActivity extends AppCompatActivity {
         });
         btnCopyConnection.setOnClickListener(v -> copyConnectionToClipboard());
 
-        // 注册错误接收器
-        errorReceiver = new BroadcastReceiver() {
-            @Override
-            public void onReceive(Context context, Intent intent) {
-                String errorMsg = intent.getStringExtra(FrpcService.EXTRA_ERROR_MESSAGE);
-                if (errorMsg != null) {
-                    showErrorDialog(errorMsg);
-                    // 错误信息会通过 ACTION_OUTPUT 广播自动发送到 LogActivity
-                }
-            }
-        };
-        registerReceiverCompat(errorReceiver, FrpcService.ACTION_ERROR);
-        
-        // 注册启动成功接收器
-        startedReceiver = new BroadcastReceiver() {
-            @Override
-            public void onReceive(Context context, Intent intent) {
-                if (FrpcService.ACTION_STARTED.equals(intent.getAction())) {
-                    // 延迟一下，确保remotePort已经设置
-                    new android.os.Handler(android.os.Looper.getMainLooper()).postDelayed(() -> {
-                        updateUI();
-                    }, 500);
-                }
-            }
-        };
-        registerReceiverCompat(startedReceiver, FrpcService.ACTION_STARTED);
-
         updateUI();
         } catch (Exception e) {
             Log.e("MainActivity", "Error in onCreate", e);
@@ -169,19 +169,8 @@ public class MainActivity extends AppCompatActivity {
     }
     
     private boolean isRootAvailable() {
-        try {
-            // 尝试执行su命令
-            Process process = Runtime.getRuntime().exec("su");
-            OutputStream os = process.getOutputStream();
-            os.write("exit\n".getBytes());
-            os.flush();
-            os.close();
-            
-            int exitValue = process.waitFor();
-            return exitValue == 0;
-        } catch (Exception e) {
-            return false;
-        }
+        // 与服务共用常驻root shell，检测后 shell 保持运行，启动frpc时不需要再次启动su
+        return RootShell.getInstance().isAvailable();
     }
     
     private void showRootWarningDialog() {
@@ -199,45 +188,71 @@ public class MainActivity extends AppCompatActivity {
     }
 
     private void startFrpc() {
-        Intent intent = new Intent(this, FrpcService.class);
-        intent.setAction(FrpcService.ACTION_START);
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-            startForegroundService(intent);
-        } else {
-            startService(intent);
+        if (service == null) {
+            Toast.makeText(this, "服务尚未连接，请稍后重试", Toast.LENGTH_SHORT).show();
+            return;
         }
-        updateUI();
+        service.start();
         Toast.makeText(this, "正在启动frpc...", Toast.LENGTH_SHORT).show();
     }
 
     private void stopFrpc() {
-        Intent intent = new Intent(this, FrpcService.class);
-        intent.setAction(FrpcService.ACTION_STOP);
-        stopService(intent);
-        updateUI();
+        if (service == null) {
+            Toast.makeText(this, "服务尚未连接，请稍后重试", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        service.stop();
         Toast.makeText(this, "正在停止frpc...", Toast.LENGTH_SHORT).show();
     }
 
+    /**
+     * 服务推送的状态快照，失败时弹出一次错误提示
+     */
+    private void onStateChanged(ServiceState state) {
+        if (state.phase == ServiceState.Phase.FAILED && state.error != null) {
+            showErrorDialog(FrpcInstance.DEFAULT_ID.equals(state.instanceId)
+                    ? state.error : "[" + state.instanceId + "] " + state.error);
+            if (service != null) {
+                service.clearError(state.instanceId);
+            }
+        }
+        if (FrpcInstance.DEFAULT_ID.equals(state.instanceId)) {
+            defaultState = state;
+        }
+        updateUI();
+    }
+
     private void updateUI() {
         try {
-            boolean isRunning = FrpcService.isRunning();
-            btnStart.setEnabled(!isRunning);
-            btnStop.setEnabled(isRunning);
-            tvStatus.setText(isRunning ? "运行中" : "已停止");
-            tvStatus.setTextColor(isRunning ?
-                    getResources().getColor(android.R.color.holo_green_dark) :
-                    getResources().getColor(android.R.color.darker_gray));
+            ServiceState state = defaultState;
+            FrpcService.LocalBinder service = this.service;
+            // 配置了多个实例时，任一实例运行都视为运行中
+            boolean isRunning = state.isReady() || (service != null && service.isRunning());
+            boolean active = isRunning || !state.phase.isInactive();
+            btnStart.setEnabled(!active);
+            btnStop.setEnabled(active);
+            ServiceState.Phase shownPhase = isRunning ? ServiceState.Phase.READY : state.phase;
+            tvStatus.setText(shownPhase.label);
+            tvStatus.setTextColor(getResources().getColor(colorOf(shownPhase)));
 
-            if (isRunning) {
-                String info = FrpcService.getLastInfo();
-                tvInfo.setText(info != null ? info : "frpc正在运行");
+            if (isRunning && service != null) {
+                // 拿到管理接口的代理状态后显示实际状态，之前先显示启动时的分配结果
+                String info = service.getProxyStatuses().isEmpty() ? state.info : null;
+                if (info == null) {
+                    info = "frpc正在运行";
+                }
+                // 配置了多个实例时显示汇总状态
+                if (service.getInstanceCount() > 1) {
+                    info = info + "\n" + service.getInstanceSummary();
+                }
+                tvInfo.setText(info);
+                updateProxyStatuses(service);
                 
                 // 显示连接信息
                 try {
-                    String connectionInfo = FrpcService.getConnectionInfo();
-                    int remotePort = FrpcService.getRemotePort();
-                    Log.d("MainActivity", "Connection info: " + connectionInfo + ", remotePort: " + remotePort);
-                    if (connectionInfo != null && !connectionInfo.isEmpty() && remotePort > 0) {
+                    String connectionInfo = state.connectionInfo;
+                    Log.d("MainActivity", "Connection info: " + connectionInfo + ", remotePort: " + state.remotePort);
+                    if (connectionInfo != null && !connectionInfo.isEmpty()) {
                         tvConnection.setText(connectionInfo);
                         llConnection.setVisibility(View.VISIBLE);
                         Log.d("MainActivity", "Displaying connection: " + connectionInfo);
@@ -253,6 +268,10 @@ public class MainActivity extends AppCompatActivity {
                 }
             } else {
                 tvInfo.setText("");
+                tvProxies.setText("");
+                tvProxies.setVisibility(View.GONE);
+                trafficChart.setVisibility(View.GONE);
+                tvTraffic.setVisibility(View.GONE);
                 tvConnection.setText("");
                 llConnection.setVisibility(View.GONE);
             }
@@ -264,55 +283,112 @@ public class MainActivity extends AppCompatActivity {
         }
     }
 
-    @Override
-    protected void onResume() {
-        super.onResume();
-        updateUI();
-        // 检查是否有错误
-        String error = FrpcService.getLastError();
-        if (error != null) {
-            showErrorDialog(error);
-            FrpcService.clearError();
+    private static int colorOf(ServiceState.Phase phase) {
+        switch (phase) {
+            case READY:
+                return android.R.color.holo_green_dark;
+            case FAILED:
+                return android.R.color.holo_red_dark;
+            case IDLE:
+                return android.R.color.darker_gray;
+            default:
+                return android.R.color.holo_orange_dark;
         }
     }
 
     /**
-     * 兼容方法：注册 BroadcastReceiver，自动处理不同 Android 版本的 API 差异
-     * Android 13+ 需要指定 RECEIVER_NOT_EXPORTED 标志
-     * 三参数版本需要 API 26+
+     * 显示管理接口报告的每个代理的实际状态、frpc 日志中各代理最近的警告和本地服务的探测结果
      */
-    @SuppressLint("UnspecifiedRegisterReceiverFlag")
-    private void registerReceiverCompat(BroadcastReceiver receiver, String action) {
-        try {
-            if (receiver == null || action == null) {
-                Log.e("MainActivity", "Invalid receiver or action");
-                return;
+    private void updateProxyStatuses(FrpcService.LocalBinder service) {
+        List<ProxyStatus> statuses = service.getProxyStatuses();
+        List<TargetProber.Result> targets = service.getTargetStatuses();
+        Map<String, LogRecord> problems = service.getProxyProblems();
+        if (statuses.isEmpty() && targets.isEmpty() && problems.isEmpty()) {
+            tvProxies.setText("");
+            tvProxies.setVisibility(View.GONE);
+            return;
+        }
+        StringBuilder sb = new StringBuilder();
+        for (ProxyStatus status : statuses) {
+            if (sb.length() > 0) {
+                sb.append('\n');
+            }
+            sb.append(status.isRunning() ? "● " : "○ ")
+                    .append(status.name).append(" (").append(status.type).append(")  ")
+                    .append(status.status);
+            if (!status.remoteAddr.isEmpty()) {
+                sb.append("  ").append(status.remoteAddr);
+            }
+            if (!status.error.isEmpty()) {
+                sb.append("\n    ").append(status.error);
+            } else if (problems.containsKey(status.name)) {
+                sb.append("\n    ").append(problems.get(status.name).getMessage());
+            }
+        }
+        // 管理接口不可用时只能从日志得知代理的问题
+        if (statuses.isEmpty()) {
+            for (LogRecord record : problems.values()) {
+                if (sb.length() > 0) {
+                    sb.append('\n');
+                }
+                sb.append("⚠ ").append(record.proxy).append("  ").append(record.getMessage());
             }
-            IntentFilter filter = new IntentFilter(action);
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
-                // Android 13+ (API 33+)
-                registerReceiver(receiver, filter, Context.RECEIVER_NOT_EXPORTED);
-            } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-                // Android 8.0+ (API 26-32)，使用三参数版本但不设置标志
-                registerReceiver(receiver, filter, 0);
+        }
+        // 本地服务的探测结果
+        for (TargetProber.Result target : targets) {
+            if (sb.length() > 0) {
+                sb.append('\n');
+            }
+            sb.append(target.reachable ? "✓ " : "✗ ").append("本地 ").append(target.name)
+                    .append(" → ").append(target.address);
+            if (target.reachable) {
+                sb.append("  ").append(target.latencyMs).append("ms");
             } else {
-                // Android 7.1 及以下 (API 21-25)，使用两参数版本
-                registerReceiver(receiver, filter);
+                sb.append("  无法连接: ").append(target.error);
             }
-        } catch (Exception e) {
-            Log.e("MainActivity", "Error registering receiver for action: " + action, e);
         }
+        tvProxies.setText(sb);
+        tvProxies.setVisibility(View.VISIBLE);
     }
 
-    @Override
-    protected void onDestroy() {
-        super.onDestroy();
-        if (errorReceiver != null) {
-            unregisterReceiver(errorReceiver);
+    /**
+     * 显示最近一次采样的读写速率、每个代理的连接数和最近10分钟的曲线
+     */
+    private void updateTraffic() {
+        FrpcService.LocalBinder service = this.service;
+        if (service == null || !service.isRunning()) {
+            return;
+        }
+        TrafficSampler sampler = service.getTrafficSampler();
+        StringBuilder sb = new StringBuilder();
+        sb.append("读取 ").append(TrafficChartView.formatRate(sampler.getCurrentReadRate()))
+                .append("  写入 ").append(TrafficChartView.formatRate(sampler.getCurrentWriteRate()));
+        for (Map.Entry<String, Integer> entry : sampler.getCurrentConnections().entrySet()) {
+            sb.append('\n').append(entry.getKey()).append("  连接 ").append(entry.getValue());
         }
-        if (startedReceiver != null) {
-            unregisterReceiver(startedReceiver);
+        tvTraffic.setText(sb);
+        tvTraffic.setVisibility(View.VISIBLE);
+        trafficChart.setSamples(sampler.getFineRing());
+        trafficChart.setVisibility(View.VISIBLE);
+    }
+
+    @Override
+    protected void onStart() {
+        super.onStart();
+        // 界面可见期间绑定服务，未启动frpc时服务只因绑定而创建，解除绑定后自动销毁
+        bindService(new Intent(this, FrpcService.class), connection, Context.BIND_AUTO_CREATE);
+    }
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+        if (service != null) {
+            service.removeStateListener(stateListener);
+            service.removeStatusListener(statusListener);
+            service.removeTrafficListener(trafficListener);
+            service = null;
         }
+        unbindService(connection);
     }
 
     private void showErrorDialog(String message) {
@@ -324,7 +400,7 @@ public class MainActivity extends AppCompatActivity {
     }
     
     private void copyConnectionToClipboard() {
-        String connectionInfo = FrpcService.getConnectionInfo();
+        String connectionInfo = defaultState.connectionInfo;
         if (connectionInfo != null && !connectionInfo.isEmpty()) {
             ClipboardManager clipboard = (ClipboardManager) getSystemService(Context.CLIPBOARD_SERVICE);
             ClipData clip = ClipData.newPlainText("Frpc连接信息", connectionInfo);
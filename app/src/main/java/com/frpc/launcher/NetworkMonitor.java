@@ -0,0 +1,184 @@
+package com.frpc.launcher;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.LinkAddress;
+import android.net.LinkProperties;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.net.NetworkInfo;
+import android.net.NetworkRequest;
+import android.os.Build;
+import android.os.Handler;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 默认网络监视器
+ * 默认网络切换（如 Wi-Fi 与移动数据之间）或本机地址变化时回调 onNetworkChanged，
+ * 没有可用网络时回调 onNetworkLost。切换过程中系统往往先后报告断开和连接，
+ * 两种回调都经过去抖，只报告稳定后的结果。
+ * Android 7.0 以下没有默认网络回调，用具备 INTERNET 能力的网络请求近似
+ */
+public class NetworkMonitor {
+    private static final String TAG = "NetworkMonitor";
+    private static final long DEBOUNCE_MS = 1500;
+
+    public interface Listener {
+        /**
+         * 默认网络已切换或地址已变化，在主线程回调
+         */
+        void onNetworkChanged();
+
+        /**
+         * 已没有可用网络，在主线程回调
+         */
+        void onNetworkLost();
+    }
+
+    private final ConnectivityManager connectivityManager;
+    private final Handler handler;
+    private final Runnable notifyChanged;
+    private final Runnable notifyLost;
+    private final ConnectivityManager.NetworkCallback callback = new ConnectivityManager.NetworkCallback() {
+        @Override
+        public void onAvailable(Network network) {
+            handler.post(() -> handleAvailable(network));
+        }
+
+        @Override
+        public void onLost(Network network) {
+            handler.post(() -> handleLost(network));
+        }
+
+        @Override
+        public void onLinkPropertiesChanged(Network network, LinkProperties linkProperties) {
+            List<LinkAddress> addresses = linkProperties.getLinkAddresses();
+            // 复制一份，回调返回后系统可能复用该对象
+            List<LinkAddress> copy = addresses != null ? new ArrayList<>(addresses) : null;
+            handler.post(() -> handleLinkProperties(network, copy));
+        }
+    };
+
+    // 以下字段只在 handler 线程中访问
+    private Network current;
+    private List<LinkAddress> currentAddresses;
+    // 注册后系统会先报告一次当前网络，这次不算切换
+    private boolean initialized;
+    private boolean registered;
+    private volatile boolean available = true;
+
+    public NetworkMonitor(Context context, Handler handler, Listener listener) {
+        this.connectivityManager = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        this.handler = handler;
+        this.notifyChanged = listener::onNetworkChanged;
+        this.notifyLost = listener::onNetworkLost;
+    }
+
+    /**
+     * 开始监听，需在 handler 线程调用
+     */
+    public void start() {
+        if (registered || connectivityManager == null) {
+            return;
+        }
+        available = isActiveNetworkConnected();
+        // 注册时没有网络，之后出现的第一个网络就是恢复
+        initialized = !available;
+        try {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+                connectivityManager.registerDefaultNetworkCallback(callback);
+            } else {
+                NetworkRequest request = new NetworkRequest.Builder()
+                        .addCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET)
+                        .build();
+                connectivityManager.registerNetworkCallback(request, callback);
+            }
+            registered = true;
+        } catch (RuntimeException e) {
+            // 缺少 ACCESS_NETWORK_STATE 权限或系统回调数量达到上限
+            Log.e(TAG, "Failed to register network callback", e);
+        }
+    }
+
+    public void stop() {
+        handler.removeCallbacks(notifyChanged);
+        handler.removeCallbacks(notifyLost);
+        if (!registered) {
+            return;
+        }
+        try {
+            connectivityManager.unregisterNetworkCallback(callback);
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Failed to unregister network callback", e);
+        }
+        registered = false;
+    }
+
+    /**
+     * @return 当前是否有可用网络，未能注册回调时总是返回 true
+     */
+    public boolean isAvailable() {
+        return available;
+    }
+
+    private void handleAvailable(Network network) {
+        if (network.equals(current)) {
+            return;
+        }
+        current = network;
+        currentAddresses = null;
+        available = true;
+        handler.removeCallbacks(notifyLost);
+        if (!initialized) {
+            initialized = true;
+            return;
+        }
+        Log.d(TAG, "Default network changed: " + network);
+        scheduleChanged();
+    }
+
+    private void handleLost(Network network) {
+        if (!network.equals(current)) {
+            return;
+        }
+        Log.d(TAG, "Default network lost: " + network);
+        current = null;
+        currentAddresses = null;
+        initialized = true;
+        if (isActiveNetworkConnected()) {
+            // 仍有其他网络可用（Android 7.0 以下不会再为它回调 onAvailable），按切换处理
+            scheduleChanged();
+            return;
+        }
+        available = false;
+        handler.removeCallbacks(notifyChanged);
+        handler.removeCallbacks(notifyLost);
+        handler.postDelayed(notifyLost, DEBOUNCE_MS);
+    }
+
+    private void handleLinkProperties(Network network, List<LinkAddress> addresses) {
+        if (!network.equals(current) || addresses == null) {
+            return;
+        }
+        boolean changed = currentAddresses != null && !currentAddresses.equals(addresses);
+        currentAddresses = addresses;
+        if (changed) {
+            Log.d(TAG, "Addresses changed on " + network + ": " + addresses);
+            scheduleChanged();
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    private boolean isActiveNetworkConnected() {
+        NetworkInfo info = connectivityManager.getActiveNetworkInfo();
+        return info != null && info.isConnected();
+    }
+
+    private void scheduleChanged() {
+        handler.removeCallbacks(notifyChanged);
+        handler.postDelayed(notifyChanged, DEBOUNCE_MS);
+    }
+}
@@ -0,0 +1,182 @@
+package com.frpc.launcher;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 多个进程共用的输出读取器
+ * 每个进程的标准输出和标准错误各由线程池中的一个任务阻塞读取，没有数据时线程挂起，
+ * 不轮询也不检查 available()。按字节切分行，读取缓冲区和行缓冲区在任务之间复用，
+ * 去掉 ANSI 转义序列后按 UTF-8 解码，每行只生成一个字符串；来源通过 Source 传给 Sink，不拼接前缀。
+ * 同一进程的回调串行执行，两个流都读完后等待进程退出并回调 onExit
+ */
+public class ProcessOutputReader {
+    private static final String TAG = "ProcessOutputReader";
+    private static final int READ_BUFFER_SIZE = 8192;
+    private static final int INITIAL_LINE_CAPACITY = 256;
+    // 单行最大字节数，超出部分丢弃，防止没有换行的输出无限占用内存
+    private static final int MAX_LINE_BYTES = 64 * 1024;
+
+    public enum Source {
+        STDOUT,
+        STDERR
+    }
+
+    public interface Sink {
+        /**
+         * 读到一行输出，已去掉换行符和 ANSI 转义序列，在读取线程中调用
+         */
+        void onLine(Source source, String line);
+
+        /**
+         * 进程已退出且两个流都已读完，在读取线程中调用，之后不会再有回调
+         */
+        void onExit(int exitCode);
+    }
+
+    /**
+     * 读取任务使用的缓冲区，任务结束后放回池中
+     */
+    private static class Buffers {
+        final byte[] read = new byte[READ_BUFFER_SIZE];
+        // 尚未遇到换行的部分
+        byte[] line = new byte[INITIAL_LINE_CAPACITY];
+        int length;
+    }
+
+    private static class Entry {
+        final Process process;
+        final Sink sink;
+        // 两个流中尚未读完的数量，最后读完的任务负责回调 onExit
+        final AtomicInteger openStreams = new AtomicInteger(2);
+
+        Entry(Process process, Sink sink) {
+            this.process = process;
+            this.sink = sink;
+        }
+    }
+
+    private final ExecutorService executor;
+    private final ConcurrentLinkedQueue<Buffers> bufferPool = new ConcurrentLinkedQueue<>();
+
+    public ProcessOutputReader(String name) {
+        AtomicInteger threadCount = new AtomicInteger();
+        // 线程数随运行中的进程数增减，空闲的线程一段时间后退出
+        executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + threadCount.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * 开始读取进程的输出
+     */
+    public void register(Process process, Sink sink) {
+        Entry entry = new Entry(process, sink);
+        executor.execute(() -> read(entry, process.getInputStream(), Source.STDOUT));
+        executor.execute(() -> read(entry, process.getErrorStream(), Source.STDERR));
+    }
+
+    private void read(Entry entry, InputStream in, Source source) {
+        Buffers buffers = bufferPool.poll();
+        if (buffers == null) {
+            buffers = new Buffers();
+        }
+        try {
+            int n;
+            while ((n = in.read(buffers.read, 0, buffers.read.length)) >= 0) {
+                split(entry, source, buffers, n);
+            }
+        } catch (IOException e) {
+            // 进程被销毁后流会被关闭
+        } finally {
+            // 输出最后一个没有换行的行
+            if (buffers.length > 0) {
+                emit(entry, source, buffers);
+            }
+            try {
+                in.close();
+            } catch (IOException e) {
+                Log.w(TAG, "Failed to close stream", e);
+            }
+            bufferPool.offer(buffers);
+        }
+        if (entry.openStreams.decrementAndGet() == 0) {
+            finish(entry);
+        }
+    }
+
+    private static void split(Entry entry, Source source, Buffers buffers, int count) {
+        byte[] buffer = buffers.read;
+        int start = 0;
+        for (int i = 0; i < count; i++) {
+            if (buffer[i] == '\n') {
+                append(buffers, start, i - start);
+                emit(entry, source, buffers);
+                start = i + 1;
+            }
+        }
+        append(buffers, start, count - start);
+    }
+
+    private static void append(Buffers buffers, int offset, int count) {
+        int room = MAX_LINE_BYTES - buffers.length;
+        count = Math.min(count, room);
+        if (count <= 0) {
+            return;
+        }
+        if (buffers.length + count > buffers.line.length) {
+            int capacity = Math.min(MAX_LINE_BYTES,
+                    Math.max(buffers.line.length * 2, buffers.length + count));
+            byte[] grown = new byte[capacity];
+            System.arraycopy(buffers.line, 0, grown, 0, buffers.length);
+            buffers.line = grown;
+        }
+        System.arraycopy(buffers.read, offset, buffers.line, buffers.length, count);
+        buffers.length += count;
+    }
+
+    private static void emit(Entry entry, Source source, Buffers buffers) {
+        int length = buffers.length;
+        buffers.length = 0;
+        if (length > 0 && buffers.line[length - 1] == '\r') {
+            length--;
+        }
+        length = AnsiCodes.strip(buffers.line, length);
+        String line = new String(buffers.line, 0, length, StandardCharsets.UTF_8);
+        // 两个流在不同线程中读取，同一进程的回调仍然串行
+        synchronized (entry) {
+            try {
+                entry.sink.onLine(source, line);
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Output sink failed", e);
+            }
+        }
+    }
+
+    private static void finish(Entry entry) {
+        int exitCode;
+        try {
+            exitCode = entry.process.waitFor();
+        } catch (InterruptedException e) {
+            Log.w(TAG, "Interrupted while waiting for process exit", e);
+            Thread.currentThread().interrupt();
+            exitCode = -1;
+        }
+        synchronized (entry) {
+            try {
+                entry.sink.onExit(exitCode);
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Output sink failed on exit", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,279 @@
+package com.frpc.launcher;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 以 root 身份结束 frpc 进程
+ * frpc 通过 su -c 启动，Process.destroy() 只能结束本应用的 su 包装进程，真正的 frpc 属于 root，
+ * 常常继续运行并占用端口。这里通过常驻 root shell 向 frpc 所在的进程组发送 SIGTERM，
+ * 超过期限仍未退出时改发 SIGKILL，并轮询 /proc 确认进程已经消失。
+ * 所有方法都会阻塞，需在后台线程调用
+ */
+public class ProcessReaper {
+    private static final String TAG = "ProcessReaper";
+    private static final long POLL_INTERVAL_MS = 100;
+    // 发送 SIGKILL 后等待进程消失的时间
+    private static final long KILL_WAIT_MS = 2000;
+    // /proc/<pid>/stat 中右括号之后的字段位置（从 state 开始计数）
+    private static final int STAT_PGRP = 2;
+    private static final int STAT_START_TIME = 19;
+
+    private final RootShell rootShell;
+    // 本应用自己的进程组，任何情况下都不向它发送信号
+    private final int ownGroup;
+
+    public ProcessReaper(RootShell rootShell) {
+        this.rootShell = rootShell;
+        String[] stat = readOwnStat();
+        this.ownGroup = stat != null ? parseInt(stat[STAT_PGRP]) : -1;
+    }
+
+    /**
+     * 结束进程及其所在的进程组，先 SIGTERM，graceMs 后仍存活则 SIGKILL
+     *
+     * @return 进程是否已确认退出
+     */
+    public boolean terminate(int pid, long graceMs) {
+        if (pid <= 0) {
+            return true;
+        }
+        String[] stat = readStat(pid);
+        if (stat == null) {
+            return true;
+        }
+        int group = parseInt(stat[STAT_PGRP]);
+        long startTime = parseLong(stat[STAT_START_TIME]);
+        // su 为每条命令创建新的会话，进程组内是 sh -c 和 frpc；取不到进程组时只结束进程本身
+        String target = group > 1 && group != ownGroup ? "-- -" + group : String.valueOf(pid);
+        if (!isSameFrpc(pid, startTime)) {
+            return true;
+        }
+        signal("TERM", target, pid);
+        if (waitForExit(pid, graceMs)) {
+            Log.d(TAG, "Process " + pid + " exited after SIGTERM");
+            return true;
+        }
+        // 等待期间进程号可能已被回收并分配给其他进程，发送 SIGKILL 前再确认一次
+        if (!isSameFrpc(pid, startTime)) {
+            return true;
+        }
+        Log.w(TAG, "Process " + pid + " ignored SIGTERM for " + graceMs + "ms, sending SIGKILL");
+        signal("KILL", target, pid);
+        if (waitForExit(pid, KILL_WAIT_MS)) {
+            return true;
+        }
+        Log.e(TAG, "Process " + pid + " still alive after SIGKILL");
+        return false;
+    }
+
+    /**
+     * 查找可执行文件路径以 executablePrefix 开头的进程
+     *
+     * @param argument 命令行中必须包含的参数，为 null 时不检查
+     * @return 匹配的进程号，可能为空
+     */
+    public List<Integer> find(String executablePrefix, String argument) {
+        List<Integer> pids = new ArrayList<>();
+        // 只输出 argv[0] 匹配的进程号，cmdline 中的参数以 \0 分隔
+        StringBuilder cmd = new StringBuilder();
+        cmd.append("for d in /proc/[0-9]*; do ")
+                .append("a=$(tr '\\0' '\\n' < $d/cmdline 2>/dev/null | head -n 1); ")
+                .append("case \"$a\" in ").append(RootShell.quote(executablePrefix)).append("*) ");
+        if (argument != null) {
+            cmd.append("tr '\\0' '\\n' < $d/cmdline 2>/dev/null | grep -qxF -e ").append(RootShell.quote(argument))
+                    .append(" && ");
+        }
+        cmd.append("echo ${d#/proc/};; esac; done; true");
+        try {
+            RootShell.Result result = rootShell.exec(cmd.toString());
+            for (String line : result.output) {
+                int pid = parseInt(line.trim());
+                if (pid > 0) {
+                    pids.add(pid);
+                }
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to scan /proc", e);
+        }
+        return pids;
+    }
+
+    /**
+     * 结束之前运行遗留下来的进程：可执行文件路径以 executablePrefix 开头，且早于本应用进程启动，
+     * 本进程内启动的 frpc 不受影响
+     *
+     * @return 已结束的进程数
+     */
+    public int reapOrphans(String executablePrefix, long graceMs) {
+        String[] own = readOwnStat();
+        if (own == null) {
+            Log.w(TAG, "Cannot read own start time, skip reaping");
+            return 0;
+        }
+        long ownStart = parseLong(own[STAT_START_TIME]);
+        int reaped = 0;
+        for (int pid : find(executablePrefix, null)) {
+            String[] stat = readStat(pid);
+            if (stat == null || parseLong(stat[STAT_START_TIME]) >= ownStart) {
+                continue;
+            }
+            Log.w(TAG, "Reaping orphaned frpc process " + pid);
+            if (terminate(pid, graceMs)) {
+                reaped++;
+            }
+        }
+        return reaped;
+    }
+
+    /**
+     * 等待本应用的 su 包装进程退出，API 26 以下没有带超时的 waitFor，按间隔轮询
+     *
+     * @return 是否已在期限内退出
+     */
+    public static boolean waitFor(Process process, long timeoutMs) {
+        long deadline = SystemClock.elapsedRealtime() + timeoutMs;
+        while (true) {
+            try {
+                process.exitValue();
+                return true;
+            } catch (IllegalThreadStateException e) {
+                // 仍在运行
+            }
+            if (SystemClock.elapsedRealtime() >= deadline) {
+                return false;
+            }
+            try {
+                Thread.sleep(POLL_INTERVAL_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+    }
+
+    /**
+     * 确认进程号仍属于同一个 frpc：启动时间未变且可执行文件位于暂存目录，
+     * 防止进程退出后进程号被复用时误杀其他进程
+     */
+    private boolean isSameFrpc(int pid, long startTime) {
+        String[] stat = readStat(pid);
+        if (stat == null || parseLong(stat[STAT_START_TIME]) != startTime) {
+            Log.d(TAG, "Process " + pid + " is gone or was replaced, skip signalling");
+            return false;
+        }
+        try {
+            RootShell.Result result = rootShell.exec("tr '\\0' '\\n' < /proc/" + pid
+                    + "/cmdline 2>/dev/null | head -n 1");
+            if (result.output.isEmpty()
+                    || !result.output.get(0).startsWith(BinaryStager.getStagedPathPrefix())) {
+                Log.w(TAG, "Process " + pid + " is not a staged frpc, skip signalling");
+                return false;
+            }
+            return true;
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to read cmdline of " + pid, e);
+            return false;
+        }
+    }
+
+    private void signal(String name, String target, int pid) {
+        try {
+            // 部分 kill 实现不支持进程组，失败时退回到只结束进程本身
+            rootShell.exec("kill -" + name + " " + target + " 2>/dev/null || kill -" + name + " " + pid
+                    + " 2>/dev/null; true");
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to send SIG" + name + " to " + pid, e);
+        }
+    }
+
+    /**
+     * @return 进程是否已在期限内消失，僵尸进程视为已退出
+     */
+    private boolean waitForExit(int pid, long timeoutMs) {
+        long deadline = SystemClock.elapsedRealtime() + timeoutMs;
+        String check = "[ -d /proc/" + pid + " ] && ! grep -q '^State:[[:space:]]*Z' /proc/" + pid + "/status";
+        while (true) {
+            try {
+                if (!rootShell.exec(check).isSuccess()) {
+                    return true;
+                }
+            } catch (IOException e) {
+                Log.w(TAG, "Failed to check process " + pid, e);
+                return false;
+            }
+            if (SystemClock.elapsedRealtime() >= deadline) {
+                return false;
+            }
+            try {
+                Thread.sleep(POLL_INTERVAL_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+    }
+
+    /**
+     * 通过 root shell 读取其他用户进程的 stat，进程不存在时返回 null
+     */
+    private String[] readStat(int pid) {
+        try {
+            RootShell.Result result = rootShell.exec("cat /proc/" + pid + "/stat 2>/dev/null");
+            return result.isSuccess() && !result.output.isEmpty() ? splitStat(result.output.get(0)) : null;
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to read stat of " + pid, e);
+            return null;
+        }
+    }
+
+    private static String[] readOwnStat() {
+        try (InputStream in = new FileInputStream("/proc/self/stat")) {
+            byte[] buffer = new byte[1024];
+            int length = 0;
+            int n;
+            while (length < buffer.length && (n = in.read(buffer, length, buffer.length - length)) > 0) {
+                length += n;
+            }
+            return splitStat(new String(buffer, 0, length, StandardCharsets.UTF_8).trim());
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to read /proc/self/stat", e);
+            return null;
+        }
+    }
+
+    /**
+     * 进程名在括号中且可能含空格，从最后一个右括号之后开始按空格拆分
+     */
+    private static String[] splitStat(String stat) {
+        int end = stat.lastIndexOf(')');
+        if (end < 0 || end + 2 > stat.length()) {
+            return null;
+        }
+        String[] fields = stat.substring(end + 2).split(" ");
+        return fields.length > STAT_START_TIME ? fields : null;
+    }
+
+    private static int parseInt(String value) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static long parseLong(String value) {
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return Long.MAX_VALUE;
+        }
+    }
+}
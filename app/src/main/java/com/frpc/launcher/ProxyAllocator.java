@@ -0,0 +1,187 @@
+package com.frpc.launcher;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.provider.Settings;
+import android.util.Log;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * 远程端口和代理名称的分配器
+ * 代理名称由设备标识派生，远程端口用 SecureRandom 在设置的范围内选取；
+ * 租约在代理注册成功后才持久化，同一台设备每次启动使用相同的名称和端口。
+ * 服务器拒绝已注册过的租约时，多半是上次会话异常断开后残留在服务器上的代理，
+ * 先按退避原样重试，重试用完后才重新分配；被拒绝的端口在本进程内不会再次选中
+ */
+public class ProxyAllocator {
+    private static final String TAG = "ProxyAllocator";
+    private static final String PREFS_NAME = "frpc_lease";
+    private static final String KEY_DEVICE_ID = "device_id";
+    private static final String KEY_NAME = "name";
+    private static final String KEY_PORT = "port";
+    private static final String NAME_PREFIX = "frpc-";
+    // 名称中设备标识部分的十六进制长度
+    private static final int DEVICE_HASH_CHARS = 8;
+    // 重新选取端口时的最大尝试次数
+    private static final int MAX_PORT_ATTEMPTS = 64;
+    // 已注册过的租约被拒绝时原样重试的次数，退避合计约 75 秒，覆盖服务器默认 90 秒心跳超时的大部分
+    public static final int SAME_LEASE_RETRIES = 4;
+    private static final long RETRY_BASE_DELAY_MS = 5000;
+
+    /**
+     * 当前租约
+     */
+    public static class Lease {
+        public final String name;
+        public final int port;
+
+        Lease(String name, int port) {
+            this.name = name;
+            this.port = port;
+        }
+    }
+
+    /**
+     * 被拒绝后的处理：使用 lease 在 delayMs 后重新启动
+     */
+    public static class Retry {
+        public final Lease lease;
+        public final long delayMs;
+
+        Retry(Lease lease, long delayMs) {
+            this.lease = lease;
+            this.delayMs = delayMs;
+        }
+    }
+
+    private final SharedPreferences prefs;
+    private final SecureRandom random = new SecureRandom();
+    private final String deviceHash;
+    private final Set<Integer> rejectedPorts = new HashSet<>();
+    // 新分配但尚未注册成功的租约，为 null 时使用持久化的租约
+    private Lease pending;
+
+    public ProxyAllocator(Context context) {
+        this.prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        this.deviceHash = sha256Hex(getDeviceIdentity(context)).substring(0, DEVICE_HASH_CHARS);
+    }
+
+    /**
+     * 获取租约，没有租约或租约端口不在当前范围内时重新分配，新租约在 confirm 之前不会持久化
+     */
+    public synchronized Lease acquire(int minPort, int maxPort) {
+        String name = pending != null ? pending.name : prefs.getString(KEY_NAME, null);
+        int port = pending != null ? pending.port : prefs.getInt(KEY_PORT, 0);
+        boolean changed = false;
+        if (name == null || !name.startsWith(NAME_PREFIX + deviceHash)) {
+            name = NAME_PREFIX + deviceHash;
+            changed = true;
+        }
+        if (port < minPort || port > maxPort || rejectedPorts.contains(port)) {
+            port = pickPort(minPort, maxPort);
+            changed = true;
+        }
+        if (changed) {
+            pending = new Lease(name, port);
+            Log.d(TAG, "New lease: " + name + ":" + port);
+        }
+        return new Lease(name, port);
+    }
+
+    /**
+     * 服务器拒绝了当前租约。已注册过的租约先原样重试，每次等待时间加倍；
+     * 新租约或重试用完后，端口被占用时换端口，名称已存在时在设备标识后追加随机后缀
+     *
+     * @param portInUse 是否为端口被占用，否则为名称已存在
+     * @param attempt   本次启动中此前已重试或重新分配的次数
+     */
+    public synchronized Retry reject(boolean portInUse, int attempt, int minPort, int maxPort) {
+        Lease current = acquire(minPort, maxPort);
+        if (pending == null && attempt < SAME_LEASE_RETRIES) {
+            long delayMs = RETRY_BASE_DELAY_MS << attempt;
+            Log.w(TAG, "Lease " + current.name + ":" + current.port + " rejected, retry in " + delayMs + "ms");
+            return new Retry(current, delayMs);
+        }
+        if (portInUse) {
+            rejectedPorts.add(current.port);
+            pending = new Lease(current.name, pickPort(minPort, maxPort));
+            Log.w(TAG, "Port " + current.port + " rejected, reallocated " + pending.port);
+        } else {
+            String name = String.format(Locale.US, "%s%s-%04x", NAME_PREFIX, deviceHash, random.nextInt(0x10000));
+            pending = new Lease(name, current.port);
+            Log.w(TAG, "Name " + current.name + " rejected, reallocated " + name);
+        }
+        return new Retry(pending, 0);
+    }
+
+    /**
+     * 代理注册成功，持久化当前租约，之后的启动继续使用
+     */
+    public synchronized void confirm() {
+        if (pending != null) {
+            save(pending.name, pending.port);
+            Log.d(TAG, "Lease confirmed: " + pending.name + ":" + pending.port);
+            pending = null;
+        }
+    }
+
+    private int pickPort(int minPort, int maxPort) {
+        int range = maxPort - minPort + 1;
+        int port = minPort + random.nextInt(range);
+        for (int i = 0; i < MAX_PORT_ATTEMPTS && rejectedPorts.contains(port); i++) {
+            port = minPort + random.nextInt(range);
+        }
+        return port;
+    }
+
+    private void save(String name, int port) {
+        prefs.edit().putString(KEY_NAME, name).putInt(KEY_PORT, port).apply();
+    }
+
+    /**
+     * 设备标识：优先使用 ANDROID_ID，获取不到时生成一个随机标识并保存
+     */
+    private String getDeviceIdentity(Context context) {
+        String androidId = null;
+        try {
+            androidId = Settings.Secure.getString(context.getContentResolver(), Settings.Secure.ANDROID_ID);
+        } catch (Exception e) {
+            Log.w(TAG, "Failed to read ANDROID_ID", e);
+        }
+        if (androidId != null && !androidId.isEmpty()) {
+            return androidId;
+        }
+        String saved = prefs.getString(KEY_DEVICE_ID, null);
+        if (saved == null) {
+            byte[] bytes = new byte[16];
+            random.nextBytes(bytes);
+            saved = toHex(bytes);
+            prefs.edit().putString(KEY_DEVICE_ID, saved).apply();
+        }
+        return saved;
+    }
+
+    private static String sha256Hex(String text) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return toHex(digest.digest(text.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 unavailable", e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(String.format(Locale.US, "%02x", b));
+        }
+        return sb.toString();
+    }
+}
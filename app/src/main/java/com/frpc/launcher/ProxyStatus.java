@@ -0,0 +1,90 @@
+package com.frpc.launcher;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * frpc 管理接口 /api/status 返回的单个代理状态
+ */
+public class ProxyStatus {
+    public static final String STATUS_RUNNING = "running";
+
+    public final String name;
+    public final String type;
+    // frpc 报告的状态：new、wait start、start error、running、check failed、closed
+    public final String status;
+    public final String error;
+    public final String localAddr;
+    public final String remoteAddr;
+
+    public ProxyStatus(String name, String type, String status, String error,
+                       String localAddr, String remoteAddr) {
+        this.name = name;
+        this.type = type;
+        this.status = status;
+        this.error = error;
+        this.localAddr = localAddr;
+        this.remoteAddr = remoteAddr;
+    }
+
+    public boolean isRunning() {
+        return STATUS_RUNNING.equals(status);
+    }
+
+    /**
+     * 解析 /api/status 的响应：按代理类型分组的对象，每组是代理状态数组
+     */
+    public static List<ProxyStatus> parseStatusResponse(String json) throws JSONException {
+        JSONObject root = new JSONObject(json);
+        List<ProxyStatus> result = new ArrayList<>();
+        Iterator<String> types = root.keys();
+        while (types.hasNext()) {
+            String type = types.next();
+            JSONArray proxies = root.optJSONArray(type);
+            if (proxies == null) {
+                continue;
+            }
+            for (int i = 0; i < proxies.length(); i++) {
+                JSONObject proxy = proxies.getJSONObject(i);
+                result.add(new ProxyStatus(
+                        proxy.optString("name"),
+                        proxy.optString("type", type),
+                        proxy.optString("status"),
+                        proxy.optString("err"),
+                        proxy.optString("local_addr"),
+                        proxy.optString("remote_addr")));
+            }
+        }
+        // 响应中的类型顺序不固定，按名称排序保证显示稳定
+        Collections.sort(result, (a, b) -> a.name.compareTo(b.name));
+        return result;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof ProxyStatus)) {
+            return false;
+        }
+        ProxyStatus other = (ProxyStatus) o;
+        return name.equals(other.name) && type.equals(other.type) && status.equals(other.status)
+                && error.equals(other.error) && localAddr.equals(other.localAddr)
+                && remoteAddr.equals(other.remoteAddr);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = name.hashCode();
+        result = 31 * result + status.hashCode();
+        result = 31 * result + remoteAddr.hashCode();
+        return result;
+    }
+}
@@ -0,0 +1,166 @@
+package com.frpc.launcher;
+
+import android.text.TextUtils;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * frpc 就绪检测
+ * 逐行检查 frpc 输出，登录成功且每个代理都输出 "start proxy success" 后视为就绪；
+ * 遇到已知的致命错误或进程退出时立即失败，不必等到超时。
+ * 只匹配 LogRecord 的消息部分，代理名称直接取自解析结果
+ */
+public class ReadinessDetector {
+    private static final String TAG = "ReadinessDetector";
+    private static final String LOGIN_SUCCESS = "login to server success";
+    private static final String PROXY_SUCCESS = "start proxy success";
+    // 无法解析格式的行中代理名称位于该标记前的方括号内
+    private static final String PLAIN_PROXY_SUCCESS = "] start proxy success";
+    // 出现即表示本次启动不会成功的输出，忽略大小写匹配
+    private static final String[] FATAL_MARKERS = {
+            "login to the server failed",
+            "authorization failed",
+            "token in login doesn't match",
+            "start error",
+            "port already used",
+            "already exists",
+            "parse config",
+    };
+
+    /**
+     * 服务器拒绝代理或本地端口被占用的原因，可以通过更换端口或名称解决
+     */
+    public enum Rejection {
+        NONE,
+        PORT_IN_USE,
+        NAME_IN_USE,
+        // 本地管理接口的端口已被其他程序占用
+        ADMIN_PORT_IN_USE
+    }
+
+    private final CountDownLatch done = new CountDownLatch(1);
+    // 管理接口的监听地址 host:port，没有管理接口时为 null
+    private final String adminAddress;
+    // 尚未就绪的代理名称，只在输出线程和 await 的调用方之间共享，访问时加锁
+    private final Set<String> pendingProxies;
+    private boolean loggedIn = false;
+    private volatile String failure;
+    private volatile Rejection rejection = Rejection.NONE;
+
+    /**
+     * @param proxyNames 需要等待的代理名称，为空时登录成功即视为就绪
+     */
+    public ReadinessDetector(List<String> proxyNames) {
+        this(proxyNames, null);
+    }
+
+    /**
+     * @param adminAddress 管理接口的监听地址 host:port，frpc 无法监听时立即失败并记为 ADMIN_PORT_IN_USE
+     */
+    public ReadinessDetector(List<String> proxyNames, String adminAddress) {
+        this.pendingProxies = new LinkedHashSet<>(proxyNames);
+        this.adminAddress = adminAddress;
+    }
+
+    /**
+     * 处理一行已清理 ANSI 转义码并解析过的输出，在输出读取线程调用
+     */
+    public synchronized void accept(LogRecord record) {
+        if (done.getCount() == 0) {
+            return;
+        }
+        // 端口在分配后被其他程序占用，frpc 输出 "listen tcp 127.0.0.1:port: bind: address already in use" 后退出
+        if (adminAddress != null && record.messageContains("address already in use")
+                && record.messageContains(adminAddress)) {
+            rejection = Rejection.ADMIN_PORT_IN_USE;
+            fail("管理接口端口已被占用: " + adminAddress);
+            return;
+        }
+        if (record.messageContains("port already used") || record.messageContains("port unavailable")) {
+            rejection = Rejection.PORT_IN_USE;
+        } else if (record.messageContains("already exists")) {
+            rejection = Rejection.NAME_IN_USE;
+        }
+        for (String marker : FATAL_MARKERS) {
+            if (record.messageContains(marker)) {
+                fail("frpc启动失败: " + record.getMessage().trim());
+                return;
+            }
+        }
+        if (!loggedIn && record.messageContains(LOGIN_SUCCESS)) {
+            loggedIn = true;
+        }
+        if (!record.proxy.isEmpty()) {
+            if (record.messageStartsWith(PROXY_SUCCESS)) {
+                pendingProxies.remove(record.proxy);
+            }
+        } else if (!record.structured) {
+            String line = record.line;
+            int end = line.indexOf(PLAIN_PROXY_SUCCESS);
+            if (end > 0) {
+                int start = line.lastIndexOf('[', end);
+                if (start >= 0) {
+                    pendingProxies.remove(line.substring(start + 1, end));
+                }
+            }
+        }
+        if (loggedIn && pendingProxies.isEmpty()) {
+            done.countDown();
+        }
+    }
+
+    /**
+     * 进程退出时调用，尚未就绪时立即失败
+     */
+    public synchronized void onProcessExit(int exitCode) {
+        if (done.getCount() > 0) {
+            fail("frpc进程已退出，退出码: " + exitCode);
+        }
+    }
+
+    /**
+     * 等待就绪
+     *
+     * @throws IOException 超时、出现致命错误或进程退出
+     */
+    public void await(long timeoutMs) throws IOException, InterruptedException {
+        if (!done.await(timeoutMs, TimeUnit.MILLISECONDS)) {
+            String pending = describePending();
+            fail("等待就绪超时(" + timeoutMs + "ms)");
+            throw new IOException("frpc启动超时(" + timeoutMs / 1000 + "秒)，" + pending);
+        }
+        String message = failure;
+        if (message != null) {
+            throw new IOException(message);
+        }
+    }
+
+    public Rejection getRejection() {
+        return rejection;
+    }
+
+    public boolean isDone() {
+        return done.getCount() == 0;
+    }
+
+    private synchronized void fail(String message) {
+        if (failure == null) {
+            failure = message;
+        }
+        Log.w(TAG, message);
+        done.countDown();
+    }
+
+    private synchronized String describePending() {
+        if (!loggedIn) {
+            return "尚未登录到服务器";
+        }
+        return "尚未就绪的代理: " + TextUtils.join(", ", pendingProxies);
+    }
+}
@@ -0,0 +1,142 @@
+package com.frpc.launcher;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * 单个实例的自动重启策略
+ * 退避时间按指数增长并封顶，加入随机抖动避免多台设备同时重连；
+ * 稳定运行一段时间后退避重置。就绪后短时间内反复退出视为崩溃循环，
+ * 认证失败和配置错误重试也无法解决，这两种情况都不再重启
+ */
+public class RestartPolicy {
+    private static final long BASE_DELAY_MS = 1000;
+    private static final long MAX_DELAY_MS = 5 * 60 * 1000L;
+    // 运行超过这个时间后退出，退避从头开始
+    private static final long STABLE_UPTIME_MS = 60 * 1000L;
+    // 崩溃循环判定：窗口内就绪后未能稳定运行的退出次数
+    private static final long CRASH_LOOP_WINDOW_MS = 10 * 60 * 1000L;
+    private static final int CRASH_LOOP_MAX_EXITS = 5;
+    private static final int HISTORY_SIZE = 20;
+
+    /**
+     * 一次退出及其处理结果
+     */
+    public static class Record {
+        // 退出时的墙上时间，仅用于显示
+        public final long timeMillis;
+        public final String reason;
+        public final ErrorClassifier.Category category;
+        public final int exitCode;
+        public final long uptimeMs;
+        // 重启前的等待时间，不重启时为 -1
+        public final long delayMs;
+
+        Record(long timeMillis, String reason, ErrorClassifier.Category category,
+               int exitCode, long uptimeMs, long delayMs) {
+            this.timeMillis = timeMillis;
+            this.reason = reason;
+            this.category = category;
+            this.exitCode = exitCode;
+            this.uptimeMs = uptimeMs;
+            this.delayMs = delayMs;
+        }
+
+        public boolean isRestarted() {
+            return delayMs >= 0;
+        }
+    }
+
+    /**
+     * 退出后的处理决定
+     */
+    public static class Decision {
+        public final boolean restart;
+        public final long delayMs;
+        // 不重启时的原因
+        public final String reason;
+
+        Decision(boolean restart, long delayMs, String reason) {
+            this.restart = restart;
+            this.delayMs = delayMs;
+            this.reason = reason;
+        }
+    }
+
+    private final Random random = new Random();
+    private final Deque<Long> recentExits = new ArrayDeque<>();
+    private final Deque<Record> history = new ArrayDeque<>();
+    private int attempt = 0;
+    private long startedAt = -1;
+
+    /**
+     * 手动启动时调用，清除退避和崩溃循环状态，保留历史记录
+     */
+    public synchronized void reset() {
+        attempt = 0;
+        startedAt = -1;
+        recentExits.clear();
+    }
+
+    /**
+     * frpc 就绪时调用
+     *
+     * @param now 单调时钟时间
+     */
+    public synchronized void onStarted(long now) {
+        startedAt = now;
+    }
+
+    /**
+     * 进程意外退出或自动重启失败时调用
+     *
+     * @param now 单调时钟时间
+     */
+    public synchronized Decision onExit(ErrorClassifier.Category category, int exitCode, String reason, long now) {
+        boolean wasRunning = startedAt >= 0;
+        long uptime = wasRunning ? now - startedAt : 0;
+        startedAt = -1;
+        if (uptime >= STABLE_UPTIME_MS) {
+            attempt = 0;
+        } else if (wasRunning) {
+            // 就绪后很快退出才算崩溃；重启时连不上服务器只退避，不计入崩溃循环
+            recentExits.addLast(now);
+        }
+        while (!recentExits.isEmpty() && now - recentExits.peekFirst() > CRASH_LOOP_WINDOW_MS) {
+            recentExits.removeFirst();
+        }
+
+        Decision decision;
+        if (category == ErrorClassifier.Category.LOGIN) {
+            decision = new Decision(false, -1, "认证失败，重试无法解决");
+        } else if (category == ErrorClassifier.Category.CONFIG) {
+            decision = new Decision(false, -1, "配置错误，重试无法解决");
+        } else if (recentExits.size() >= CRASH_LOOP_MAX_EXITS) {
+            decision = new Decision(false, -1, "检测到崩溃循环（" + CRASH_LOOP_WINDOW_MS / 60000
+                    + " 分钟内退出 " + recentExits.size() + " 次）");
+        } else {
+            long delay = Math.min(MAX_DELAY_MS, BASE_DELAY_MS << Math.min(attempt, 20));
+            // 一半固定，一半随机
+            delay = delay / 2 + (long) (random.nextDouble() * (delay / 2));
+            attempt++;
+            decision = new Decision(true, delay, null);
+        }
+
+        if (history.size() >= HISTORY_SIZE) {
+            history.removeFirst();
+        }
+        history.addLast(new Record(System.currentTimeMillis(), reason, category, exitCode, uptime,
+                decision.restart ? decision.delayMs : -1));
+        return decision;
+    }
+
+    /**
+     * @return 最近的退出记录，按时间顺序排列
+     */
+    public synchronized List<Record> getHistory() {
+        return new ArrayList<>(history);
+    }
+}
@@ -0,0 +1,254 @@
+package com.frpc.launcher;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 常驻的 root shell
+ * 整个进程只启动一次 su，所有特权命令都通过它执行，避免每次操作都重新启动 su。
+ * 每条命令后输出一个随机哨兵行和退出码，用来切分命令输出；
+ * 命令超时或 shell 意外退出时会销毁当前 shell，下一次执行时自动重新启动
+ */
+public class RootShell {
+    private static final String TAG = "RootShell";
+    public static final long DEFAULT_TIMEOUT_MS = 10000;
+    // 读取线程在 shell 退出时放入队列的标记，按引用比较
+    @SuppressWarnings("StringOperationCanBeSimplified")
+    private static final String EOF = new String("EOF");
+
+    private static final RootShell INSTANCE = new RootShell();
+
+    public static RootShell getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * 单条命令的执行结果
+     */
+    public static class Result {
+        public final int exitCode;
+        public final List<String> output;
+
+        Result(int exitCode, List<String> output) {
+            this.exitCode = exitCode;
+            this.output = Collections.unmodifiableList(output);
+        }
+
+        public boolean isSuccess() {
+            return exitCode == 0;
+        }
+
+        public String getOutputText() {
+            StringBuilder sb = new StringBuilder();
+            for (String line : output) {
+                if (sb.length() > 0) {
+                    sb.append('\n');
+                }
+                sb.append(line);
+            }
+            return sb.toString();
+        }
+    }
+
+    private final String sentinelPrefix;
+    private Process process;
+    private OutputStream stdin;
+    private BlockingQueue<String> lines;
+    private long commandSeq = 0;
+
+    private RootShell() {
+        byte[] random = new byte[8];
+        new SecureRandom().nextBytes(random);
+        StringBuilder sb = new StringBuilder("__FRPC_ROOT_");
+        for (byte b : random) {
+            sb.append(String.format(Locale.US, "%02x", b));
+        }
+        sentinelPrefix = sb.append('_').toString();
+    }
+
+    /**
+     * 检查是否可以获得 root 权限
+     */
+    public boolean isAvailable() {
+        try {
+            Result result = exec("id -u", DEFAULT_TIMEOUT_MS);
+            return result.isSuccess() && result.output.contains("0");
+        } catch (IOException e) {
+            Log.w(TAG, "Root shell unavailable: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * 用单引号包裹参数，其中的单引号转义为 '\''，拼接到命令中时不会被 shell 展开
+     * 路径等外部输入放进 root 命令前都要经过这里
+     */
+    public static String quote(String arg) {
+        return "'" + arg.replace("'", "'\\''") + "'";
+    }
+
+    public Result exec(String command) throws IOException {
+        return exec(command, DEFAULT_TIMEOUT_MS);
+    }
+
+    /**
+     * 在 root shell 中执行一条命令，标准错误合并到输出中
+     *
+     * @throws IOException shell 无法启动、意外退出或命令超时
+     */
+    public synchronized Result exec(String command, long timeoutMs) throws IOException {
+        ensureStarted();
+        String sentinel = sentinelPrefix + (++commandSeq);
+        // 先换行再输出哨兵，保证哨兵独占一行；命令的标准输入指向 /dev/null，避免读走后续命令
+        String framed = "{ " + command + "\n} </dev/null 2>&1\n"
+                + "__rc=$?; echo; echo \"" + sentinel + ":$__rc\"\n";
+        try {
+            stdin.write(framed.getBytes(StandardCharsets.UTF_8));
+            stdin.flush();
+        } catch (IOException e) {
+            destroy();
+            throw new IOException("root shell 已退出: " + e.getMessage(), e);
+        }
+
+        List<String> output = new ArrayList<>();
+        long deadline = SystemClock.elapsedRealtime() + timeoutMs;
+        try {
+            while (true) {
+                long remaining = deadline - SystemClock.elapsedRealtime();
+                String line = remaining > 0 ? lines.poll(remaining, TimeUnit.MILLISECONDS) : null;
+                if (line == null) {
+                    destroy();
+                    throw new IOException("root 命令超时(" + timeoutMs + "ms): " + command);
+                }
+                if (line == EOF) {
+                    destroy();
+                    throw new IOException("root shell 意外退出: " + command);
+                }
+                if (line.startsWith(sentinel + ":")) {
+                    // 去掉哨兵前补的换行产生的空行
+                    if (!output.isEmpty() && output.get(output.size() - 1).isEmpty()) {
+                        output.remove(output.size() - 1);
+                    }
+                    int exitCode = parseExitCode(line.substring(sentinel.length() + 1));
+                    return new Result(exitCode, output);
+                }
+                if (line.startsWith(sentinelPrefix)) {
+                    // 之前被中断的命令的剩余输出，丢弃
+                    output.clear();
+                    continue;
+                }
+                output.add(line);
+            }
+        } catch (InterruptedException e) {
+            // shell 保持运行，命令的剩余输出由下一条命令按哨兵跳过，其他调用方不受影响
+            Thread.currentThread().interrupt();
+            throw new IOException("root 命令被中断: " + command, e);
+        }
+    }
+
+    /**
+     * 关闭 shell，下一次执行命令时会重新启动
+     */
+    public synchronized void close() {
+        if (process == null) {
+            return;
+        }
+        try {
+            stdin.write("exit\n".getBytes(StandardCharsets.UTF_8));
+            stdin.flush();
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to send exit to root shell", e);
+        }
+        destroy();
+    }
+
+    private void ensureStarted() throws IOException {
+        if (process != null && isAlive(process)) {
+            return;
+        }
+        destroy();
+        long start = SystemClock.elapsedRealtime();
+        Process p = Runtime.getRuntime().exec("su");
+        BlockingQueue<String> queue = new LinkedBlockingQueue<>();
+        startReader(p, queue);
+        startStderrDrain(p);
+        process = p;
+        stdin = p.getOutputStream();
+        lines = queue;
+        Log.d(TAG, "Root shell spawned in " + (SystemClock.elapsedRealtime() - start) + "ms");
+    }
+
+    private static void startReader(Process p, BlockingQueue<String> queue) {
+        Thread thread = new Thread(() -> {
+            try (BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(p.getInputStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    queue.add(line);
+                }
+            } catch (IOException e) {
+                Log.w(TAG, "Root shell stdout closed: " + e.getMessage());
+            }
+            queue.add(EOF);
+        }, "root-shell-stdout");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private static void startStderrDrain(Process p) {
+        // shell 自身的错误（如语法错误）写到标准错误，必须持续读取，否则管道写满会阻塞 shell
+        Thread drain = new Thread(() -> {
+            try (BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(p.getErrorStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    Log.w(TAG, "root shell stderr: " + line);
+                }
+            } catch (IOException e) {
+                Log.w(TAG, "Root shell stderr closed: " + e.getMessage());
+            }
+        }, "root-shell-stderr");
+        drain.setDaemon(true);
+        drain.start();
+    }
+
+    private void destroy() {
+        if (process != null) {
+            process.destroy();
+        }
+        process = null;
+        stdin = null;
+        lines = null;
+    }
+
+    private static int parseExitCode(String text) {
+        try {
+            return Integer.parseInt(text.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static boolean isAlive(Process p) {
+        try {
+            p.exitValue();
+            return false;
+        } catch (IllegalThreadStateException e) {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.frpc.launcher;
+
+/**
+ * 单个实例状态的不可变快照
+ * 由 ServiceStateMachine 发布，任何线程都可以直接读取，不需要加锁；
+ * 每次变化都会生成新的快照并递增版本号
+ */
+public final class ServiceState {
+
+    public enum Phase {
+        // 未运行
+        IDLE("已停止"),
+        // 准备可执行文件和配置
+        STAGING("准备中"),
+        // 进程已启动，等待登录和代理就绪
+        LAUNCHING("启动中"),
+        READY("运行中"),
+        // 进程已退出或网络变化，等待或正在重新启动
+        RECONNECTING("重新连接中"),
+        STOPPING("正在停止"),
+        // 启动失败或已放弃自动重启
+        FAILED("已失败");
+
+        public final String label;
+
+        Phase(String label) {
+            this.label = label;
+        }
+
+        /**
+         * @return 是否没有进程也没有待执行的启动
+         */
+        public boolean isInactive() {
+            return this == IDLE || this == FAILED;
+        }
+    }
+
+    public final String instanceId;
+    public final Phase phase;
+    // 启动时分配的信息，如代理名称和远程端口，没有时为 null
+    public final String info;
+    // 最近一次失败的原因，没有或已确认时为 null
+    public final String error;
+    // 默认实例分配的远程端口，未分配时为 0
+    public final int remotePort;
+    // 可供复制的连接地址，就绪前为 null
+    public final String connectionInfo;
+    public final long version;
+    // 进入当前阶段的时间
+    public final long phaseSinceMillis;
+
+    private ServiceState(String instanceId, Phase phase, String info, String error, int remotePort,
+                         String connectionInfo, long version, long phaseSinceMillis) {
+        this.instanceId = instanceId;
+        this.phase = phase;
+        this.info = info;
+        this.error = error;
+        this.remotePort = remotePort;
+        this.connectionInfo = connectionInfo;
+        this.version = version;
+        this.phaseSinceMillis = phaseSinceMillis;
+    }
+
+    public static ServiceState initial(String instanceId) {
+        return new ServiceState(instanceId, Phase.IDLE, null, null, 0, null, 0, System.currentTimeMillis());
+    }
+
+    public boolean isReady() {
+        return phase == Phase.READY;
+    }
+
+    public ServiceState withPhase(Phase phase) {
+        if (phase == this.phase) {
+            return this;
+        }
+        return new ServiceState(instanceId, phase, info, error, remotePort, connectionInfo, version,
+                System.currentTimeMillis());
+    }
+
+    public ServiceState withInfo(String info) {
+        return new ServiceState(instanceId, phase, info, error, remotePort, connectionInfo, version, phaseSinceMillis);
+    }
+
+    public ServiceState withError(String error) {
+        return new ServiceState(instanceId, phase, info, error, remotePort, connectionInfo, version, phaseSinceMillis);
+    }
+
+    public ServiceState withRemotePort(int remotePort) {
+        return new ServiceState(instanceId, phase, info, error, remotePort, connectionInfo, version, phaseSinceMillis);
+    }
+
+    public ServiceState withConnectionInfo(String connectionInfo) {
+        return new ServiceState(instanceId, phase, info, error, remotePort, connectionInfo, version, phaseSinceMillis);
+    }
+
+    ServiceState withVersion(long version) {
+        return new ServiceState(instanceId, phase, info, error, remotePort, connectionInfo, version, phaseSinceMillis);
+    }
+
+    @Override
+    public String toString() {
+        return instanceId + ":" + phase + "#" + version;
+    }
+}
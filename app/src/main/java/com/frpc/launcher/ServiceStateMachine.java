@@ -0,0 +1,152 @@
+package com.frpc.launcher;
+
+import android.os.Handler;
+import android.util.Log;
+
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 实例状态机
+ * 当前状态是 AtomicReference 中的不可变快照，启动线程、输出读取线程和主线程都通过
+ * compareAndSet 更新，不加锁。只允许表中列出的阶段转换，例如停止后迟到的"就绪"会被拒绝，
+ * 不会把已停止的实例重新标记为运行中。
+ * 状态变化后在 handler 线程通知 Listener，连续的变化会合并，只通知最新的快照
+ */
+public class ServiceStateMachine {
+    private static final String TAG = "ServiceStateMachine";
+
+    public interface Listener {
+        /**
+         * 状态已变化，在 handler 线程回调
+         */
+        void onStateChanged(ServiceState state);
+    }
+
+    /**
+     * 根据当前快照计算新快照，可能因并发更新被调用多次，不要有副作用
+     */
+    public interface Update {
+        /**
+         * @return 新快照；返回 null 表示放弃本次更新
+         */
+        ServiceState apply(ServiceState current);
+    }
+
+    private static final Map<ServiceState.Phase, Set<ServiceState.Phase>> TRANSITIONS =
+            new EnumMap<>(ServiceState.Phase.class);
+
+    static {
+        allow(ServiceState.Phase.IDLE, ServiceState.Phase.STAGING);
+        allow(ServiceState.Phase.STAGING, ServiceState.Phase.LAUNCHING, ServiceState.Phase.RECONNECTING,
+                ServiceState.Phase.STOPPING, ServiceState.Phase.FAILED);
+        // 端口或名称被拒绝时经 RECONNECTING 重新分配，与自动重启走同一条路径
+        allow(ServiceState.Phase.LAUNCHING, ServiceState.Phase.READY, ServiceState.Phase.RECONNECTING,
+                ServiceState.Phase.STOPPING, ServiceState.Phase.FAILED);
+        allow(ServiceState.Phase.READY, ServiceState.Phase.RECONNECTING, ServiceState.Phase.STOPPING,
+                ServiceState.Phase.FAILED);
+        allow(ServiceState.Phase.RECONNECTING, ServiceState.Phase.STAGING, ServiceState.Phase.STOPPING,
+                ServiceState.Phase.FAILED);
+        // 停止只能以 IDLE 结束，用户的停止不会被重新连接或自动重启覆盖
+        allow(ServiceState.Phase.STOPPING, ServiceState.Phase.IDLE);
+        allow(ServiceState.Phase.FAILED, ServiceState.Phase.STAGING, ServiceState.Phase.STOPPING,
+                ServiceState.Phase.IDLE);
+    }
+
+    private static void allow(ServiceState.Phase from, ServiceState.Phase... to) {
+        Set<ServiceState.Phase> targets = EnumSet.noneOf(ServiceState.Phase.class);
+        for (ServiceState.Phase phase : to) {
+            targets.add(phase);
+        }
+        TRANSITIONS.put(from, targets);
+    }
+
+    public static boolean isAllowed(ServiceState.Phase from, ServiceState.Phase to) {
+        return from == to || TRANSITIONS.get(from).contains(to);
+    }
+
+    private final AtomicReference<ServiceState> state;
+    private final Handler handler;
+    private final Listener listener;
+    // 只在 handler 线程访问
+    private long deliveredVersion = -1;
+    private final Runnable deliver = this::deliverLatest;
+
+    public ServiceStateMachine(String instanceId, Handler handler, Listener listener) {
+        this.state = new AtomicReference<>(ServiceState.initial(instanceId));
+        this.handler = handler;
+        this.listener = listener;
+    }
+
+    public ServiceState get() {
+        return state.get();
+    }
+
+    /**
+     * 原子地更新快照，阶段转换不合法时放弃
+     *
+     * @return 是否已应用（新快照与当前相同也视为已应用）
+     */
+    public boolean update(Update update) {
+        while (true) {
+            ServiceState current = state.get();
+            ServiceState next = update.apply(current);
+            if (next == null) {
+                return false;
+            }
+            if (next == current) {
+                return true;
+            }
+            if (!isAllowed(current.phase, next.phase)) {
+                Log.w(TAG, "Rejected transition " + current + " -> " + next.phase);
+                return false;
+            }
+            next = next.withVersion(current.version + 1);
+            if (state.compareAndSet(current, next)) {
+                if (current.phase != next.phase) {
+                    Log.d(TAG, current.instanceId + ": " + current.phase + " -> " + next.phase);
+                }
+                handler.removeCallbacks(deliver);
+                handler.post(deliver);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 只改变阶段
+     */
+    public boolean transition(ServiceState.Phase to) {
+        return update(current -> current.withPhase(to));
+    }
+
+    /**
+     * 仅当当前处于 from 时转换到 to
+     */
+    public boolean transition(ServiceState.Phase from, ServiceState.Phase to) {
+        return update(current -> current.phase == from ? current.withPhase(to) : null);
+    }
+
+    /**
+     * 进入失败状态并记录原因
+     */
+    public boolean fail(String error) {
+        return update(current -> current.withPhase(ServiceState.Phase.FAILED).withError(error));
+    }
+
+    private void deliverLatest() {
+        ServiceState current = state.get();
+        if (current.version <= deliveredVersion) {
+            return;
+        }
+        deliveredVersion = current.version;
+        try {
+            listener.onStateChanged(current);
+        } catch (RuntimeException e) {
+            Log.e(TAG, "State listener failed", e);
+        }
+    }
+}
@@ -1,32 +1,26 @@
 package com.frpc.launcher;
 
-import android.content.Context;
 import android.content.SharedPreferences;
 import android.os.Bundle;
 import android.view.MenuItem;
 import android.view.View;
 import android.widget.Button;
 import android.widget.EditText;
+import android.widget.Switch;
 import android.widget.Toast;
 
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.appcompat.widget.Toolbar;
 
 public class SettingsActivity extends AppCompatActivity {
-    private static final String PREFS_NAME = "frpc_settings";
-    private static final String KEY_SERVER_ADDR = "server_addr";
-    private static final String KEY_SERVER_PORT = "server_port";
-    private static final String KEY_AUTH_TOKEN = "auth_token";
-    private static final String KEY_LOCAL_PORT = "local_port";
-    private static final String KEY_RANDOM_PORT_MIN = "random_port_min";
-    private static final String KEY_RANDOM_PORT_MAX = "random_port_max";
-
     private EditText etServerAddr;
     private EditText etServerPort;
     private EditText etAuthToken;
     private EditText etLocalPort;
     private EditText etRandomPortMin;
     private EditText etRandomPortMax;
+    private EditText etReadyTimeout;
+    private Switch swHoldUntilTarget;
     private Button btnSave;
     private SharedPreferences prefs;
 
@@ -42,7 +36,7 @@ public class SettingsActivity extends AppCompatActivity {
             getSupportActionBar().setTitle("设置");
         }
 
-        prefs = getSharedPreferences(PREFS_NAME, MODE_PRIVATE);
+        prefs = getSharedPreferences(FrpcSettings.PREFS_NAME, MODE_PRIVATE);
 
         etServerAddr = findViewById(R.id.etServerAddr);
         etServerPort = findViewById(R.id.etServerPort);
@@ -50,6 +44,8 @@ public class SettingsActivity extends AppCompatActivity {
         etLocalPort = findViewById(R.id.etLocalPort);
         etRandomPortMin = findViewById(R.id.etRandomPortMin);
         etRandomPortMax = findViewById(R.id.etRandomPortMax);
+        etReadyTimeout = findViewById(R.id.etReadyTimeout);
+        swHoldUntilTarget = findViewById(R.id.swHoldUntilTarget);
         btnSave = findViewById(R.id.btnSave);
 
         // 加载保存的设置
@@ -68,19 +64,16 @@ public class SettingsActivity extends AppCompatActivity {
     }
 
     private void loadSettings() {
-        String serverAddr = prefs.getString(KEY_SERVER_ADDR, ConfigConstants.DEFAULT_SERVER_ADDR);
-        int serverPort = prefs.getInt(KEY_SERVER_PORT, ConfigConstants.DEFAULT_SERVER_PORT);
-        String authToken = prefs.getString(KEY_AUTH_TOKEN, "");
-        int localPort = prefs.getInt(KEY_LOCAL_PORT, ConfigConstants.DEFAULT_LOCAL_PORT);
-        int randomPortMin = prefs.getInt(KEY_RANDOM_PORT_MIN, ConfigConstants.DEFAULT_RANDOM_PORT_MIN);
-        int randomPortMax = prefs.getInt(KEY_RANDOM_PORT_MAX, ConfigConstants.DEFAULT_RANDOM_PORT_MAX);
-
-        etServerAddr.setText(serverAddr);
-        etServerPort.setText(String.valueOf(serverPort));
-        etAuthToken.setText(authToken);
-        etLocalPort.setText(String.valueOf(localPort));
-        etRandomPortMin.setText(String.valueOf(randomPortMin));
-        etRandomPortMax.setText(String.valueOf(randomPortMax));
+        FrpcSettings settings = FrpcSettings.get(this);
+
+        etServerAddr.setText(settings.serverAddr);
+        etServerPort.setText(String.valueOf(settings.serverPort));
+        etAuthToken.setText(settings.authToken);
+        etLocalPort.setText(String.valueOf(settings.localPort));
+        etRandomPortMin.setText(String.valueOf(settings.randomPortMin));
+        etRandomPortMax.setText(String.valueOf(settings.randomPortMax));
+        etReadyTimeout.setText(String.valueOf(settings.readyTimeoutSeconds));
+        swHoldUntilTarget.setChecked(settings.holdUntilTarget);
     }
 
     private void saveSettings() {
@@ -90,6 +83,7 @@ public class SettingsActivity extends AppCompatActivity {
         String localPortStr = etLocalPort.getText().toString().trim();
         String randomPortMinStr = etRandomPortMin.getText().toString().trim();
         String randomPortMaxStr = etRandomPortMax.getText().toString().trim();
+        String readyTimeoutStr = etReadyTimeout.getText().toString().trim();
 
         // 验证输入
         if (serverAddr.isEmpty()) {
@@ -150,14 +144,28 @@ public class SettingsActivity extends AppCompatActivity {
             return;
         }
 
+        int readyTimeout;
+        try {
+            readyTimeout = Integer.parseInt(readyTimeoutStr);
+            if (readyTimeout < 1 || readyTimeout > 300) {
+                Toast.makeText(this, "启动超时必须在 1-300 秒之间", Toast.LENGTH_SHORT).show();
+                return;
+            }
+        } catch (NumberFormatException e) {
+            Toast.makeText(this, "启动超时必须是数字", Toast.LENGTH_SHORT).show();
+            return;
+        }
+
         // 保存设置
         SharedPreferences.Editor editor = prefs.edit();
-        editor.putString(KEY_SERVER_ADDR, serverAddr);
-        editor.putInt(KEY_SERVER_PORT, serverPort);
-        editor.putString(KEY_AUTH_TOKEN, authToken);
-        editor.putInt(KEY_LOCAL_PORT, localPort);
-        editor.putInt(KEY_RANDOM_PORT_MIN, randomPortMin);
-        editor.putInt(KEY_RANDOM_PORT_MAX, randomPortMax);
+        editor.putString(FrpcSettings.KEY_SERVER_ADDR, serverAddr);
+        editor.putInt(FrpcSettings.KEY_SERVER_PORT, serverPort);
+        editor.putString(FrpcSettings.KEY_AUTH_TOKEN, authToken);
+        editor.putInt(FrpcSettings.KEY_LOCAL_PORT, localPort);
+        editor.putInt(FrpcSettings.KEY_RANDOM_PORT_MIN, randomPortMin);
+        editor.putInt(FrpcSettings.KEY_RANDOM_PORT_MAX, randomPortMax);
+        editor.putInt(FrpcSettings.KEY_READY_TIMEOUT, readyTimeout);
+        editor.putBoolean(FrpcSettings.KEY_HOLD_UNTIL_TARGET, swHoldUntilTarget.isChecked());
         editor.apply();
 
         Toast.makeText(this, "设置已保存", Toast.LENGTH_SHORT).show();
@@ -167,35 +175,4 @@ public class SettingsActivity extends AppCompatActivity {
             Toast.makeText(this, "请停止并重新启动frpc以使设置生效", Toast.LENGTH_LONG).show();
         }
     }
-
-    public static String getServerAddr(Context context) {
-        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
-        return prefs.getString(KEY_SERVER_ADDR, ConfigConstants.DEFAULT_SERVER_ADDR);
-    }
-
-    public static int getServerPort(Context context) {
-        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
-        return prefs.getInt(KEY_SERVER_PORT, ConfigConstants.DEFAULT_SERVER_PORT);
-    }
-
-    public static String getAuthToken(Context context) {
-        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
-        return prefs.getString(KEY_AUTH_TOKEN, "");
-    }
-
-    public static int getLocalPort(Context context) {
-        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
-        return prefs.getInt(KEY_LOCAL_PORT, ConfigConstants.DEFAULT_LOCAL_PORT);
-    }
-
-    public static int getRandomPortMin(Context context) {
-        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
-        return prefs.getInt(KEY_RANDOM_PORT_MIN, ConfigConstants.DEFAULT_RANDOM_PORT_MIN);
-    }
-
-    public static int getRandomPortMax(Context context) {
-        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
-        return prefs.getInt(KEY_RANDOM_PORT_MAX, ConfigConstants.DEFAULT_RANDOM_PORT_MAX);
-    }
 }
-
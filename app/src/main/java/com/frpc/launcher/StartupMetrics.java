@@ -0,0 +1,140 @@
+package com.frpc.launcher;
+
+import android.os.SystemClock;
+
+import java.util.Locale;
+
+/**
+ * 单次启动的分阶段耗时记录
+ * 使用单调时钟计时，每个阶段可以多次进入，耗时累加
+ */
+public class StartupMetrics {
+
+    public enum Phase {
+        FOREGROUND("前台服务"),
+        ASSET_COPY("复制资源"),
+        ROOT_COPY("root复制"),
+        TARGET_PROBE("检查本地服务"),
+        CONFIG_WRITE("写入配置"),
+        CONFIG_ECHO("输出配置"),
+        ELF_CHECK("ELF检查"),
+        CHMOD("chmod"),
+        SPAWN("启动进程"),
+        READY_WAIT("等待就绪");
+
+        public final String label;
+
+        Phase(String label) {
+            this.label = label;
+        }
+    }
+
+    private static final int PHASE_COUNT = Phase.values().length;
+
+    private final String instanceId;
+    private final long startedAtMillis;
+    private final long startNanos;
+    private final long[] durationNanos = new long[PHASE_COUNT];
+    private final long[] beginNanos = new long[PHASE_COUNT];
+    private final boolean[] recorded = new boolean[PHASE_COUNT];
+    private long totalNanos = -1;
+    // 从检测到网络变化到本次启动就绪的时间，不是网络变化触发的启动为 -1
+    private long recoveryMillis = -1;
+
+    public StartupMetrics(String instanceId) {
+        this.instanceId = instanceId;
+        this.startedAtMillis = System.currentTimeMillis();
+        this.startNanos = SystemClock.elapsedRealtimeNanos();
+    }
+
+    public String getInstanceId() {
+        return instanceId;
+    }
+
+    /**
+     * 启动开始时的墙上时间，仅用于显示
+     */
+    public long getStartedAtMillis() {
+        return startedAtMillis;
+    }
+
+    public synchronized void begin(Phase phase) {
+        beginNanos[phase.ordinal()] = SystemClock.elapsedRealtimeNanos();
+    }
+
+    public synchronized void end(Phase phase) {
+        int i = phase.ordinal();
+        if (beginNanos[i] == 0) {
+            return;
+        }
+        durationNanos[i] += SystemClock.elapsedRealtimeNanos() - beginNanos[i];
+        beginNanos[i] = 0;
+        recorded[i] = true;
+    }
+
+    /**
+     * 直接记录一个阶段的耗时，用于由其他组件测量的阶段
+     */
+    public synchronized void record(Phase phase, long millis) {
+        durationNanos[phase.ordinal()] += millis * 1000000L;
+        recorded[phase.ordinal()] = true;
+    }
+
+    /**
+     * 结束整个启动过程的计时
+     */
+    public synchronized void finish() {
+        if (totalNanos < 0) {
+            totalNanos = SystemClock.elapsedRealtimeNanos() - startNanos;
+        }
+    }
+
+    public synchronized void setRecoveryMillis(long recoveryMillis) {
+        this.recoveryMillis = recoveryMillis;
+    }
+
+    /**
+     * @return 网络变化后恢复连接的耗时（毫秒），不是网络变化触发的启动返回 -1
+     */
+    public synchronized long getRecoveryMillis() {
+        return recoveryMillis;
+    }
+
+    public synchronized boolean isFinished() {
+        return totalNanos >= 0;
+    }
+
+    /**
+     * @return 阶段耗时（毫秒），未记录时返回 -1
+     */
+    public synchronized long getPhaseMillis(Phase phase) {
+        int i = phase.ordinal();
+        return recorded[i] ? durationNanos[i] / 1000000L : -1;
+    }
+
+    /**
+     * @return 总耗时（毫秒），尚未结束时返回已经过的时间
+     */
+    public synchronized long getTotalMillis() {
+        long nanos = totalNanos >= 0 ? totalNanos : SystemClock.elapsedRealtimeNanos() - startNanos;
+        return nanos / 1000000L;
+    }
+
+    /**
+     * 单行摘要，例如 "启动耗时 812ms | 前台服务 3ms | root复制 40ms | ..."
+     */
+    public synchronized String formatSummary() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format(Locale.US, "启动耗时 %dms", getTotalMillis()));
+        for (Phase phase : Phase.values()) {
+            long millis = getPhaseMillis(phase);
+            if (millis >= 0) {
+                sb.append(" | ").append(phase.label).append(' ').append(millis).append("ms");
+            }
+        }
+        if (recoveryMillis >= 0) {
+            sb.append(" | 网络恢复 ").append(recoveryMillis).append("ms");
+        }
+        return sb.toString();
+    }
+}
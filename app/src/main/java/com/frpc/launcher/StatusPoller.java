@@ -0,0 +1,114 @@
+package com.frpc.launcher;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 代理状态轮询器
+ * 在后台线程中定期请求 frpc 管理接口，状态变化时回调 Listener。
+ * 轮询间隔自适应：有代理未运行、请求失败或状态刚发生变化时快速轮询，
+ * 状态持续稳定后逐步放慢到最大间隔
+ */
+public class StatusPoller {
+    private static final String TAG = "StatusPoller";
+    private static final long FAST_INTERVAL_MS = 2000;
+    private static final long MAX_INTERVAL_MS = 30000;
+    // 状态变化后保持快速轮询的时间
+    private static final long SETTLE_MS = 30000;
+
+    public interface Listener {
+        /**
+         * 在轮询线程中调用，状态与上次不同时才会回调
+         */
+        void onStatusChanged(List<ProxyStatus> statuses);
+    }
+
+    private final AdminApiClient client;
+    private final Listener listener;
+    private final Thread worker;
+    private final Object lock = new Object();
+    private volatile boolean running = true;
+    private List<ProxyStatus> last = Collections.emptyList();
+    private long lastChangeAt;
+    private long interval = FAST_INTERVAL_MS;
+
+    public StatusPoller(AdminApiClient client, Listener listener, String name) {
+        this.client = client;
+        this.listener = listener;
+        this.worker = new Thread(this::loop, "frpc-status-" + name);
+        this.worker.setDaemon(true);
+    }
+
+    public void start() {
+        lastChangeAt = SystemClock.elapsedRealtime();
+        worker.start();
+    }
+
+    public void stop() {
+        running = false;
+        worker.interrupt();
+    }
+
+    /**
+     * 立即轮询一次并恢复快速间隔，用于界面刚打开等需要最新状态的场合
+     */
+    public void poke() {
+        synchronized (lock) {
+            interval = FAST_INTERVAL_MS;
+            lock.notifyAll();
+        }
+    }
+
+    private void loop() {
+        while (running) {
+            boolean healthy = pollOnce();
+            long now = SystemClock.elapsedRealtime();
+            synchronized (lock) {
+                if (!healthy || now - lastChangeAt < SETTLE_MS) {
+                    interval = FAST_INTERVAL_MS;
+                } else {
+                    interval = Math.min(MAX_INTERVAL_MS, interval * 2);
+                }
+                try {
+                    lock.wait(interval);
+                } catch (InterruptedException e) {
+                    if (!running) {
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return 请求成功且所有代理都在运行时返回 true
+     */
+    private boolean pollOnce() {
+        List<ProxyStatus> statuses;
+        try {
+            statuses = client.fetchStatus();
+        } catch (IOException e) {
+            Log.d(TAG, "Status poll failed: " + e.getMessage());
+            return false;
+        }
+        if (!statuses.equals(last)) {
+            last = statuses;
+            lastChangeAt = SystemClock.elapsedRealtime();
+            try {
+                listener.onStatusChanged(Collections.unmodifiableList(statuses));
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Status listener failed", e);
+            }
+        }
+        for (ProxyStatus status : statuses) {
+            if (!status.isRunning()) {
+                return false;
+            }
+        }
+        return !statuses.isEmpty();
+    }
+}
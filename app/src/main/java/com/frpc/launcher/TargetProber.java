@@ -0,0 +1,380 @@
+package com.frpc.launcher;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 本地目标（代理的 localIP:localPort）可用性探测器
+ * 所有实例的所有代理共用一个 selector 线程，用非阻塞 connect 探测：
+ * 连接建立即视为可用，随后立即关闭，不发送任何数据。
+ * 启动前可以同步检查一次，运行期间按固定间隔周期探测，结果变化时回调 Listener
+ */
+public class TargetProber {
+    private static final String TAG = "TargetProber";
+    private static final long CONNECT_TIMEOUT_MS = 2000;
+    private static final long PERIOD_MS = 10000;
+
+    /**
+     * 单个目标的最近一次探测结果
+     */
+    public static class Result {
+        public final String name;
+        public final String address;
+        public final boolean reachable;
+        // 不可用时的原因，可用时为空字符串
+        public final String error;
+        // 建立连接的耗时，不可用时为 -1
+        public final long latencyMs;
+        public final long checkedAtMillis;
+
+        Result(String name, String address, boolean reachable, String error, long latencyMs) {
+            this.name = name;
+            this.address = address;
+            this.reachable = reachable;
+            this.error = error;
+            this.latencyMs = latencyMs;
+            this.checkedAtMillis = System.currentTimeMillis();
+        }
+    }
+
+    public interface Listener {
+        /**
+         * 某个使用方的目标可用性发生变化，在探测线程中调用
+         */
+        void onTargetsChanged(String owner);
+    }
+
+    /**
+     * 同步检查时收集结果
+     */
+    private static class Collector {
+        final Map<String, Result> results = new LinkedHashMap<>();
+        final CountDownLatch latch;
+
+        Collector(int count) {
+            latch = new CountDownLatch(count);
+        }
+
+        synchronized void complete(Result result) {
+            results.put(result.name, result);
+            latch.countDown();
+        }
+    }
+
+    private static class Probe {
+        final String owner;
+        final String name;
+        final InetSocketAddress address;
+        final Collector collector;
+        SocketChannel channel;
+        long startedAt;
+        long deadline;
+
+        Probe(String owner, String name, InetSocketAddress address, Collector collector) {
+            this.owner = owner;
+            this.name = name;
+            this.address = address;
+            this.collector = collector;
+        }
+    }
+
+    private final Listener listener;
+    private final Object lock = new Object();
+    // 使用方（实例 ID）到需要周期探测的目标
+    private final Map<String, Map<String, InetSocketAddress>> watched = new LinkedHashMap<>();
+    // 使用方到各目标的最近结果
+    private final Map<String, Map<String, Result>> results = new LinkedHashMap<>();
+    private final ConcurrentLinkedQueue<Probe> requests = new ConcurrentLinkedQueue<>();
+    // 探测线程及其 selector，没有工作时线程退出并清空，wakeUp 时重新启动
+    private Selector selector;
+    private Thread worker;
+
+    // 以下字段只在探测线程中访问
+    private final List<Probe> inFlight = new ArrayList<>();
+    private long nextPeriodicAt;
+
+    public TargetProber(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * 同步检查一组目标，在调用线程中等待全部结果
+     *
+     * @param targets 代理名称到本地地址
+     * @return 代理名称到结果，顺序与 targets 相同
+     */
+    public Map<String, Result> check(Map<String, InetSocketAddress> targets) throws IOException {
+        if (targets.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        Collector collector = new Collector(targets.size());
+        for (Map.Entry<String, InetSocketAddress> target : targets.entrySet()) {
+            requests.add(new Probe(null, target.getKey(), target.getValue(), collector));
+        }
+        wakeUp();
+        try {
+            // 探测线程负责超时，这里多等一点防止线程异常时永久阻塞
+            collector.latch.await(CONNECT_TIMEOUT_MS * 2, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        Map<String, Result> ordered = new LinkedHashMap<>();
+        synchronized (collector) {
+            for (Map.Entry<String, InetSocketAddress> target : targets.entrySet()) {
+                Result result = collector.results.get(target.getKey());
+                ordered.put(target.getKey(), result != null ? result
+                        : new Result(target.getKey(), format(target.getValue()), false, "探测超时", -1));
+            }
+        }
+        return ordered;
+    }
+
+    /**
+     * 开始周期探测一个使用方的目标，替换该使用方之前的目标
+     */
+    public void watch(String owner, Map<String, InetSocketAddress> targets) throws IOException {
+        if (targets.isEmpty()) {
+            unwatch(owner);
+            return;
+        }
+        synchronized (lock) {
+            watched.put(owner, new LinkedHashMap<>(targets));
+            results.remove(owner);
+        }
+        // 立即探测一次
+        for (Map.Entry<String, InetSocketAddress> target : targets.entrySet()) {
+            requests.add(new Probe(owner, target.getKey(), target.getValue(), null));
+        }
+        wakeUp();
+    }
+
+    public void unwatch(String owner) {
+        synchronized (lock) {
+            watched.remove(owner);
+            results.remove(owner);
+        }
+    }
+
+    /**
+     * @return 使用方各目标的最近结果，尚未探测的目标不包含在内
+     */
+    public List<Result> getResults(String owner) {
+        synchronized (lock) {
+            Map<String, Result> map = results.get(owner);
+            return map != null ? new ArrayList<>(map.values()) : new ArrayList<Result>();
+        }
+    }
+
+    private void wakeUp() throws IOException {
+        synchronized (lock) {
+            if (worker == null) {
+                Selector opened = Selector.open();
+                selector = opened;
+                worker = new Thread(() -> loop(opened), "frpc-target-prober");
+                worker.setDaemon(true);
+                worker.start();
+            }
+            selector.wakeup();
+        }
+    }
+
+    private void loop(Selector selector) {
+        while (true) {
+            long now = SystemClock.elapsedRealtime();
+            Probe request;
+            while ((request = requests.poll()) != null) {
+                begin(request, now, selector);
+            }
+            if (now >= nextPeriodicAt) {
+                nextPeriodicAt = now + PERIOD_MS;
+                beginPeriodic(now, selector);
+            }
+            expire(now);
+            if (exitIfIdle(selector)) {
+                return;
+            }
+
+            long wait = nextPeriodicAt - now;
+            for (Probe probe : inFlight) {
+                wait = Math.min(wait, probe.deadline - now);
+            }
+            try {
+                selector.select(Math.max(1, wait));
+            } catch (IOException e) {
+                Log.e(TAG, "Selector failed", e);
+                // 结束进行中的探测，同步检查不必等到超时；之后用新的 selector 重新启动
+                for (int i = inFlight.size() - 1; i >= 0; i--) {
+                    finish(inFlight.get(i), false, describe(e));
+                }
+                exit(selector);
+                if (!requests.isEmpty()) {
+                    try {
+                        wakeUp();
+                    } catch (IOException reopen) {
+                        Log.e(TAG, "Failed to reopen selector", reopen);
+                    }
+                }
+                return;
+            }
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                Probe probe = (Probe) key.attachment();
+                try {
+                    if (probe.channel.finishConnect()) {
+                        finish(probe, true, "");
+                    }
+                } catch (IOException e) {
+                    finish(probe, false, describe(e));
+                }
+            }
+        }
+    }
+
+    /**
+     * 没有周期探测的目标、待处理的请求和进行中的探测时退出，之后的 wakeUp 会启动新线程
+     */
+    private boolean exitIfIdle(Selector selector) {
+        synchronized (lock) {
+            if (!watched.isEmpty() || !requests.isEmpty() || !inFlight.isEmpty()) {
+                return false;
+            }
+            exit(selector);
+            return true;
+        }
+    }
+
+    private void exit(Selector selector) {
+        synchronized (lock) {
+            if (this.selector == selector) {
+                this.selector = null;
+                worker = null;
+            }
+        }
+        try {
+            selector.close();
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to close selector", e);
+        }
+    }
+
+    private void beginPeriodic(long now, Selector selector) {
+        List<Probe> probes = new ArrayList<>();
+        synchronized (lock) {
+            for (Map.Entry<String, Map<String, InetSocketAddress>> owner : watched.entrySet()) {
+                for (Map.Entry<String, InetSocketAddress> target : owner.getValue().entrySet()) {
+                    if (!isInFlight(owner.getKey(), target.getKey())) {
+                        probes.add(new Probe(owner.getKey(), target.getKey(), target.getValue(), null));
+                    }
+                }
+            }
+        }
+        // 在锁外开始探测，立即完成的探测会回调 Listener
+        for (Probe probe : probes) {
+            begin(probe, now, selector);
+        }
+    }
+
+    private boolean isInFlight(String owner, String name) {
+        for (Probe probe : inFlight) {
+            if (probe.collector == null && owner.equals(probe.owner) && name.equals(probe.name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void begin(Probe probe, long now, Selector selector) {
+        probe.startedAt = now;
+        probe.deadline = now + CONNECT_TIMEOUT_MS;
+        inFlight.add(probe);
+        try {
+            probe.channel = SocketChannel.open();
+            probe.channel.configureBlocking(false);
+            if (probe.channel.connect(probe.address)) {
+                finish(probe, true, "");
+            } else {
+                probe.channel.register(selector, SelectionKey.OP_CONNECT, probe);
+            }
+        } catch (IOException e) {
+            finish(probe, false, describe(e));
+        }
+    }
+
+    private void expire(long now) {
+        // finish 会从 inFlight 中移除，倒序遍历
+        for (int i = inFlight.size() - 1; i >= 0; i--) {
+            Probe probe = inFlight.get(i);
+            if (now >= probe.deadline) {
+                finish(probe, false, "连接超时");
+            }
+        }
+    }
+
+    private void finish(Probe probe, boolean reachable, String error) {
+        if (!inFlight.remove(probe)) {
+            return;
+        }
+        if (probe.channel != null) {
+            try {
+                // 关闭时自动取消 selector 中的注册
+                probe.channel.close();
+            } catch (IOException e) {
+                Log.w(TAG, "Failed to close probe channel", e);
+            }
+        }
+        long latency = reachable ? SystemClock.elapsedRealtime() - probe.startedAt : -1;
+        Result result = new Result(probe.name, format(probe.address), reachable, error, latency);
+        if (probe.collector != null) {
+            probe.collector.complete(result);
+            return;
+        }
+        boolean changed;
+        synchronized (lock) {
+            if (!watched.containsKey(probe.owner)) {
+                // 探测期间已取消周期探测
+                return;
+            }
+            Map<String, Result> map = results.get(probe.owner);
+            if (map == null) {
+                map = new LinkedHashMap<>();
+                results.put(probe.owner, map);
+            }
+            Result previous = map.put(probe.name, result);
+            changed = previous == null || previous.reachable != reachable;
+        }
+        if (changed) {
+            Log.d(TAG, "Target " + probe.name + " (" + result.address + ") reachable=" + reachable
+                    + (reachable ? "" : ": " + error));
+            try {
+                listener.onTargetsChanged(probe.owner);
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Target listener failed", e);
+            }
+        }
+    }
+
+    private static String format(InetSocketAddress address) {
+        return address.getHostString() + ":" + address.getPort();
+    }
+
+    private static String describe(IOException e) {
+        return e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+    }
+}
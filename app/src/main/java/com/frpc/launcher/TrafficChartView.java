@@ -0,0 +1,145 @@
+package com.frpc.launcher;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.util.AttributeSet;
+import android.view.View;
+
+/**
+ * 轻量的流量折线图
+ * 读取速率、写入速率按同一纵轴绘制，连接数按独立纵轴绘制。
+ * 样本数组和绘图对象都预先分配，每次刷新只复制数组
+ */
+public class TrafficChartView extends View {
+    private static final int READ_COLOR = Color.parseColor("#2196F3");
+    private static final int WRITE_COLOR = Color.parseColor("#4CAF50");
+    private static final int CONN_COLOR = Color.parseColor("#FF9800");
+    private static final int AXIS_COLOR = Color.parseColor("#DDDDDD");
+    private static final int LABEL_COLOR = Color.parseColor("#888888");
+
+    private final Paint readPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint writePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint connPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint axisPaint = new Paint();
+    private final Paint labelPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Path path = new Path();
+    private final float density;
+
+    private long[] times = new long[0];
+    private float[] readRates = new float[0];
+    private float[] writeRates = new float[0];
+    private int[] connections = new int[0];
+    private int count = 0;
+
+    public TrafficChartView(Context context) {
+        this(context, null);
+    }
+
+    public TrafficChartView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        density = context.getResources().getDisplayMetrics().density;
+        initPaint(readPaint, READ_COLOR);
+        initPaint(writePaint, WRITE_COLOR);
+        initPaint(connPaint, CONN_COLOR);
+        axisPaint.setColor(AXIS_COLOR);
+        axisPaint.setStrokeWidth(density);
+        labelPaint.setColor(LABEL_COLOR);
+        labelPaint.setTextSize(10 * density);
+    }
+
+    private void initPaint(Paint paint, int color) {
+        paint.setColor(color);
+        paint.setStyle(Paint.Style.STROKE);
+        paint.setStrokeWidth(1.5f * density);
+    }
+
+    /**
+     * 从环形缓冲区复制样本并重绘，需在主线程调用
+     */
+    public void setSamples(TrafficRing ring) {
+        int capacity = ring.getCapacity();
+        if (times.length != capacity) {
+            times = new long[capacity];
+            readRates = new float[capacity];
+            writeRates = new float[capacity];
+            connections = new int[capacity];
+        }
+        count = ring.copyTo(times, readRates, writeRates, connections);
+        invalidate();
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        float left = getPaddingLeft();
+        float top = getPaddingTop();
+        float right = getWidth() - getPaddingRight();
+        float bottom = getHeight() - getPaddingBottom();
+        canvas.drawLine(left, bottom, right, bottom, axisPaint);
+        if (count < 2 || right <= left || bottom <= top) {
+            return;
+        }
+
+        float maxRate = 1;
+        int maxConns = 1;
+        for (int i = 0; i < count; i++) {
+            maxRate = Math.max(maxRate, Math.max(readRates[i], writeRates[i]));
+            maxConns = Math.max(maxConns, connections[i]);
+        }
+        // 横轴按容量等分，缓冲区未满时曲线从右侧开始
+        int capacity = times.length;
+        float step = (right - left) / (capacity - 1);
+        float startX = right - step * (count - 1);
+        float height = bottom - top;
+
+        drawSeries(canvas, readRates, maxRate, startX, step, bottom, height, readPaint);
+        drawSeries(canvas, writeRates, maxRate, startX, step, bottom, height, writePaint);
+        path.reset();
+        for (int i = 0; i < count; i++) {
+            float x = startX + step * i;
+            float y = bottom - height * connections[i] / maxConns;
+            if (i == 0) {
+                path.moveTo(x, y);
+            } else {
+                path.lineTo(x, y);
+            }
+        }
+        canvas.drawPath(path, connPaint);
+
+        float textY = top + labelPaint.getTextSize();
+        canvas.drawText(formatRate(maxRate), left, textY, labelPaint);
+        String connLabel = maxConns + " 连接";
+        canvas.drawText(connLabel, right - labelPaint.measureText(connLabel), textY, labelPaint);
+    }
+
+    private void drawSeries(Canvas canvas, float[] values, float max, float startX, float step,
+                            float bottom, float height, Paint paint) {
+        path.reset();
+        for (int i = 0; i < count; i++) {
+            float x = startX + step * i;
+            float y = bottom - height * values[i] / max;
+            if (i == 0) {
+                path.moveTo(x, y);
+            } else {
+                path.lineTo(x, y);
+            }
+        }
+        canvas.drawPath(path, paint);
+    }
+
+    /**
+     * 把每秒字节数格式化为便于阅读的单位
+     */
+    public static String formatRate(float bytesPerSecond) {
+        if (bytesPerSecond < 1024) {
+            return String.format(java.util.Locale.US, "%.0f B/s", bytesPerSecond);
+        }
+        if (bytesPerSecond < 1024 * 1024) {
+            return String.format(java.util.Locale.US, "%.1f KB/s", bytesPerSecond / 1024);
+        }
+        return String.format(java.util.Locale.US, "%.1f MB/s", bytesPerSecond / (1024 * 1024));
+    }
+}
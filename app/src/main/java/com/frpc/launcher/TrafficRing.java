@@ -0,0 +1,80 @@
+package com.frpc.launcher;
+
+/**
+ * 固定容量的流量采样环形缓冲区
+ * 使用并行的基本类型数组保存，写入时不分配对象
+ */
+public class TrafficRing {
+    private final long[] times;
+    private final float[] readRates;
+    private final float[] writeRates;
+    private final int[] connections;
+    private int start = 0;
+    private int size = 0;
+
+    public TrafficRing(int capacity) {
+        times = new long[capacity];
+        readRates = new float[capacity];
+        writeRates = new float[capacity];
+        connections = new int[capacity];
+    }
+
+    /**
+     * @param timeMillis 采样时间（墙上时间）
+     * @param readRate   每秒读取字节数
+     * @param writeRate  每秒写入字节数
+     * @param conns      当前连接数
+     */
+    public synchronized void add(long timeMillis, float readRate, float writeRate, int conns) {
+        int capacity = times.length;
+        int index;
+        if (size < capacity) {
+            index = (start + size) % capacity;
+            size++;
+        } else {
+            index = start;
+            start = (start + 1) % capacity;
+        }
+        times[index] = timeMillis;
+        readRates[index] = readRate;
+        writeRates[index] = writeRate;
+        connections[index] = conns;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public int getCapacity() {
+        return times.length;
+    }
+
+    /**
+     * 按时间顺序复制全部样本，目标数组长度至少为容量
+     *
+     * @return 复制的样本数
+     */
+    public synchronized int copyTo(long[] outTimes, float[] outRead, float[] outWrite, int[] outConns) {
+        int capacity = times.length;
+        int first = Math.min(size, capacity - start);
+        copyRange(start, 0, first, outTimes, outRead, outWrite, outConns);
+        copyRange(0, first, size - first, outTimes, outRead, outWrite, outConns);
+        return size;
+    }
+
+    private void copyRange(int from, int to, int count, long[] outTimes, float[] outRead,
+                           float[] outWrite, int[] outConns) {
+        if (count <= 0) {
+            return;
+        }
+        System.arraycopy(times, from, outTimes, to, count);
+        System.arraycopy(readRates, from, outRead, to, count);
+        System.arraycopy(writeRates, from, outWrite, to, count);
+        System.arraycopy(connections, from, outConns, to, count);
+    }
+
+    public synchronized void clear() {
+        start = 0;
+        size = 0;
+    }
+}
@@ -0,0 +1,260 @@
+package com.frpc.launcher;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * frpc 流量采样器
+ * 每秒通过 root shell 读取一次 frpc 进程的 /proc/&lt;pid&gt;/io 和 /proc/net/tcp，
+ * 得到进程的读写速率和每个代理到本地目标的连接数。
+ * 细粒度环保存 10 分钟的秒级样本，粗粒度环保存 24 小时的分钟级平均值。
+ * 只有存在使用方时才采样，最后一个使用方离开后采样线程退出
+ */
+public class TrafficSampler {
+    private static final String TAG = "TrafficSampler";
+    private static final long INTERVAL_MS = 1000;
+    private static final int FINE_CAPACITY = 10 * 60;
+    private static final int COARSE_CAPACITY = 24 * 60;
+    private static final int SAMPLES_PER_COARSE = 60;
+    private static final long SHELL_TIMEOUT_MS = 2000;
+    // /proc/net/tcp 中 ESTABLISHED 状态的编码
+    private static final String TCP_ESTABLISHED = "01";
+
+    public interface Listener {
+        /**
+         * 每次采样后在采样线程中调用
+         */
+        void onSample();
+    }
+
+    private final FrpcSupervisor supervisor;
+    private final RootShell rootShell;
+    private final Listener listener;
+    private final TrafficRing fine = new TrafficRing(FINE_CAPACITY);
+    private final TrafficRing coarse = new TrafficRing(COARSE_CAPACITY);
+    private int consumers = 0;
+    private Thread worker;
+
+    // 以下字段只在采样线程中访问
+    private long lastRead = -1;
+    private long lastWrite = -1;
+    private long lastSampleAt;
+    private float coarseRead;
+    private float coarseWrite;
+    private int coarseConns;
+    private int coarseCount;
+
+    private volatile float currentReadRate;
+    private volatile float currentWriteRate;
+    private volatile Map<String, Integer> currentConnections = Collections.emptyMap();
+
+    public TrafficSampler(FrpcSupervisor supervisor, RootShell rootShell, Listener listener) {
+        this.supervisor = supervisor;
+        this.rootShell = rootShell;
+        this.listener = listener;
+    }
+
+    /**
+     * 增加一个使用方，第一个使用方到来时开始采样
+     */
+    public synchronized void acquire() {
+        consumers++;
+        if (worker == null) {
+            worker = new Thread(this::loop, "frpc-traffic-sampler");
+            worker.setDaemon(true);
+            worker.start();
+        }
+    }
+
+    /**
+     * 移除一个使用方，没有使用方时停止采样
+     * 不中断采样线程，它可能正在共用的 root shell 中执行命令；线程在本次采样结束后自行退出
+     */
+    public synchronized void release() {
+        if (consumers > 0) {
+            consumers--;
+        }
+        if (consumers == 0) {
+            notifyAll();
+        }
+    }
+
+    public TrafficRing getFineRing() {
+        return fine;
+    }
+
+    public TrafficRing getCoarseRing() {
+        return coarse;
+    }
+
+    public float getCurrentReadRate() {
+        return currentReadRate;
+    }
+
+    public float getCurrentWriteRate() {
+        return currentWriteRate;
+    }
+
+    /**
+     * @return 最近一次采样时每个代理到本地目标的连接数
+     */
+    public Map<String, Integer> getCurrentConnections() {
+        return currentConnections;
+    }
+
+    private void loop() {
+        // 暂停后重新开始时不能用旧的计数器计算速率
+        lastRead = -1;
+        lastWrite = -1;
+        long next = SystemClock.elapsedRealtime();
+        while (awaitNextSample(next)) {
+            next = SystemClock.elapsedRealtime() + INTERVAL_MS;
+            sampleOnce();
+        }
+    }
+
+    /**
+     * 等到下一次采样的时间，期间所有使用方离开时清除 worker 并返回 false，
+     * 此后再有使用方到来时启动新的采样线程
+     */
+    private synchronized boolean awaitNextSample(long at) {
+        long remaining;
+        while (consumers > 0 && (remaining = at - SystemClock.elapsedRealtime()) > 0) {
+            try {
+                wait(remaining);
+            } catch (InterruptedException e) {
+                worker = null;
+                return false;
+            }
+        }
+        if (consumers > 0) {
+            return true;
+        }
+        worker = null;
+        return false;
+    }
+
+    private void sampleOnce() {
+        List<FrpcInstance> running = new ArrayList<>();
+        for (FrpcInstance instance : supervisor.getInstances()) {
+            if (instance.isRunning() && instance.getFrpcPid() > 0) {
+                running.add(instance);
+            }
+        }
+        if (running.isEmpty()) {
+            // 没有运行中的实例时不记录样本，下次启动后重新建立基线
+            lastRead = -1;
+            lastWrite = -1;
+            return;
+        }
+        StringBuilder cmd = new StringBuilder();
+        for (FrpcInstance instance : running) {
+            cmd.append("cat /proc/").append(instance.getFrpcPid()).append("/io 2>/dev/null; ");
+        }
+        cmd.append("cat /proc/net/tcp /proc/net/tcp6 2>/dev/null");
+        RootShell.Result result;
+        try {
+            result = rootShell.exec(cmd.toString(), SHELL_TIMEOUT_MS);
+        } catch (IOException e) {
+            Log.w(TAG, "Traffic sample failed: " + e.getMessage());
+            return;
+        }
+        long now = SystemClock.elapsedRealtime();
+
+        long read = 0;
+        long write = 0;
+        Map<Integer, Integer> byPort = new HashMap<>();
+        for (String line : result.output) {
+            if (line.startsWith("rchar:")) {
+                read += parseLong(line.substring(6));
+            } else if (line.startsWith("wchar:")) {
+                write += parseLong(line.substring(6));
+            } else {
+                countConnection(line, byPort);
+            }
+        }
+        Map<String, Integer> conns = new LinkedHashMap<>();
+        int totalConns = 0;
+        for (FrpcInstance instance : running) {
+            for (Map.Entry<String, Integer> target : instance.getProxyTargets().entrySet()) {
+                Integer count = byPort.get(target.getValue());
+                int n = count != null ? count : 0;
+                conns.put(target.getKey(), n);
+                totalConns += n;
+            }
+        }
+
+        float readRate = 0;
+        float writeRate = 0;
+        if (lastRead >= 0 && now > lastSampleAt) {
+            float seconds = (now - lastSampleAt) / 1000f;
+            // 进程重启后计数器会变小，这一次不计算速率
+            readRate = read >= lastRead ? (read - lastRead) / seconds : 0;
+            writeRate = write >= lastWrite ? (write - lastWrite) / seconds : 0;
+        }
+        lastRead = read;
+        lastWrite = write;
+        lastSampleAt = now;
+
+        long wallTime = System.currentTimeMillis();
+        fine.add(wallTime, readRate, writeRate, totalConns);
+        coarseRead += readRate;
+        coarseWrite += writeRate;
+        coarseConns = Math.max(coarseConns, totalConns);
+        if (++coarseCount >= SAMPLES_PER_COARSE) {
+            coarse.add(wallTime, coarseRead / coarseCount, coarseWrite / coarseCount, coarseConns);
+            coarseRead = 0;
+            coarseWrite = 0;
+            coarseConns = 0;
+            coarseCount = 0;
+        }
+        currentReadRate = readRate;
+        currentWriteRate = writeRate;
+        currentConnections = Collections.unmodifiableMap(conns);
+        try {
+            listener.onSample();
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Traffic listener failed", e);
+        }
+    }
+
+    /**
+     * 统计 root（frpc）发起、目标端口为代理本地端口的已建立连接
+     * 行格式: "sl local_address rem_address st tx:rx tr:when retrnsmt uid ..."
+     */
+    private static void countConnection(String line, Map<Integer, Integer> byPort) {
+        String[] fields = line.trim().split("\\s+");
+        if (fields.length < 8 || !fields[0].endsWith(":") || !TCP_ESTABLISHED.equals(fields[3])
+                || !"0".equals(fields[7])) {
+            return;
+        }
+        String remote = fields[2];
+        int colon = remote.lastIndexOf(':');
+        if (colon < 0) {
+            return;
+        }
+        try {
+            int port = Integer.parseInt(remote.substring(colon + 1), 16);
+            Integer count = byPort.get(port);
+            byPort.put(port, count != null ? count + 1 : 1);
+        } catch (NumberFormatException e) {
+            // 忽略无法解析的行
+        }
+    }
+
+    private static long parseLong(String text) {
+        try {
+            return Long.parseLong(text.trim());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
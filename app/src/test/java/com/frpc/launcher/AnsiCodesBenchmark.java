@@ -0,0 +1,98 @@
+package com.frpc.launcher;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * AnsiCodes.strip 与原来 replaceAll 实现的对比
+ * 样本取自 frpc 的实际输出，大部分行不含转义序列。两边都从读取到的 UTF-8 字节开始、得到解码后的行，
+ * 与 ProcessOutputReader 中的用法一致。在 JVM 上运行，不需要设备：
+ * <pre>
+ * ./gradlew :app:compileDebugUnitTestJavaWithJavac
+ * java -cp "app/build/intermediates/javac/debugUnitTest/classes:app/build/intermediates/javac/debug/classes:&lt;jmh 依赖&gt;" \
+ *     com.frpc.launcher.AnsiCodesBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AnsiCodesBenchmark {
+
+    private static final String[] SAMPLES = {
+            "2024-01-02 15:04:05.123 [I] [client/service.go:301] [a1b2c3d4e5f6a7b8] login to server success, get run id [a1b2c3d4e5f6a7b8]",
+            "2024-01-02 15:04:05.124 [I] [proxy/proxy_manager.go:150] [a1b2c3d4e5f6a7b8] proxy added: [frpc-1a2b3c4d]",
+            "2024-01-02 15:04:05.130 [I] [client/control.go:172] [a1b2c3d4e5f6a7b8] [frpc-1a2b3c4d] start proxy success",
+            "2024-01-02 15:05:10.001 [W] [client/control.go:220] [a1b2c3d4e5f6a7b8] [frpc-1a2b3c4d] start error: port already used",
+            "\u001B[1;34m2024-01-02 15:04:05.123 [I] [client/service.go:301] [a1b2c3d4e5f6a7b8] login to server success\u001B[0m",
+            "\u001B[1;33m2024-01-02 15:06:00.500 [W] [client/service.go:295] connect to server error: dial tcp 1.2.3.4:7000: i/o timeout\u001B[0m",
+            "\u001B[1;31m2024-01-02 15:06:30.000 [E] [client/service.go:150] login to the server failed: EOF\u001B[0m",
+            "frpc 启动中...",
+    };
+
+    private byte[][] encoded;
+    // strip 会原地修改，每次调用前把样本复制到这里，对应读取线程复用的行缓冲区
+    private byte[] line;
+
+    @Setup
+    public void setUp() {
+        encoded = new byte[SAMPLES.length][];
+        int longest = 0;
+        for (int i = 0; i < SAMPLES.length; i++) {
+            encoded[i] = SAMPLES[i].getBytes(StandardCharsets.UTF_8);
+            longest = Math.max(longest, encoded[i].length);
+        }
+        line = new byte[longest];
+    }
+
+    /**
+     * 改动前 FrpcService.removeAnsiCodes 的实现，每次调用都重新编译正则
+     */
+    static String legacyStrip(String text) {
+        if (text == null) {
+            return "";
+        }
+        return text.replaceAll("\u001B\\[[0-9;]*[mK]", "");
+    }
+
+    @Benchmark
+    public void scanner(Blackhole blackhole) {
+        for (byte[] sample : encoded) {
+            System.arraycopy(sample, 0, line, 0, sample.length);
+            int length = AnsiCodes.strip(line, sample.length);
+            blackhole.consume(new String(line, 0, length, StandardCharsets.UTF_8));
+        }
+    }
+
+    @Benchmark
+    public void legacyRegex(Blackhole blackhole) {
+        for (byte[] sample : encoded) {
+            blackhole.consume(legacyStrip(new String(sample, StandardCharsets.UTF_8)));
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(AnsiCodesBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
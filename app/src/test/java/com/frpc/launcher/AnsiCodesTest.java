@@ -0,0 +1,80 @@
+package com.frpc.launcher;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+
+public class AnsiCodesTest {
+
+    /**
+     * 与 ProcessOutputReader 相同：先在 UTF-8 字节上清理，再解码
+     */
+    private static String strip(String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        int length = AnsiCodes.strip(bytes, bytes.length);
+        return new String(bytes, 0, length, StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void lineWithoutEscapeIsUnchanged() {
+        String line = "2024-01-02 15:04:05.000 [I] [client/service.go:301] login to server success";
+        byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+        assertEquals(bytes.length, AnsiCodes.strip(bytes, bytes.length));
+        assertEquals(line, strip(line));
+    }
+
+    @Test
+    public void stripsSgrAndEraseSequences() {
+        assertEquals("WARN done", strip("\u001B[1;33mWARN\u001B[0m done\u001B[K"));
+        assertEquals("line", strip("\u001B[2Kline"));
+    }
+
+    @Test
+    public void stripsAllCsiFinalBytes() {
+        // 光标移动、私有模式和带中间字节的序列都应移除，不只是 m 和 K
+        assertEquals("ab", strip("a\u001B[?25l\u001B[3Ab"));
+        assertEquals("xy", strip("x\u001B[1 qy"));
+    }
+
+    @Test
+    public void stripsC1Csi() {
+        assertEquals("red", strip("\u009B31mred"));
+    }
+
+    @Test
+    public void stripsOscTerminatedByBelOrSt() {
+        assertEquals("text", strip("\u001B]0;title\u0007text"));
+        assertEquals("text", strip("\u001B]0;title\u001B\\text"));
+    }
+
+    @Test
+    public void stripsTwoCharacterEscapeAndTrailingEsc() {
+        assertEquals("ab", strip("a\u001B7b"));
+        assertEquals("abc", strip("abc\u001B"));
+    }
+
+    @Test
+    public void stripsEscapeWithIntermediateBytes() {
+        // tput sgr0 输出的 ESC ( B
+        assertEquals("ab", strip("a\u001B(Bb"));
+    }
+
+    @Test
+    public void escBeforeMultiByteCharacterKeepsTheCharacter() {
+        assertEquals("a中文", strip("a\u001B中文"));
+        assertEquals("é", strip("\u001Bé"));
+    }
+
+    @Test
+    public void malformedCsiEndsAtInvalidByte() {
+        assertEquals("\nx", strip("\u001B[12\nx"));
+    }
+
+    @Test
+    public void multiByteTextAroundSequencesIsKept() {
+        assertEquals("中文 输出", strip("中文\u001B[0m 输出"));
+        assertEquals("X", strip("\u009B1mX"));
+    }
+}
@@ -0,0 +1,126 @@
+package com.frpc.launcher;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ErrorClassifierTest {
+    private static final long NOW = 1704207845123L;
+
+    private static ErrorClassifier classify(String... lines) {
+        ErrorClassifier classifier = new ErrorClassifier(4);
+        for (String line : lines) {
+            classifier.accept(LogRecord.parse(line, NOW));
+        }
+        return classifier;
+    }
+
+    @Test
+    public void ioTimeoutIsTimeout() {
+        assertEquals(ErrorClassifier.Category.TIMEOUT,
+                classify("connect to server error: dial tcp 1.2.3.4:7000: i/o timeout").classify());
+    }
+
+    @Test
+    public void refusedIsMatchedIgnoringCase() {
+        assertEquals(ErrorClassifier.Category.REFUSED,
+                classify("dial tcp 1.2.3.4:7000: connect: Connection REFUSED").classify());
+    }
+
+    @Test
+    public void unknownHostIsDns() {
+        assertEquals(ErrorClassifier.Category.DNS,
+                classify("lookup frp.example.com on 8.8.8.8:53: no such host").classify());
+    }
+
+    @Test
+    public void loginFailureIsLogin() {
+        assertEquals(ErrorClassifier.Category.LOGIN,
+                classify("login to the server failed: token in login doesn't match token from configuration")
+                        .classify());
+    }
+
+    @Test
+    public void errorLevelCountsAsError() {
+        // 消息中没有 "error"，错误级别的行视同包含
+        assertEquals(ErrorClassifier.Category.CONFIG,
+                classify("2024-01-02 15:04:05.123 [E] [client/service.go:10] load config: bad value").classify());
+    }
+
+    @Test
+    public void sourceLocationIsNotMatched() {
+        ErrorClassifier classifier = classify(
+                "2024-01-02 15:04:05.123 [W] [config/load_error.go:30] [ssh] start proxy success");
+        assertEquals(ErrorClassifier.Category.UNKNOWN, classifier.classify());
+    }
+
+    @Test
+    public void keywordsDoNotSpanLines() {
+        assertEquals(ErrorClassifier.Category.UNKNOWN, classify("dial", "tcp timeout").classify());
+    }
+
+    @Test
+    public void keywordsAccumulateAcrossLines() {
+        assertEquals(ErrorClassifier.Category.TIMEOUT, classify("dial tcp 1.2.3.4:7000", "timeout").classify());
+    }
+
+    @Test
+    public void startupOutputIsForgottenOnReady() {
+        ErrorClassifier classifier = classify(
+                "2024-01-02 15:04:05.000 [I] [client/service.go:200] start frpc service for config file [/data/frpc.toml]",
+                "2024-01-02 15:04:05.050 [W] [config/legacy.go:40] toml parse warning: unknown key ignored",
+                "2024-01-02 15:04:05.100 [I] [client/service.go:301] [a1b2] login to server success, get run id [a1b2]");
+        assertEquals(ErrorClassifier.Category.CONFIG, classifier.classify());
+        classifier.onReady();
+        classifier.accept(LogRecord.parse(
+                "2024-01-05 03:00:00.000 [E] [client/control.go:150] [a1b2] heartbeat fail, work connection closed", NOW));
+        ErrorClassifier.Category category = classifier.classify();
+        assertEquals(ErrorClassifier.Category.UNKNOWN, category);
+        // 普通断线仍会自动重启
+        RestartPolicy policy = new RestartPolicy();
+        policy.onStarted(0);
+        assertTrue(policy.onExit(category, 1, "exit", 3 * 24 * 3600 * 1000L).restart);
+    }
+
+    @Test
+    public void loginAndFailOnDifferentLinesIsNotLogin() {
+        assertEquals(ErrorClassifier.Category.UNKNOWN,
+                classify("login to server success", "read tcp: connection reset, fail to read message").classify());
+    }
+
+    @Test
+    public void onlyRecentLinesAreClassified() {
+        ErrorClassifier classifier = new ErrorClassifier(2);
+        classifier.accept(LogRecord.parse("login to the server failed: token mismatch", NOW));
+        assertEquals(ErrorClassifier.Category.LOGIN, classifier.classify());
+        classifier.accept(LogRecord.parse("try to reconnect", NOW));
+        classifier.accept(LogRecord.parse("work connection closed", NOW));
+        assertEquals(ErrorClassifier.Category.UNKNOWN, classifier.classify());
+    }
+
+    @Test
+    public void keepsMostRecentLinesInOrder() {
+        ErrorClassifier classifier = new ErrorClassifier(2);
+        for (String line : new String[]{"a", "b", "c"}) {
+            classifier.accept(LogRecord.plain(line, LogRecord.Level.NONE, NOW));
+        }
+        List<LogRecord> recent = classifier.getRecentLines();
+        assertEquals(2, recent.size());
+        assertEquals("b", recent.get(0).line);
+        assertEquals("c", recent.get(1).line);
+    }
+
+    @Test
+    public void resetClearsState() {
+        ErrorClassifier classifier = classify("connection refused");
+        assertTrue(classifier.hasOutput());
+        classifier.reset();
+        assertFalse(classifier.hasOutput());
+        assertEquals(ErrorClassifier.Category.UNKNOWN, classifier.classify());
+        assertTrue(classifier.getRecentLines().isEmpty());
+    }
+}
@@ -0,0 +1,184 @@
+package com.frpc.launcher;
+
+import android.content.Context;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 用本地的 frps 替身验证租约分配与就绪检测的配合
+ * 替身按 frps 的规则登记代理名称和远程端口，返回与 frpc 相同格式的输出，
+ * 输出经过 LogRecord 和 ReadinessDetector，再按 FrpcService 的流程交给 ProxyAllocator 处理拒绝
+ */
+@RunWith(RobolectricTestRunner.class)
+public class FrpsStandInTest {
+    private static final int MIN_PORT = 20000;
+    private static final int MAX_PORT = 20999;
+    private static final long NOW = 1704207845123L;
+
+    /**
+     * frps 替身：每个名称和端口只能被一个客户端占用，残留的代理在若干次登录尝试后过期，
+     * 相当于 frps 等到心跳超时后清理断开的客户端
+     */
+    private static class FrpsStandIn {
+        private final Map<String, String> names = new HashMap<>();
+        private final Map<Integer, String> ports = new HashMap<>();
+        private final Map<String, Integer> ghostLifetimes = new HashMap<>();
+
+        void occupy(String owner, String name, int port) {
+            names.put(name, owner);
+            ports.put(port, owner);
+        }
+
+        /**
+         * 上次会话异常断开后残留的代理，再经过 attempts 次登录尝试后被清理
+         */
+        void leaveGhost(String name, int port, int attempts) {
+            occupy("ghost", name, port);
+            ghostLifetimes.put(name, attempts);
+        }
+
+        /**
+         * 处理一次登录和代理注册，返回 frpc 会输出的日志
+         */
+        List<String> register(String client, String name, int port) {
+            expireGhosts();
+            List<String> out = new ArrayList<>();
+            out.add("2024-01-02 15:04:05.000 [I] [client/service.go:301] [run" + client
+                    + "] login to server success, get run id [run" + client + "]");
+            String nameOwner = names.get(name);
+            String portOwner = ports.get(port);
+            if (nameOwner != null && !nameOwner.equals(client)) {
+                out.add("2024-01-02 15:04:05.010 [W] [client/control.go:180] [run" + client + "] [" + name
+                        + "] start error: proxy [" + name + "] already exists");
+            } else if (portOwner != null && !portOwner.equals(client)) {
+                out.add("2024-01-02 15:04:05.010 [W] [client/control.go:180] [run" + client + "] [" + name
+                        + "] start error: port already used");
+            } else {
+                occupy(client, name, port);
+                out.add("2024-01-02 15:04:05.010 [I] [client/control.go:172] [run" + client + "] [" + name
+                        + "] start proxy success");
+            }
+            return out;
+        }
+
+        private void expireGhosts() {
+            for (Map.Entry<String, Integer> entry : new ArrayList<>(ghostLifetimes.entrySet())) {
+                int left = entry.getValue() - 1;
+                if (left > 0) {
+                    entry.setValue(left);
+                    continue;
+                }
+                ghostLifetimes.remove(entry.getKey());
+                names.remove(entry.getKey());
+                ports.values().remove("ghost");
+            }
+        }
+    }
+
+    private Context context;
+    private FrpsStandIn frps;
+    // 每次尝试前的等待时间，与 FrpcService 的重试一致
+    private final List<Long> delays = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        context = RuntimeEnvironment.getApplication();
+        frps = new FrpsStandIn();
+    }
+
+    /**
+     * 按 FrpcService.startFrpc 的流程启动，直到注册成功或用完重试次数
+     *
+     * @return 注册成功的租约
+     */
+    private ProxyAllocator.Lease start(ProxyAllocator allocator, String client) throws Exception {
+        int maxAttempts = ProxyAllocator.SAME_LEASE_RETRIES + 3;
+        for (int attempt = 0; attempt <= maxAttempts; attempt++) {
+            ProxyAllocator.Lease lease = allocator.acquire(MIN_PORT, MAX_PORT);
+            ReadinessDetector readiness = new ReadinessDetector(Collections.singletonList(lease.name));
+            for (String line : frps.register(client, lease.name, lease.port)) {
+                readiness.accept(LogRecord.parse(line, NOW));
+            }
+            try {
+                readiness.await(0);
+                allocator.confirm();
+                return lease;
+            } catch (IOException e) {
+                ReadinessDetector.Rejection rejection = readiness.getRejection();
+                assertNotEquals(ReadinessDetector.Rejection.NONE, rejection);
+                ProxyAllocator.Retry retry = allocator.reject(
+                        rejection == ReadinessDetector.Rejection.PORT_IN_USE, attempt, MIN_PORT, MAX_PORT);
+                delays.add(retry.delayMs);
+            }
+        }
+        throw new AssertionError("did not register within " + maxAttempts + " attempts");
+    }
+
+    @Test
+    public void firstStartRegistersAndPersistsLease() throws Exception {
+        ProxyAllocator.Lease lease = start(new ProxyAllocator(context), "device");
+        assertTrue(delays.isEmpty());
+        ProxyAllocator.Lease restarted = new ProxyAllocator(context).acquire(MIN_PORT, MAX_PORT);
+        assertEquals(lease.name, restarted.name);
+        assertEquals(lease.port, restarted.port);
+    }
+
+    @Test
+    public void ghostFromPreviousSessionKeepsStickyLease() throws Exception {
+        ProxyAllocator.Lease lease = start(new ProxyAllocator(context), "device");
+        // 进程被杀死后重启，服务器上还残留着上次的代理
+        frps = new FrpsStandIn();
+        frps.leaveGhost(lease.name, lease.port, 3);
+        delays.clear();
+
+        ProxyAllocator.Lease registered = start(new ProxyAllocator(context), "device");
+        assertEquals(lease.name, registered.name);
+        assertEquals(lease.port, registered.port);
+        // 残留代理在第三次尝试时清理，此前两次原样重试并逐次加倍等待
+        assertEquals(2, delays.size());
+        assertEquals(5000L, (long) delays.get(0));
+        assertEquals(10000L, (long) delays.get(1));
+    }
+
+    @Test
+    public void portTakenByAnotherDeviceRotatesAfterRetries() throws Exception {
+        ProxyAllocator.Lease lease = start(new ProxyAllocator(context), "device");
+        frps = new FrpsStandIn();
+        frps.occupy("other", "frpc-other", lease.port);
+        delays.clear();
+
+        ProxyAllocator.Lease registered = start(new ProxyAllocator(context), "device");
+        assertEquals(lease.name, registered.name);
+        assertNotEquals(lease.port, registered.port);
+        assertEquals(ProxyAllocator.SAME_LEASE_RETRIES + 1, delays.size());
+        assertEquals(0L, (long) delays.get(delays.size() - 1));
+        // 新端口注册成功后才持久化，下次启动直接使用
+        assertEquals(registered.port, new ProxyAllocator(context).acquire(MIN_PORT, MAX_PORT).port);
+    }
+
+    @Test
+    public void nameTakenOnFirstStartRotatesImmediately() throws Exception {
+        ProxyAllocator allocator = new ProxyAllocator(context);
+        String name = allocator.acquire(MIN_PORT, MAX_PORT).name;
+        frps.occupy("other", name, MIN_PORT - 1);
+
+        ProxyAllocator.Lease registered = start(allocator, "device");
+        assertTrue(registered.name.startsWith(name + "-"));
+        assertEquals(Collections.singletonList(0L), delays);
+    }
+}
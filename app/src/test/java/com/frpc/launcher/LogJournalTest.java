@@ -0,0 +1,124 @@
+package com.frpc.launcher;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class LogJournalTest {
+    private File dir;
+    private LogJournal journal;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("journal").toFile();
+        journal = new LogJournal(dir);
+    }
+
+    @After
+    public void tearDown() {
+        journal.close();
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    private List<String> read(long from, long to) {
+        List<String> out = new ArrayList<>();
+        journal.read(from, to, (timestamp, line) -> {
+            out.add(timestamp + " " + line);
+            return true;
+        });
+        return out;
+    }
+
+    @Test
+    public void readsRecordsWithTheirOwnTimestamps() {
+        long base = System.currentTimeMillis();
+        journal.append(base + 10, "first");
+        journal.append(base + 20, "second");
+        journal.append(base + 30, "第三行");
+        List<String> lines = read(base, base + 100);
+        assertEquals(3, lines.size());
+        assertEquals((base + 10) + " first", lines.get(0));
+        assertEquals((base + 30) + " 第三行", lines.get(2));
+    }
+
+    @Test
+    public void rangeIsInclusive() {
+        long base = System.currentTimeMillis();
+        for (int i = 0; i < 5; i++) {
+            journal.append(base + i * 10, "line" + i);
+        }
+        List<String> lines = read(base + 10, base + 30);
+        assertEquals(3, lines.size());
+        assertEquals((base + 10) + " line1", lines.get(0));
+        assertEquals((base + 30) + " line3", lines.get(2));
+    }
+
+    @Test
+    public void earlierTimestampIsClampedToPrevious() {
+        long base = System.currentTimeMillis();
+        journal.append(base + 50, "late");
+        journal.append(base + 10, "early");
+        List<String> lines = read(base, base + 100);
+        assertEquals((base + 50) + " early", lines.get(1));
+    }
+
+    @Test
+    public void visitorCanStop() {
+        long base = System.currentTimeMillis();
+        for (int i = 0; i < 5; i++) {
+            journal.append(base + i, "line" + i);
+        }
+        List<String> out = new ArrayList<>();
+        journal.read(base, base + 100, (timestamp, line) -> {
+            out.add(line);
+            return out.size() < 2;
+        });
+        assertEquals(2, out.size());
+    }
+
+    @Test
+    public void reopenContinuesExistingSegment() throws IOException {
+        long base = System.currentTimeMillis();
+        journal.append(base + 100, "before");
+        journal.close();
+        journal = new LogJournal(dir);
+        // 重新打开后仍保持分段内时间有序
+        journal.append(base + 50, "after");
+        List<String> lines = read(base, base + 1000);
+        assertEquals(2, lines.size());
+        assertEquals((base + 100) + " before", lines.get(0));
+        assertEquals((base + 100) + " after", lines.get(1));
+    }
+
+    @Test
+    public void truncatesOversizedLines() {
+        long base = System.currentTimeMillis();
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            sb.append('x');
+        }
+        journal.append(base, sb.toString());
+        journal.append(base + 1, "next");
+        List<String> out = new ArrayList<>();
+        journal.read(base, base + 10, (timestamp, line) -> {
+            out.add(line);
+            return true;
+        });
+        assertEquals(8 * 1024, out.get(0).length());
+        assertEquals("next", out.get(1));
+    }
+}
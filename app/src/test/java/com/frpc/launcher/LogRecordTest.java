@@ -0,0 +1,113 @@
+package com.frpc.launcher;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class LogRecordTest {
+    // 2024-01-02T15:04:05.123Z
+    private static final long INSTANT = 1704207845123L;
+    private static final String LINE =
+            "2024-01-02 15:04:05.123 [I] [proxy/proxy_wrapper.go:204] [a1b2c3d4] [ssh] start proxy success";
+
+    @Test
+    public void parsesAllFields() {
+        LogRecord record = LogRecord.parse(LINE, INSTANT + 200);
+        assertTrue(record.structured);
+        assertEquals(INSTANT, record.epochMillis);
+        assertEquals(LogRecord.Level.INFO, record.level);
+        assertEquals("proxy/proxy_wrapper.go:204", record.location);
+        assertEquals("a1b2c3d4", record.runId);
+        assertEquals("ssh", record.proxy);
+        assertEquals("start proxy success", record.getMessage());
+        assertSame(LINE, record.line);
+    }
+
+    @Test
+    public void singleBracketFieldIsRunId() {
+        LogRecord record = LogRecord.parse(
+                "2024-01-02 15:04:05.123 [W] [client/service.go:301] [a1b2c3d4] login to server success", INSTANT);
+        assertEquals("a1b2c3d4", record.runId);
+        assertEquals("", record.proxy);
+        assertEquals("login to server success", record.getMessage());
+    }
+
+    @Test
+    public void infersFrpcTimeZoneFromReceiveTime() {
+        // frpc 按 UTC+8 输出，收到时间为同一时刻
+        LogRecord record = LogRecord.parse("2024-01-02 23:04:05.123 [I] [a.go:1] hello", INSTANT + 500);
+        assertEquals(INSTANT, record.epochMillis);
+    }
+
+    @Test
+    public void acceptsSlashDateAndVariableFraction() {
+        assertEquals(INSTANT - 123, LogRecord.parse("2024/01/02 15:04:05 [I] [a.go:1] x", INSTANT).epochMillis);
+        assertEquals(INSTANT, LogRecord.parse("2024-01-02 15:04:05.123456 [I] [a.go:1] x", INSTANT).epochMillis);
+        assertEquals(INSTANT - 23, LogRecord.parse("2024-01-02 15:04:05.1 [I] [a.go:1] x", INSTANT).epochMillis);
+    }
+
+    @Test
+    public void unstructuredLineIsWholeMessage() {
+        LogRecord record = LogRecord.parse("frpc 启动中", INSTANT);
+        assertFalse(record.structured);
+        assertEquals(LogRecord.Level.NONE, record.level);
+        assertEquals(INSTANT, record.epochMillis);
+        assertEquals("frpc 启动中", record.getMessage());
+    }
+
+    @Test
+    public void unknownLevelIsUnstructured() {
+        assertFalse(LogRecord.parse("2024-01-02 15:04:05.123 [X] [a.go:1] x", INSTANT).structured);
+    }
+
+    @Test
+    public void internsLocationButNotRunId() {
+        LogRecord first = LogRecord.parse(LINE, INSTANT);
+        LogRecord second = LogRecord.parse(new String(LINE.toCharArray()), INSTANT);
+        assertSame(first.location, second.location);
+        assertSame(first.proxy, second.proxy);
+        assertNotSame(first.runId, second.runId);
+    }
+
+    @Test
+    public void messageMatchingSkipsHeader() {
+        LogRecord record = LogRecord.parse(
+                "2024-01-02 15:04:05.123 [I] [config/load.go:30] Start Proxy success", INSTANT);
+        assertFalse(record.messageContains("config"));
+        assertTrue(record.lineContains("config"));
+        assertTrue(record.messageContains("proxy SUCCESS"));
+        assertTrue(record.messageStartsWith("start proxy"));
+    }
+
+    @Test
+    public void prefixKeepsMessage() {
+        LogRecord record = LogRecord.parse(LINE, INSTANT).withPrefix("[错误] ");
+        assertEquals("[错误] " + LINE, record.line);
+        assertEquals("start proxy success", record.getMessage());
+        assertEquals("ssh", record.proxy);
+    }
+
+    @Test
+    public void levelTagsMapToLevels() {
+        for (LogRecord.Level level : LogRecord.Level.values()) {
+            if (level != LogRecord.Level.NONE) {
+                assertSame(level, LogRecord.Level.fromTag(level.tag));
+            }
+        }
+        // 空格是 NONE 的占位符，不是有效的级别
+        assertNull(LogRecord.Level.fromTag(' '));
+        assertNull(LogRecord.Level.fromTag('X'));
+    }
+
+    @Test
+    public void levelOrdering() {
+        assertTrue(LogRecord.Level.ERROR.atLeast(LogRecord.Level.WARN));
+        assertFalse(LogRecord.Level.INFO.atLeast(LogRecord.Level.WARN));
+        assertFalse(LogRecord.Level.NONE.atLeast(LogRecord.Level.TRACE));
+    }
+}
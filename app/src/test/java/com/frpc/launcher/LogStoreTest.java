@@ -0,0 +1,112 @@
+package com.frpc.launcher;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class LogStoreTest {
+
+    private static LogRecord record(String line, LogRecord.Level level) {
+        return LogRecord.plain(line, level, 0);
+    }
+
+    private static String join(List<LogRecord> records) {
+        StringBuilder sb = new StringBuilder();
+        for (LogRecord record : records) {
+            sb.append(record.line);
+        }
+        return sb.toString();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNonPositiveCapacity() {
+        new LogStore(0);
+    }
+
+    @Test
+    public void readsIncrementallyBySequence() {
+        LogStore store = new LogStore(8);
+        store.append(record("a", LogRecord.Level.INFO));
+        store.append(record("b", LogRecord.Level.INFO));
+        List<LogRecord> out = new ArrayList<>();
+        long next = store.copySince(0, out);
+        assertEquals("ab", join(out));
+        assertEquals(2, next);
+
+        store.append(record("c", LogRecord.Level.INFO));
+        out.clear();
+        assertEquals(3, store.copySince(next, out));
+        assertEquals("c", join(out));
+    }
+
+    @Test
+    public void overwritesOldestWhenFull() {
+        LogStore store = new LogStore(3);
+        for (String line : new String[]{"a", "b", "c", "d", "e"}) {
+            store.append(record(line, LogRecord.Level.INFO));
+        }
+        assertEquals(2, store.getFirstSeq());
+        assertEquals(3, store.size());
+        List<LogRecord> out = new ArrayList<>();
+        store.copySince(0, out);
+        assertEquals("cde", join(out));
+    }
+
+    @Test
+    public void filtersByLevelAcrossWrap() {
+        LogStore store = new LogStore(4);
+        store.append(record("1", LogRecord.Level.INFO));
+        store.append(record("2", LogRecord.Level.ERROR));
+        store.append(record("3", LogRecord.Level.WARN));
+        store.append(record("4", LogRecord.Level.INFO));
+        store.append(record("5", LogRecord.Level.ERROR));
+        store.append(record("6", LogRecord.Level.WARN));
+        // 保留 3..6，槽位为 2,3,0,1
+        List<LogRecord> out = new ArrayList<>();
+        long next = store.copyMatching(0, store.getNextSeq(), 100,
+                EnumSet.of(LogRecord.Level.WARN, LogRecord.Level.ERROR), out);
+        assertEquals("356", join(out));
+        assertEquals(6, next);
+    }
+
+    @Test
+    public void scansInChunks() {
+        LogStore store = new LogStore(10);
+        for (int i = 0; i < 5; i++) {
+            store.append(record(String.valueOf(i), i % 2 == 0 ? LogRecord.Level.INFO : LogRecord.Level.DEBUG));
+        }
+        List<LogRecord> out = new ArrayList<>();
+        long next = store.copyMatching(0, store.getNextSeq(), 2, EnumSet.of(LogRecord.Level.INFO), out);
+        assertEquals(2, next);
+        next = store.copyMatching(next, store.getNextSeq(), 2, EnumSet.of(LogRecord.Level.INFO), out);
+        next = store.copyMatching(next, store.getNextSeq(), 2, EnumSet.of(LogRecord.Level.INFO), out);
+        assertEquals("024", join(out));
+        assertEquals(5, next);
+        // 已没有可扫描的行
+        assertEquals(5, store.copyMatching(next, store.getNextSeq(), 2, EnumSet.of(LogRecord.Level.INFO), out));
+    }
+
+    @Test
+    public void clearKeepsSequenceIncreasing() {
+        LogStore store = new LogStore(4);
+        store.append(record("a", LogRecord.Level.INFO));
+        store.append(record("b", LogRecord.Level.INFO));
+        store.clear();
+        assertEquals(0, store.size());
+        assertEquals(2, store.getFirstSeq());
+        List<LogRecord> out = new ArrayList<>();
+        assertEquals(2, store.copySince(0, out));
+        assertEquals(0, out.size());
+
+        store.append(record("c", LogRecord.Level.INFO));
+        store.copySince(0, out);
+        assertEquals("c", join(out));
+        out.clear();
+        store.copyMatching(0, store.getNextSeq(), 10, EnumSet.of(LogRecord.Level.INFO), out);
+        assertEquals("c", join(out));
+    }
+}
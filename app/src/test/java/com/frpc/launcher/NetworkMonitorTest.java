@@ -0,0 +1,166 @@
+package com.frpc.launcher;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkInfo;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowConnectivityManager;
+import org.robolectric.shadows.ShadowNetwork;
+import org.robolectric.shadows.ShadowNetworkInfo;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = Build.VERSION_CODES.P)
+public class NetworkMonitorTest {
+    private final Network wifi = ShadowNetwork.newInstance(1);
+    private final Network cellular = ShadowNetwork.newInstance(2);
+
+    private ShadowConnectivityManager connectivity;
+    private NetworkMonitor monitor;
+    private int changed;
+    private int lost;
+
+    @Before
+    public void setUp() {
+        Context context = RuntimeEnvironment.getApplication();
+        connectivity = shadowOf((ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE));
+        setConnected(true);
+        monitor = new NetworkMonitor(context, new Handler(Looper.getMainLooper()), new NetworkMonitor.Listener() {
+            @Override
+            public void onNetworkChanged() {
+                changed++;
+            }
+
+            @Override
+            public void onNetworkLost() {
+                lost++;
+            }
+        });
+        monitor.start();
+    }
+
+    private void setConnected(boolean connected) {
+        connectivity.setActiveNetworkInfo(connected
+                ? ShadowNetworkInfo.newInstance(NetworkInfo.DetailedState.CONNECTED,
+                ConnectivityManager.TYPE_WIFI, 0, true, NetworkInfo.State.CONNECTED)
+                : null);
+    }
+
+    private ConnectivityManager.NetworkCallback callback() {
+        assertEquals(1, connectivity.getNetworkCallbacks().size());
+        return connectivity.getNetworkCallbacks().iterator().next();
+    }
+
+    private static void idleFor(long millis) {
+        shadowOf(Looper.getMainLooper()).idleFor(millis, TimeUnit.MILLISECONDS);
+    }
+
+    @Test
+    public void initialNetworkIsNotAChange() {
+        callback().onAvailable(wifi);
+        idleFor(5000);
+        assertEquals(0, changed);
+        assertTrue(monitor.isAvailable());
+    }
+
+    @Test
+    public void switchesAreDebounced() {
+        callback().onAvailable(wifi);
+        idleFor(100);
+        callback().onAvailable(cellular);
+        idleFor(500);
+        callback().onAvailable(wifi);
+        idleFor(1000);
+        assertEquals(0, changed);
+        idleFor(1000);
+        assertEquals(1, changed);
+    }
+
+    @Test
+    public void lossSuspendsAndRecoveryReconnects() {
+        callback().onAvailable(wifi);
+        idleFor(100);
+        setConnected(false);
+        callback().onLost(wifi);
+        idleFor(100);
+        // 断网立即生效，重启不再消耗次数；回调经过去抖
+        assertFalse(monitor.isAvailable());
+        assertEquals(0, lost);
+        idleFor(2000);
+        assertEquals(1, lost);
+
+        setConnected(true);
+        callback().onAvailable(cellular);
+        idleFor(100);
+        assertTrue(monitor.isAvailable());
+        idleFor(2000);
+        assertEquals(1, changed);
+    }
+
+    @Test
+    public void briefLossDuringSwitchOnlyReportsChange() {
+        callback().onAvailable(wifi);
+        idleFor(100);
+        setConnected(false);
+        callback().onLost(wifi);
+        idleFor(300);
+        setConnected(true);
+        callback().onAvailable(cellular);
+        idleFor(3000);
+        assertEquals(0, lost);
+        assertEquals(1, changed);
+    }
+
+    @Test
+    public void lossOfStaleNetworkIsIgnored() {
+        callback().onAvailable(wifi);
+        idleFor(100);
+        callback().onAvailable(cellular);
+        idleFor(2000);
+        callback().onLost(wifi);
+        idleFor(2000);
+        assertEquals(1, changed);
+        assertEquals(0, lost);
+        assertTrue(monitor.isAvailable());
+    }
+
+    @Test
+    @Config(sdk = Build.VERSION_CODES.LOLLIPOP)
+    public void legacyLossWithOtherNetworkIsSwitch() {
+        // Android 7.0 以下不会为剩下的网络再回调 onAvailable
+        callback().onAvailable(wifi);
+        idleFor(100);
+        callback().onLost(wifi);
+        idleFor(2000);
+        assertEquals(1, changed);
+        assertEquals(0, lost);
+    }
+
+    @Test
+    public void stopUnregistersAndCancelsPending() {
+        callback().onAvailable(wifi);
+        idleFor(100);
+        callback().onAvailable(cellular);
+        idleFor(100);
+        monitor.stop();
+        idleFor(2000);
+        assertEquals(0, changed);
+        assertTrue(connectivity.getNetworkCallbacks().isEmpty());
+    }
+}
@@ -0,0 +1,121 @@
+package com.frpc.launcher;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class ProxyAllocatorTest {
+    private static final int MIN_PORT = 20000;
+    private static final int MAX_PORT = 20999;
+
+    private Context context;
+    private SharedPreferences prefs;
+
+    @Before
+    public void setUp() {
+        context = RuntimeEnvironment.getApplication();
+        prefs = context.getSharedPreferences("frpc_lease", Context.MODE_PRIVATE);
+    }
+
+    @Test
+    public void leaseIsInRangeAndStableAcrossRestarts() {
+        ProxyAllocator.Lease first = new ProxyAllocator(context).acquire(MIN_PORT, MAX_PORT);
+        assertTrue(first.port >= MIN_PORT && first.port <= MAX_PORT);
+        assertTrue(first.name.startsWith("frpc-"));
+        ProxyAllocator allocator = new ProxyAllocator(context);
+        ProxyAllocator.Lease lease = allocator.acquire(MIN_PORT, MAX_PORT);
+        allocator.confirm();
+
+        // 新进程读取持久化的租约
+        ProxyAllocator.Lease again = new ProxyAllocator(context).acquire(MIN_PORT, MAX_PORT);
+        assertEquals(lease.name, again.name);
+        assertEquals(lease.port, again.port);
+    }
+
+    @Test
+    public void leaseIsPersistedOnlyAfterConfirm() {
+        ProxyAllocator allocator = new ProxyAllocator(context);
+        ProxyAllocator.Lease lease = allocator.acquire(MIN_PORT, MAX_PORT);
+        assertFalse(prefs.contains("port"));
+        // 注册成功前重复获取得到同一个租约
+        assertEquals(lease.port, allocator.acquire(MIN_PORT, MAX_PORT).port);
+        allocator.confirm();
+        assertEquals(lease.port, prefs.getInt("port", 0));
+        assertEquals(lease.name, prefs.getString("name", null));
+    }
+
+    @Test
+    public void registeredLeaseIsRetriedWithBackoffBeforeRotating() {
+        ProxyAllocator allocator = new ProxyAllocator(context);
+        ProxyAllocator.Lease lease = allocator.acquire(MIN_PORT, MAX_PORT);
+        allocator.confirm();
+
+        long expectedDelay = 5000;
+        for (int attempt = 0; attempt < ProxyAllocator.SAME_LEASE_RETRIES; attempt++) {
+            ProxyAllocator.Retry retry = allocator.reject(true, attempt, MIN_PORT, MAX_PORT);
+            assertEquals(lease.port, retry.lease.port);
+            assertEquals(lease.name, retry.lease.name);
+            assertEquals(expectedDelay, retry.delayMs);
+            expectedDelay *= 2;
+        }
+        ProxyAllocator.Retry rotated = allocator.reject(true, ProxyAllocator.SAME_LEASE_RETRIES, MIN_PORT, MAX_PORT);
+        assertEquals(0, rotated.delayMs);
+        assertNotEquals(lease.port, rotated.lease.port);
+        assertEquals(lease.name, rotated.lease.name);
+        // 新端口注册成功之前，持久化的仍是原来的租约
+        assertEquals(lease.port, prefs.getInt("port", 0));
+        assertEquals(rotated.lease.port, allocator.acquire(MIN_PORT, MAX_PORT).port);
+    }
+
+    @Test
+    public void unregisteredLeaseRotatesImmediately() {
+        ProxyAllocator allocator = new ProxyAllocator(context);
+        ProxyAllocator.Lease lease = allocator.acquire(MIN_PORT, MAX_PORT);
+        ProxyAllocator.Retry retry = allocator.reject(true, 0, MIN_PORT, MAX_PORT);
+        assertEquals(0, retry.delayMs);
+        assertNotEquals(lease.port, retry.lease.port);
+    }
+
+    @Test
+    public void rejectedNameGetsSuffixAndKeepsPort() {
+        ProxyAllocator allocator = new ProxyAllocator(context);
+        ProxyAllocator.Lease lease = allocator.acquire(MIN_PORT, MAX_PORT);
+        ProxyAllocator.Retry retry = allocator.reject(false, 0, MIN_PORT, MAX_PORT);
+        assertEquals(lease.port, retry.lease.port);
+        assertTrue(retry.lease.name.matches(lease.name + "-[0-9a-f]{4}"));
+        allocator.confirm();
+        // 带后缀的名称仍属于本设备，重启后继续使用
+        assertEquals(retry.lease.name, new ProxyAllocator(context).acquire(MIN_PORT, MAX_PORT).name);
+    }
+
+    @Test
+    public void rejectedPortIsNotPickedAgain() {
+        ProxyAllocator allocator = new ProxyAllocator(context);
+        int min = 30000;
+        int max = 30001;
+        int first = allocator.acquire(min, max).port;
+        int second = allocator.reject(true, 0, min, max).lease.port;
+        assertNotEquals(first, second);
+        assertEquals(second, allocator.acquire(min, max).port);
+    }
+
+    @Test
+    public void portOutsideNewRangeIsReallocated() {
+        ProxyAllocator allocator = new ProxyAllocator(context);
+        allocator.acquire(MIN_PORT, MAX_PORT);
+        allocator.confirm();
+        ProxyAllocator.Lease lease = new ProxyAllocator(context).acquire(40000, 40010);
+        assertTrue(lease.port >= 40000 && lease.port <= 40010);
+    }
+}
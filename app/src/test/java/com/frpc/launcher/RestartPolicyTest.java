@@ -0,0 +1,104 @@
+package com.frpc.launcher;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RestartPolicyTest {
+    private static final long MINUTE = 60 * 1000L;
+
+    @Test
+    public void backoffGrowsWithinJitterBounds() {
+        RestartPolicy policy = new RestartPolicy();
+        long now = 0;
+        for (int attempt = 0; attempt < 4; attempt++) {
+            RestartPolicy.Decision decision = policy.onExit(ErrorClassifier.Category.TIMEOUT, 1, "exit", now);
+            long full = 1000L << attempt;
+            assertTrue(decision.restart);
+            assertTrue(decision.delayMs >= full / 2 && decision.delayMs <= full);
+            now += MINUTE;
+        }
+    }
+
+    @Test
+    public void backoffIsCapped() {
+        RestartPolicy policy = new RestartPolicy();
+        RestartPolicy.Decision decision = null;
+        for (int i = 0; i < 30; i++) {
+            decision = policy.onExit(ErrorClassifier.Category.REFUSED, 1, "exit", i);
+        }
+        assertTrue(decision.restart);
+        assertTrue(decision.delayMs <= 5 * MINUTE);
+        assertTrue(decision.delayMs >= 5 * MINUTE / 2);
+    }
+
+    @Test
+    public void stableRunResetsBackoff() {
+        RestartPolicy policy = new RestartPolicy();
+        for (int i = 0; i < 5; i++) {
+            policy.onExit(ErrorClassifier.Category.TIMEOUT, 1, "exit", i);
+        }
+        policy.onStarted(0);
+        RestartPolicy.Decision decision = policy.onExit(ErrorClassifier.Category.TIMEOUT, 1, "exit", 2 * MINUTE);
+        assertTrue(decision.delayMs <= 1000);
+    }
+
+    @Test
+    public void loginAndConfigErrorsAreNotRetried() {
+        RestartPolicy policy = new RestartPolicy();
+        assertFalse(policy.onExit(ErrorClassifier.Category.LOGIN, 1, "exit", 0).restart);
+        assertFalse(policy.onExit(ErrorClassifier.Category.CONFIG, 1, "exit", 0).restart);
+    }
+
+    @Test
+    public void detectsCrashLoop() {
+        RestartPolicy policy = new RestartPolicy();
+        long now = 0;
+        RestartPolicy.Decision decision = null;
+        for (int i = 0; i < 5; i++) {
+            policy.onStarted(now);
+            now += 1000;
+            decision = policy.onExit(ErrorClassifier.Category.UNKNOWN, 2, "exit", now);
+        }
+        assertFalse(decision.restart);
+    }
+
+    @Test
+    public void failedRestartsAreNotCrashes() {
+        // 未就绪时的退出只退避，不计入崩溃循环
+        RestartPolicy policy = new RestartPolicy();
+        for (int i = 0; i < 10; i++) {
+            assertTrue(policy.onExit(ErrorClassifier.Category.TIMEOUT, 1, "exit", i * 1000L).restart);
+        }
+    }
+
+    @Test
+    public void crashesOutsideWindowAreForgotten() {
+        RestartPolicy policy = new RestartPolicy();
+        long now = 0;
+        for (int i = 0; i < 4; i++) {
+            policy.onStarted(now);
+            now += 1000;
+            policy.onExit(ErrorClassifier.Category.UNKNOWN, 2, "exit", now);
+        }
+        now += 11 * MINUTE;
+        policy.onStarted(now);
+        assertTrue(policy.onExit(ErrorClassifier.Category.UNKNOWN, 2, "exit", now + 1000).restart);
+    }
+
+    @Test
+    public void resetClearsCrashLoopButKeepsHistory() {
+        RestartPolicy policy = new RestartPolicy();
+        for (int i = 0; i < 5; i++) {
+            policy.onStarted(i * 1000L);
+            policy.onExit(ErrorClassifier.Category.UNKNOWN, 2, "exit", i * 1000L + 500);
+        }
+        policy.reset();
+        policy.onStarted(10000);
+        assertTrue(policy.onExit(ErrorClassifier.Category.UNKNOWN, 2, "exit", 10500).restart);
+        assertEquals(6, policy.getHistory().size());
+        assertFalse(policy.getHistory().get(4).isRestarted());
+    }
+}
@@ -0,0 +1,112 @@
+package com.frpc.launcher;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ServiceStateMachineTest {
+    private ServiceStateMachine machine;
+
+    @Before
+    public void setUp() {
+        // 不在主线程投递，这里只检查转换
+        machine = new ServiceStateMachine("test", new Handler(Looper.getMainLooper()), state -> {
+        });
+    }
+
+    private void moveTo(ServiceState.Phase... phases) {
+        for (ServiceState.Phase phase : phases) {
+            assertTrue(phase.name(), machine.transition(phase));
+        }
+    }
+
+    @Test
+    public void normalLifecycle() {
+        moveTo(ServiceState.Phase.STAGING, ServiceState.Phase.LAUNCHING, ServiceState.Phase.READY,
+                ServiceState.Phase.STOPPING, ServiceState.Phase.IDLE);
+        assertEquals(ServiceState.Phase.IDLE, machine.get().phase);
+        assertEquals(5, machine.get().version);
+    }
+
+    @Test
+    public void rejectsIllegalTransition() {
+        assertFalse(machine.transition(ServiceState.Phase.READY));
+        assertEquals(ServiceState.Phase.IDLE, machine.get().phase);
+        assertEquals(0, machine.get().version);
+    }
+
+    @Test
+    public void stopAlwaysEndsIdle() {
+        moveTo(ServiceState.Phase.STAGING, ServiceState.Phase.STOPPING);
+        assertFalse(machine.transition(ServiceState.Phase.RECONNECTING));
+        assertFalse(machine.transition(ServiceState.Phase.STAGING));
+        assertTrue(machine.transition(ServiceState.Phase.IDLE));
+    }
+
+    @Test
+    public void launchingCannotReturnToStaging() {
+        moveTo(ServiceState.Phase.STAGING, ServiceState.Phase.LAUNCHING);
+        assertFalse(machine.transition(ServiceState.Phase.STAGING));
+        // 重新分配要经过 RECONNECTING
+        moveTo(ServiceState.Phase.RECONNECTING, ServiceState.Phase.STAGING);
+    }
+
+    @Test
+    public void conditionalTransitionChecksSource() {
+        moveTo(ServiceState.Phase.STAGING);
+        assertFalse(machine.transition(ServiceState.Phase.LAUNCHING, ServiceState.Phase.READY));
+        assertTrue(machine.transition(ServiceState.Phase.STAGING, ServiceState.Phase.LAUNCHING));
+    }
+
+    @Test
+    public void failRecordsErrorAndStartClearsIt() {
+        moveTo(ServiceState.Phase.STAGING);
+        assertTrue(machine.fail("boom"));
+        assertEquals(ServiceState.Phase.FAILED, machine.get().phase);
+        assertEquals("boom", machine.get().error);
+        assertTrue(machine.update(current -> current.withPhase(ServiceState.Phase.STAGING).withError(null)));
+        assertNull(machine.get().error);
+    }
+
+    @Test
+    public void updateReturningNullIsRejected() {
+        assertFalse(machine.update(current -> null));
+        assertEquals(0, machine.get().version);
+    }
+
+    @Test
+    public void concurrentStartsHaveSingleWinner() throws InterruptedException {
+        int threads = 8;
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(threads);
+        AtomicInteger winners = new AtomicInteger();
+        for (int i = 0; i < threads; i++) {
+            new Thread(() -> {
+                try {
+                    start.await();
+                    if (machine.transition(ServiceState.Phase.IDLE, ServiceState.Phase.STAGING)) {
+                        winners.incrementAndGet();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            }).start();
+        }
+        start.countDown();
+        done.await();
+        assertEquals(1, winners.get());
+        assertEquals(1, machine.get().version);
+    }
+}